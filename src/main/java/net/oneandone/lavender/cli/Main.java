@@ -56,13 +56,14 @@ public class Main {
                 cli.begin(globals);
             }
 
-            cli.add(War.class, "war war cluster docroot index");
+            cli.add(War.class, "war -inline=0 war cluster docroot index");
             cli.add(ScanLegacy.class, "scan-legacy war");
             cli.add(Scm.class, "scm -prefix=null scm cluster docroot index?");
             cli.add(File.class, "file -prefix archive cluster docroot index");
             cli.add(Direct.class, "direct cluster arg+");
             cli.add(Fsck.class, "fsck -md5 -gc -mac -repair-all-idx cluster");
             cli.add(RemoveEntry.class, "remove-entry cluster originalPath+");
+            cli.add(Simulate.class, "simulate -policy=hash -load=0 index nodes");
 
             return cli.run(args);
         }
@@ -76,9 +77,10 @@ public class Main {
         help.append("usage: 'lavender' global-options command\n");
         help.append("\n");
         help.append("publishing commands\n");
-        help.append("  'war' war cluster docroot index\n");
+        help.append("  'war' ['-inline' bytes] war cluster docroot index\n");
         help.append("                            publish resources from the specified war, adds nodes- and index file to the war\n");
-        help.append("                            index is a file name with suffix\n");
+        help.append("                            index is a file name with suffix;\n");
+        help.append("                            -inline adds images and fonts up to the specified size to the inline file\n");
         help.append("  'scan-legacy' war         list all legacy modules in the specified war;\n");
         help.append("                            legacy is a pustefix module with embedded resources but not lavender.properties file\n");
         help.append("  'scm' ['-prefix' prefix] scm cluster docroot index?\n");
@@ -101,6 +103,10 @@ public class Main {
         help.append("  'remove-entry' cluster originalPath+\n");
         help.append("                            removes the specified entries from from all indexes where it is found\n");
         help.append("                            Note that the referenced file is not deleted - that's up to the next gc run.\n");
+        help.append("  'simulate' ['-policy' policy] ['-load' factor] index nodes\n");
+        help.append("                            prints the number of entries of the index (a lavender.idx file) per http node\n");
+        help.append("                            of the nodes file (lavender.nodes, optionally with 'weight=n' after a url);\n");
+        help.append("                            policy is hash, single or subset:n; load is the bounded load factor, 0 for none\n");
         help.append("global options\n");
         help.append("  '-await' seconds          how long to wait for a lock before giving up; default is 600\n");
         help.append("  '-user' email             written to lock files to know who's currently holding the lock; defaults to unknown@all\n");
@@ -0,0 +1,77 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.cli;
+
+import net.oneandone.lavender.filter.processor.LavenderRewriteEngine;
+import net.oneandone.lavender.filter.processor.RewritePolicy;
+import net.oneandone.lavender.index.CompactIndex;
+import net.oneandone.sushi.fs.file.FileNode;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/** Reports how the entries of an index are distributed across the http nodes of a nodes file. */
+public class Simulate extends Base {
+    private final FileNode index;
+    private final FileNode nodes;
+    private final RewritePolicy policy;
+
+    public Simulate(Globals globals, String policy, String load, FileNode index, FileNode nodes) throws IOException {
+        super(globals);
+        this.index = index.checkFile();
+        this.nodes = nodes.checkFile();
+        try {
+            this.policy = RewritePolicy.parse(policy).withBoundedLoad(Double.parseDouble(load));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid policy or load: " + e.getMessage(), e);
+        }
+    }
+
+    public void run() throws IOException {
+        LavenderRewriteEngine engine;
+        Map<String, Integer> distribution;
+        List<String> hosts;
+        double totalWeight;
+        int total;
+        int count;
+        double expected;
+        double max;
+
+        engine = LavenderRewriteEngine.load(CompactIndex.load(index), nodes, 0, policy);
+        distribution = engine.distribution();
+        hosts = new ArrayList<>(distribution.keySet());
+        Collections.sort(hosts);
+        total = 0;
+        totalWeight = 0;
+        for (String host : hosts) {
+            total += distribution.get(host);
+            totalWeight += engine.weight(host);
+        }
+        console.info.println("policy " + policy + ", " + total + " entries, " + hosts.size() + " nodes");
+        max = 0;
+        for (String host : hosts) {
+            count = distribution.get(host);
+            expected = total * engine.weight(host) / totalWeight;
+            max = Math.max(max, count / expected);
+            console.info.println(String.format("  %-40s weight %5.2f  %8d entries  %5.1f%%  %5.2f x mean",
+                    host, engine.weight(host), count, 100.0 * count / total, count / expected));
+        }
+        console.info.println(String.format("max/mean %.2f", max));
+    }
+}
@@ -31,10 +31,21 @@ public class War extends Base {
     private final Cluster cluster;
     private final Docroot docroot;
     private String nodes;
+    private final int inline;
 
-    public War(Globals globals, FileNode war, String clusterName, String docrootName, String indexName) throws IOException, URISyntaxException {
+    public War(Globals globals, String inline, FileNode war, String clusterName, String docrootName, String indexName)
+            throws IOException, URISyntaxException {
         super(globals);
 
+        try {
+            this.inline = Integer.parseInt(inline);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid inline size: " + inline, e);
+        }
+        if (this.inline < 0) {
+            throw new IllegalArgumentException("invalid inline size: " + inline);
+        }
+
         this.war = war.checkFile();
         this.indexName = indexName;
         this.cluster = globals.network().get(clusterName);
@@ -55,7 +66,7 @@ public class War extends Base {
         try (Pool pool = globals.pool()) {
             cacheroot = globals.cacheroot();
             engine = new WarEngine(cacheroot, Distributor.open(cacheroot, cluster.connect(pool), docroot, indexName), properties.secrets,
-                    war, outputNodesFile, nodes);
+                    war, outputNodesFile, nodes, inline);
             engine.run();
         }
         outputNodesFile.deleteFile();
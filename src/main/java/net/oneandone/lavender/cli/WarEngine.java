@@ -18,6 +18,9 @@ package net.oneandone.lavender.cli;
 import net.oneandone.lavender.config.Secrets;
 import net.oneandone.lavender.filter.Lavender;
 import net.oneandone.lavender.index.Index;
+import net.oneandone.lavender.index.InlineResources;
+import net.oneandone.lavender.index.MappedIndex;
+import net.oneandone.lavender.index.Util;
 import net.oneandone.lavender.modules.Distributor;
 import net.oneandone.lavender.modules.Module;
 import net.oneandone.lavender.modules.NodeModule;
@@ -35,6 +38,7 @@ import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -52,14 +56,23 @@ public class WarEngine {
     private final FileNode war;
     private final FileNode outputNodesFile;
     private final String nodes;
+    /** null to not inline resources */
+    private final InlineResources inline;
 
     public WarEngine(FileNode cache, Distributor distributor, Secrets secrets, FileNode war, FileNode outputNodesFile, String nodes) {
+        this(cache, distributor, secrets, war, outputNodesFile, nodes, 0);
+    }
+
+    /** @param inlineSize images and fonts up to this number of bytes are added to the inline file; 0 for none */
+    public WarEngine(FileNode cache, Distributor distributor, Secrets secrets, FileNode war, FileNode outputNodesFile, String nodes,
+                     int inlineSize) {
         this.cache = cache;
         this.distributor = distributor;
         this.secrets = secrets;
         this.war = war;
         this.outputNodesFile = outputNodesFile;
         this.nodes = nodes;
+        this.inline = inlineSize > 0 ? new InlineResources(inlineSize) : null;
     }
 
     /**
@@ -86,6 +99,9 @@ public class WarEngine {
         outputNodesFile.writeString(nodes);
         warStart = System.currentTimeMillis();
         updateWarFile(index, outputNodesFile);
+        if (inline != null) {
+            LOG.info("inline resources: " + inline.size());
+        }
         LOG.info("updated war " + (war.size() / 1024) + "k, " + (System.currentTimeMillis() - warStart) + " ms");
         LOG.info("done: "
                 + changed + "/" + absolute + " files changed in " + modules.size() + " modules, " + (System.currentTimeMillis() - started) + " ms");
@@ -98,7 +114,7 @@ public class WarEngine {
 
         changed = 0;
         for (Module module : modules) {
-            count = distributor.publish(module);
+            count = distributor.publish(module, inline);
             LOG.info("publish module " + module.getName() + ": " + count);
             changed += count;
         }
@@ -106,8 +122,8 @@ public class WarEngine {
     }
 
     /**
-     * Add lavender.idx and lavender.nodes to war file using ZipFileSystemProvider. It assumes that the
-     * WEB-INF directory already in the war file
+     * Add lavender.idx, lavender.idx.bin, lavender.nodes and - if enabled - lavender.inline to war file using ZipFileSystemProvider.
+     * It assumes that the WEB-INF directory already in the war file
      *
      * @param webIndex Lavender index for lavender.idx file containing mappings from originalPath to
      *                 lavenderized path (CDN paths)
@@ -117,16 +133,37 @@ public class WarEngine {
         Map<String, Object> env;
         Path entry;
         ByteArrayOutputStream output;
+        byte[] text;
+        long modified;
 
         env = new HashMap<>();
         try (FileSystem fs = FileSystems.newFileSystem(URI.create("jar:" + war.getUri().toString()), env, null)) {
             entry = fs.getPath(Lavender.LAVENDER_IDX);
             output = new ByteArrayOutputStream();
             webIndex.save(output);
+            text = output.toByteArray();
+            Files.copy(new ByteArrayInputStream(text), entry, StandardCopyOption.REPLACE_EXISTING);
+            // zip entries store modification times in 2 second steps
+            modified = System.currentTimeMillis() / 2000 * 2000;
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(modified));
+
+            entry = fs.getPath(Lavender.LAVENDER_IDX_BIN);
+            output = new ByteArrayOutputStream();
+            MappedIndex.save(webIndex, Util.md5(text), text.length, modified, output);
             Files.copy(new ByteArrayInputStream(output.toByteArray()), entry, StandardCopyOption.REPLACE_EXISTING);
 
             entry = fs.getPath(Lavender.LAVENDER_NODES);
             Files.copy(nodesFile.newInputStream(), entry, StandardCopyOption.REPLACE_EXISTING);
+
+            entry = fs.getPath(Lavender.LAVENDER_INLINE);
+            if (inline != null) {
+                output = new ByteArrayOutputStream();
+                inline.save(output);
+                Files.copy(new ByteArrayInputStream(output.toByteArray()), entry, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                // a stale file would inline outdated content
+                Files.deleteIfExists(entry);
+            }
         }
     }
 
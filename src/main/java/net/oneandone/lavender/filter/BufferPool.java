@@ -0,0 +1,53 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.filter;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Bounded pool of byte arrays of the same size. Thread-safe.
+ */
+public final class BufferPool {
+    /** Max number of idle buffers kept */
+    public static final int POOL_SIZE = 64;
+
+    private final int size;
+    private final BlockingQueue<byte[]> idle;
+
+    public BufferPool(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("invalid size: " + size);
+        }
+        this.size = size;
+        this.idle = new ArrayBlockingQueue<>(POOL_SIZE);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    byte[] acquire() {
+        byte[] result;
+
+        result = idle.poll();
+        return result != null ? result : new byte[size];
+    }
+
+    void release(byte[] buffer) {
+        idle.offer(buffer);
+    }
+}
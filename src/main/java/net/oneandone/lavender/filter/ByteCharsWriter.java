@@ -0,0 +1,90 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.filter;
+
+import net.oneandone.lavender.filter.processor.ByteChars;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * A {@link Writer} that writes {@link ByteChars} as the bytes they represent. Other chars are encoded with the charset.
+ */
+public class ByteCharsWriter extends Writer {
+    private final OutputStream dest;
+    private final Charset charset;
+    private final byte[] bytes;
+
+    public ByteCharsWriter(OutputStream dest, Charset charset, int bufferSize) {
+        this.dest = dest;
+        this.charset = charset;
+        this.bytes = new byte[bufferSize];
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        int b;
+
+        b = ByteChars.toByte((char) c);
+        if (b == -1) {
+            dest.write(String.valueOf((char) c).getBytes(charset));
+        } else {
+            dest.write(b);
+        }
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        int end;
+        int count;
+        int b;
+        int start;
+
+        end = off + len;
+        count = 0;
+        for (int i = off; i < end; i++) {
+            b = ByteChars.toByte(cbuf[i]);
+            if (b == -1) {
+                dest.write(bytes, 0, count);
+                count = 0;
+                start = i;
+                while (i + 1 < end && ByteChars.toByte(cbuf[i + 1]) == -1) {
+                    i++;
+                }
+                dest.write(new String(cbuf, start, i + 1 - start).getBytes(charset));
+            } else {
+                if (count == bytes.length) {
+                    dest.write(bytes, 0, count);
+                    count = 0;
+                }
+                bytes[count++] = (byte) b;
+            }
+        }
+        dest.write(bytes, 0, count);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        dest.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        dest.close();
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.filter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * OutputStream that collects data in a pooled buffer. If the stream is closed before the buffer is full, the length is
+ * known and the data is written with a single call; otherwise it switches to streaming. Like {@link GzipOutputStream},
+ * flushing does not end buffering, use commit for this.
+ */
+public abstract class ContentLengthOutputStream extends OutputStream {
+    private final BufferPool pool;
+    private final OutputStream dest;
+
+    /** null if empty or streaming */
+    private byte[] buffer;
+    private int count;
+
+    private boolean started;
+    private boolean closed;
+
+    public ContentLengthOutputStream(BufferPool pool, OutputStream dest) {
+        this.pool = pool;
+        this.dest = dest;
+        this.buffer = null;
+        this.count = 0;
+        this.started = false;
+        this.closed = false;
+    }
+
+    /**
+     * Called once, before anything is written to dest.
+     * @param length number of bytes if the stream was closed before the buffer was full, -1 otherwise
+     */
+    protected abstract void start(int length) throws IOException;
+
+    @Override
+    public void write(int b) throws IOException {
+        if (closed) {
+            throw new IOException("stream closed");
+        }
+        if (started) {
+            dest.write(b);
+        } else {
+            if (buffer == null) {
+                buffer = pool.acquire();
+            }
+            if (count == buffer.length) {
+                begin(-1);
+                dest.write(b);
+            } else {
+                buffer[count++] = (byte) b;
+            }
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("stream closed");
+        }
+        if (started) {
+            dest.write(b, off, len);
+        } else {
+            if (buffer == null) {
+                buffer = pool.acquire();
+            }
+            if (count + len > buffer.length) {
+                begin(-1);
+                dest.write(b, off, len);
+            } else {
+                System.arraycopy(b, off, buffer, count, len);
+                count += len;
+            }
+        }
+    }
+
+    /** Switches to streaming and flushes everything written so far. */
+    public void commit() throws IOException {
+        if (closed) {
+            return;
+        }
+        if (!started) {
+            begin(-1);
+        }
+        flush();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (closed || !started) {
+            return;
+        }
+        dest.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (!started) {
+                begin(count);
+            }
+            dest.close();
+        } finally {
+            release();
+        }
+    }
+
+    //--
+
+    private void begin(int length) throws IOException {
+        started = true;
+        start(length);
+        if (count > 0) {
+            dest.write(buffer, 0, count);
+        }
+        release();
+    }
+
+    private void release() {
+        if (buffer != null) {
+            pool.release(buffer);
+            buffer = null;
+            count = 0;
+        }
+    }
+}
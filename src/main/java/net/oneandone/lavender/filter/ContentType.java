@@ -0,0 +1,81 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.filter;
+
+import net.oneandone.lavender.filter.processor.ProcessorFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.activation.MimeType;
+import javax.activation.MimeTypeParseException;
+
+/**
+ * How to handle responses of a Content-Type header value. Immutable.
+ */
+public final class ContentType {
+    private static final Logger LOG = LoggerFactory.getLogger(ContentType.class);
+
+    /** For content types that cannot be parsed: neither processed nor gzipped */
+    public static final ContentType INVALID = new ContentType(null, null, false, false);
+
+    /** @param gzip null if not known, i.e. if the client cannot receive gzip */
+    public static ContentType parse(String contentType, ProcessorFactory processorFactory, Gzip gzip) {
+        MimeType mimeType;
+        String baseType;
+
+        try {
+            mimeType = new MimeType(contentType);
+        } catch (MimeTypeParseException e) {
+            LOG.warn("cannot parse mimeType: " + contentType, e);
+            return INVALID;
+        }
+        baseType = mimeType.getBaseType().toLowerCase();
+        return new ContentType(baseType, mimeType.getParameter("charset"), processorFactory.canProcess(baseType),
+                gzip != null && gzip.isEnabled(baseType));
+    }
+
+    /** lower-case, without parameters; null if invalid */
+    private final String baseType;
+    /** null if not specified */
+    private final String charset;
+    private final boolean processed;
+    private final boolean gzip;
+
+    public ContentType(String baseType, String charset, boolean processed, boolean gzip) {
+        this.baseType = baseType;
+        this.charset = charset;
+        this.processed = processed;
+        this.gzip = gzip;
+    }
+
+    public String getBaseType() {
+        return baseType;
+    }
+
+    public String getCharset() {
+        return charset;
+    }
+
+    /** @return true if the processor factory might create a processor */
+    public boolean isProcessed() {
+        return processed;
+    }
+
+    /** @return true if gzip is enabled for the type */
+    public boolean isGzip() {
+        return gzip;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.filter;
+
+import net.oneandone.lavender.filter.processor.ProcessorFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of parsed Content-Type header values for a processor factory and gzip settings. Applications use few distinct
+ * values; once the cache is full, new values are parsed for every response. Thread-safe.
+ */
+public class ContentTypes {
+    public static final int MAX_SIZE = 256;
+
+    private final ProcessorFactory processorFactory;
+    private final Gzip gzip;
+    private final Map<String, ContentType> map;
+
+    private final LongAdder hits;
+    private final LongAdder misses;
+
+    /** @param gzip null if gzip is disabled */
+    public ContentTypes(ProcessorFactory processorFactory, Gzip gzip) {
+        this.processorFactory = processorFactory;
+        this.gzip = gzip;
+        this.map = new ConcurrentHashMap<>();
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+    }
+
+    public ContentType get(String contentType) {
+        ContentType result;
+
+        result = map.get(contentType);
+        if (result != null) {
+            hits.increment();
+            return result;
+        }
+        misses.increment();
+        result = ContentType.parse(contentType, processorFactory, gzip);
+        if (map.size() < MAX_SIZE) {
+            map.putIfAbsent(contentType, result);
+        }
+        return result;
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+}
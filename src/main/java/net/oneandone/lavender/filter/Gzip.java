@@ -16,9 +16,19 @@
 package net.oneandone.lavender.filter;
 
 import javax.servlet.http.HttpServletRequest;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
 
 /**
- * gzip handling
+ * gzip handling. Instances hold the compression settings of a filter, a bounded pool of Deflaters and statistics.
+ * Thread-safe.
  */
 public final class Gzip {
     public static boolean canGzip(HttpServletRequest request) {
@@ -51,6 +61,148 @@ public final class Gzip {
         return !"0".equals(quality.substring(idx + 1).trim());
     }
 
-    private Gzip() {
+    //--
+
+    public static final int DEFAULT_LEVEL = 6;
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+    /** Smaller responses are not worth the header and the deflate overhead */
+    public static final int DEFAULT_MIN_SIZE = 1024;
+    public static final List<String> DEFAULT_TYPES = Arrays.asList("text/html", "text/css", "text/javascript", "application/javascript");
+
+    /** Max number of idle Deflaters kept */
+    public static final int POOL_SIZE = 64;
+
+    public static final Gzip DEFAULT = new Gzip(DEFAULT_LEVEL, DEFAULT_BUFFER_SIZE, DEFAULT_MIN_SIZE, DEFAULT_TYPES);
+
+    private final int level;
+    private final int bufferSize;
+    private final int minSize;
+    /** lower-case base types */
+    private final Set<String> types;
+
+    private final BlockingQueue<Deflater> idle;
+    /** Set by destroy; Deflaters released afterwards, e.g. by responses still running after a reload, are ended */
+    private volatile boolean destroyed;
+
+    private final LongAdder responses;
+    private final LongAdder skipped;
+    private final LongAdder bytesIn;
+    private final LongAdder bytesOut;
+    private final LongAdder nanos;
+
+    public Gzip(int level, int bufferSize, int minSize, Collection<String> types) {
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("invalid level: " + level);
+        }
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("invalid bufferSize: " + bufferSize);
+        }
+        if (minSize < 0) {
+            throw new IllegalArgumentException("invalid minSize: " + minSize);
+        }
+        this.level = level;
+        this.bufferSize = bufferSize;
+        this.minSize = minSize;
+        this.types = new HashSet<>();
+        for (String type : types) {
+            this.types.add(type.trim().toLowerCase());
+        }
+        this.idle = new ArrayBlockingQueue<>(POOL_SIZE);
+        this.responses = new LongAdder();
+        this.skipped = new LongAdder();
+        this.bytesIn = new LongAdder();
+        this.bytesOut = new LongAdder();
+        this.nanos = new LongAdder();
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    /** @param baseType lower-case mime type without parameters */
+    public boolean isEnabled(String baseType) {
+        return types.contains(baseType);
+    }
+
+    //-- pool
+
+    /** @return a Deflater without input, producing raw deflate data as needed for gzip */
+    Deflater acquire() {
+        Deflater result;
+
+        result = idle.poll();
+        return result != null ? result : new Deflater(level, true);
+    }
+
+    void release(Deflater deflater) {
+        if (destroyed) {
+            deflater.end();
+            return;
+        }
+        deflater.reset();
+        if (!idle.offer(deflater)) {
+            deflater.end();
+        } else if (destroyed && idle.remove(deflater)) {
+            // destroy drained the pool before the offer
+            deflater.end();
+        }
+    }
+
+    /** Frees the native memory of idle Deflaters and of Deflaters released later */
+    public void destroy() {
+        Deflater deflater;
+
+        destroyed = true;
+        while (true) {
+            deflater = idle.poll();
+            if (deflater == null) {
+                break;
+            }
+            deflater.end();
+        }
+    }
+
+    //-- statistics
+
+    void compressed(long in, long out, long time) {
+        responses.increment();
+        bytesIn.add(in);
+        bytesOut.add(out);
+        nanos.add(time);
+    }
+
+    void skipped() {
+        skipped.increment();
+    }
+
+    /** @return number of compressed responses */
+    public long getResponses() {
+        return responses.sum();
+    }
+
+    /** @return number of responses not compressed because they're smaller than minSize */
+    public long getSkipped() {
+        return skipped.sum();
+    }
+
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    /** @return time spent in the Deflater */
+    public long getMillis() {
+        return nanos.sum() / 1000000;
     }
 }
@@ -0,0 +1,217 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.filter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * OutputStream that writes gzip data with a Deflater from the pool of the {@link Gzip} settings. Data is buffered
+ * until it reaches the minimum size; if the stream is closed before, the data is written uncompressed. Flushing
+ * does not force the decision, because processors flush before they close; use commit for this.
+ */
+public abstract class GzipOutputStream extends OutputStream {
+    /** Same header as java.util.zip.GZIPOutputStream */
+    private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+    private final Gzip gzip;
+    private final OutputStream dest;
+    private final byte[] single;
+
+    /** Data written before start; null if empty */
+    private byte[] pending;
+    private int pendingCount;
+
+    private boolean started;
+    private boolean closed;
+
+    /** null if not compressing */
+    private Deflater deflater;
+    private byte[] buffer;
+    private CRC32 crc;
+    /** true if there's input since the last flush */
+    private boolean dirty;
+
+    private long bytesIn;
+    private long bytesOut;
+    private long nanos;
+
+    public GzipOutputStream(Gzip gzip, OutputStream dest) {
+        this.gzip = gzip;
+        this.dest = dest;
+        this.single = new byte[1];
+        this.pending = null;
+        this.pendingCount = 0;
+        this.started = false;
+        this.closed = false;
+        this.deflater = null;
+    }
+
+    /**
+     * Called once, before anything is written to dest.
+     * @param length number of bytes if known because the stream was closed before reaching the minimum size, -1 otherwise
+     */
+    protected abstract void start(boolean compress, int length) throws IOException;
+
+    @Override
+    public void write(int b) throws IOException {
+        single[0] = (byte) b;
+        write(single, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("stream closed");
+        }
+        if (!started) {
+            if (pendingCount + len < gzip.getMinSize()) {
+                if (pending == null) {
+                    pending = new byte[gzip.getMinSize()];
+                }
+                System.arraycopy(b, off, pending, pendingCount, len);
+                pendingCount += len;
+                return;
+            }
+            begin(true, -1);
+        }
+        if (deflater == null) {
+            dest.write(b, off, len);
+        } else {
+            deflate(b, off, len);
+        }
+    }
+
+    /** Starts compression if not yet decided and flushes everything written so far. */
+    public void commit() throws IOException {
+        if (closed) {
+            return;
+        }
+        if (!started) {
+            begin(true, -1);
+        }
+        flush();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        int count;
+
+        if (closed || !started) {
+            return;
+        }
+        if (deflater != null && dirty) {
+            do {
+                count = drain(Deflater.SYNC_FLUSH);
+            } while (count == buffer.length);
+            dirty = false;
+        }
+        dest.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (!started) {
+                begin(false, pendingCount);
+                gzip.skipped();
+            } else if (deflater != null) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    drain(Deflater.NO_FLUSH);
+                }
+                trailer();
+                gzip.compressed(bytesIn, bytesOut, nanos);
+            }
+            dest.close();
+        } finally {
+            if (deflater != null) {
+                gzip.release(deflater);
+                deflater = null;
+            }
+        }
+    }
+
+    //--
+
+    private void begin(boolean compress, int length) throws IOException {
+        started = true;
+        start(compress, length);
+        if (compress) {
+            deflater = gzip.acquire();
+            buffer = new byte[Math.max(gzip.getBufferSize(), HEADER.length)];
+            crc = new CRC32();
+            dest.write(HEADER);
+            bytesOut += HEADER.length;
+            if (pendingCount > 0) {
+                deflate(pending, 0, pendingCount);
+            }
+        } else if (pendingCount > 0) {
+            dest.write(pending, 0, pendingCount);
+        }
+        pending = null;
+        pendingCount = 0;
+    }
+
+    private void deflate(byte[] b, int off, int len) throws IOException {
+        crc.update(b, off, len);
+        deflater.setInput(b, off, len);
+        while (!deflater.needsInput()) {
+            drain(Deflater.NO_FLUSH);
+        }
+        bytesIn += len;
+        dirty = true;
+    }
+
+    /** @return number of bytes written */
+    private int drain(int mode) throws IOException {
+        long time;
+        int count;
+
+        time = System.nanoTime();
+        count = deflater.deflate(buffer, 0, buffer.length, mode);
+        nanos += System.nanoTime() - time;
+        if (count > 0) {
+            dest.write(buffer, 0, count);
+            bytesOut += count;
+        }
+        return count;
+    }
+
+    /** crc and uncompressed size, little endian */
+    private void trailer() throws IOException {
+        int size;
+
+        size = (int) bytesIn;
+        writeInt((int) crc.getValue(), 0);
+        writeInt(size, 4);
+        dest.write(buffer, 0, 8);
+        bytesOut += 8;
+    }
+
+    private void writeInt(int value, int offset) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >> 8);
+        buffer[offset + 2] = (byte) (value >> 16);
+        buffer[offset + 3] = (byte) (value >> 24);
+    }
+}
@@ -15,13 +15,14 @@
  */
 package net.oneandone.lavender.filter;
 
+import net.oneandone.lavender.filter.processor.ByteChars;
+import net.oneandone.lavender.filter.processor.HtmlProcessor;
+import net.oneandone.lavender.filter.processor.Preloads;
 import net.oneandone.lavender.filter.processor.Processor;
 import net.oneandone.lavender.filter.processor.ProcessorFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.activation.MimeType;
-import javax.activation.MimeTypeParseException;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpServletResponseWrapper;
@@ -31,11 +32,9 @@ import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.Writer;
 import java.net.URI;
-import java.util.Arrays;
+import java.nio.charset.Charset;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.zip.GZIPOutputStream;
 
 /**
  * An implementation of {@link HttpServletResponse} that uses a custom {@link ServletOutputStream} and
@@ -45,6 +44,9 @@ public class LavendelizeHttpServletResponse extends HttpServletResponseWrapper {
     /** The logger. */
     private static final Logger LOG = LoggerFactory.getLogger(LavendelizeHttpServletResponse.class);
 
+    /** For byte chars, see getOutputStream */
+    private static final int BUFFER_SIZE = 8192;
+
     /** The processor factory. */
     protected final ProcessorFactory processorFactory;
 
@@ -71,17 +73,65 @@ public class LavendelizeHttpServletResponse extends HttpServletResponseWrapper {
     /** Null until initialize has been called, otherwise indicates if a there's processor */
     private Boolean processing;
 
+    /** The processor created by initialize, released to the factory by close */
+    private Processor createdProcessor;
+
     /** Null if not set */
     private Integer contentLength;
 
+    /** Null if the client cannot receive gzip */
+    private final Gzip gzipConfig;
+
     /**
      * Initialized to true, if the client can receive gzip. Reset to false by initialize if the contentType is
      * not enabled for compression.
      */
     private boolean gzip;
 
+    /** Null until the output is created, or if it's not gzipped */
+    private GzipOutputStream gzipStream;
+
+    /** Null to stream processed and gzipped output without Content-Length */
+    private final BufferPool bufferPool;
+
+    /** Null until the output is created, or if it's not buffered */
+    private ContentLengthOutputStream lengthStream;
+
+    /** Null to parse the content type of every response */
+    private final ContentTypes contentTypes;
+
+    /** Null if no resource hints are sent */
+    private final PreloadCache preloadCache;
+
+    /** Null until an html processor has been created, or if no Link headers are sent */
+    private Preloads preloads;
+
+    /** Null until initialize has been called */
+    private ContentType responseType;
+
     public LavendelizeHttpServletResponse(HttpServletResponse response, ProcessorFactory processorFactory,
             URI requestURI, String userAgent, String contextPath, boolean clientCanGzip) {
+        this(response, processorFactory, requestURI, userAgent, contextPath, clientCanGzip ? Gzip.DEFAULT : null, null, null);
+    }
+
+    /**
+     * @param gzipConfig null if the client cannot receive gzip
+     * @param bufferPool null to stream processed or gzipped output; otherwise, output smaller than the buffers is sent
+     *                   with a Content-Length
+     * @param contentTypes null to parse the content type of every response; otherwise, it has to use the same
+     *                     processor factory and the gzip settings of the filter
+     */
+    public LavendelizeHttpServletResponse(HttpServletResponse response, ProcessorFactory processorFactory,
+            URI requestURI, String userAgent, String contextPath, Gzip gzipConfig, BufferPool bufferPool, ContentTypes contentTypes) {
+        this(response, processorFactory, requestURI, userAgent, contextPath, gzipConfig, bufferPool, contentTypes, null);
+    }
+
+    /**
+     * @param preloadCache null to send no resource hints; otherwise, html responses send the preload links and preconnect
+     *                     hints learned from the previous response of the same path
+     */
+    public LavendelizeHttpServletResponse(HttpServletResponse response, ProcessorFactory processorFactory, URI requestURI, String userAgent,
+            String contextPath, Gzip gzipConfig, BufferPool bufferPool, ContentTypes contentTypes, PreloadCache preloadCache) {
         super(response);
         if (!contextPath.startsWith("/")) {
             throw new IllegalArgumentException(contextPath);
@@ -95,7 +145,11 @@ public class LavendelizeHttpServletResponse extends HttpServletResponseWrapper {
         this.contextPath = contextPath;
         this.processing = null;
         this.contentLength = null;
-        this.gzip = clientCanGzip;
+        this.gzipConfig = gzipConfig;
+        this.gzip = gzipConfig != null;
+        this.bufferPool = bufferPool;
+        this.contentTypes = contentTypes;
+        this.preloadCache = preloadCache;
     }
 
     /**
@@ -130,14 +184,15 @@ public class LavendelizeHttpServletResponse extends HttpServletResponseWrapper {
                     Processor processor;
                     Writer target;
 
-                    encoding = defineCharacterEncoding();
                     processor = initialize();
+                    encoding = defineCharacterEncoding();
                     if (gzip) {
                         if (LOG.isDebugEnabled()) {
                             LOG.debug("getWriter() -> gzipped original outputStream");
                         }
-                        target = new OutputStreamWriter(new GZIPOutputStream(LavendelizeHttpServletResponse.super.getOutputStream()),
-                                encoding);
+                        target = new OutputStreamWriter(gzipOutputStream(), encoding);
+                    } else if (processor != null && bufferPool != null) {
+                        target = new OutputStreamWriter(lengthOutputStream(), encoding);
                     } else {
                         target = LavendelizeHttpServletResponse.super.getWriter();
                     }
@@ -154,6 +209,12 @@ public class LavendelizeHttpServletResponse extends HttpServletResponseWrapper {
                         return new LavendelizeWriter(processor);
                     }
                 }
+
+                @Override
+                public void flush() throws IOException {
+                    super.flush();
+                    commitStreams();
+                }
             });
         }
 
@@ -174,36 +235,44 @@ public class LavendelizeHttpServletResponse extends HttpServletResponseWrapper {
                 protected OutputStream createTarget() throws IOException {
                     Processor processor;
                     String encoding;
+                    Charset charset;
                     OutputStream tmp;
 
                     processor = initialize();
                     if (processor == null) {
-                        tmp = LavendelizeHttpServletResponse.super.getOutputStream();
                         if (gzip) {
                             if (LOG.isDebugEnabled()) {
-                                LOG.debug("getOutputStream() -> original outputStream");
+                                LOG.debug("getOutputStream() -> gzipped original outputStream");
                             }
-                            tmp = new GZIPOutputStream(tmp);
+                            return gzipOutputStream();
                         } else {
                             if (LOG.isDebugEnabled()) {
-                                LOG.debug("getOutputStream() -> gzipped original outputStream");
+                                LOG.debug("getOutputStream() -> original outputStream");
                             }
-                            // do nothing
+                            return LavendelizeHttpServletResponse.super.getOutputStream();
                         }
-                        return tmp;
                     } else {
                         encoding = defineCharacterEncoding();
+                        charset = Charset.forName(encoding);
+                        if (ByteChars.isAsciiCompatible(charset) && processor.setByteChars(charset)) {
+                            tmp = gzip ? gzipOutputStream() : lengthOutputStream();
+                            if (LOG.isDebugEnabled()) {
+                                LOG.debug("getOutputStream() -> lavendelized byte chars (gzip=" + gzip + ", encoding=" + encoding + ")");
+                            }
+                            processor.setWriter(new ByteCharsWriter(tmp, charset, BUFFER_SIZE));
+                            return new LavendelizeOutputStream(processor, BUFFER_SIZE);
+                        }
                         if (gzip) {
                             if (LOG.isDebugEnabled()) {
                                 LOG.debug("getOutputStream() -> lavendelized gzipped original outputStream");
                             }
-                            processor.setWriter(new OutputStreamWriter(
-                                    new GZIPOutputStream(LavendelizeHttpServletResponse.super.getOutputStream()), encoding));
+                            processor.setWriter(new OutputStreamWriter(gzipOutputStream(), encoding));
                         } else {
                             if (LOG.isDebugEnabled()) {
                                 LOG.debug("getOutputStream() -> lavendelized original writer");
                             }
-                            processor.setWriter(LavendelizeHttpServletResponse.super.getWriter());
+                            processor.setWriter(bufferPool != null ? new OutputStreamWriter(lengthOutputStream(), encoding)
+                                    : LavendelizeHttpServletResponse.super.getWriter());
                         }
                         if (LOG.isDebugEnabled()) {
                             LOG.debug("Created WriterOutputStream with encoding " + encoding);
@@ -211,12 +280,52 @@ public class LavendelizeHttpServletResponse extends HttpServletResponseWrapper {
                         return WriterOutputStream.create(new LavendelizeWriter(processor), encoding);
                     }
                 }
+
+                @Override
+                public void flush() throws IOException {
+                    super.flush();
+                    commitStreams();
+                }
             };
         }
 
         return outputStream;
     }
 
+    /**
+     * The original output stream, compressed unless the content turns out to be smaller than the minimum size.
+     * The Content-Encoding header is set when compression starts.
+     */
+    private OutputStream gzipOutputStream() throws IOException {
+        gzipStream = new GzipOutputStream(gzipConfig, lengthOutputStream()) {
+            @Override
+            protected void start(boolean compress, int length) {
+                if (compress) {
+                    setHeader("Content-Encoding", "gzip");
+                } else if (length >= 0) {
+                    LavendelizeHttpServletResponse.super.setContentLength(length);
+                }
+            }
+        };
+        return gzipStream;
+    }
+
+    /** The original output stream, buffered if there's a buffer pool. */
+    private OutputStream lengthOutputStream() throws IOException {
+        if (bufferPool == null) {
+            return super.getOutputStream();
+        }
+        lengthStream = new ContentLengthOutputStream(bufferPool, super.getOutputStream()) {
+            @Override
+            protected void start(int length) {
+                if (length >= 0) {
+                    LavendelizeHttpServletResponse.super.setContentLength(length);
+                }
+            }
+        };
+        return lengthStream;
+    }
+
     /**
      *  Explicitly set a proper character encoding - otherwise, we'd get one implicitly defined by getWriter()
      * (if system property "org.apache.catalina.STRICT_SERVLET_COMPLIANCE" if set to "true").
@@ -231,11 +340,9 @@ public class LavendelizeHttpServletResponse extends HttpServletResponseWrapper {
         return getCharacterEncoding();
     }
 
+    /** Uses the content type parsed by initialize, so parameter spacing and case do not matter */
     protected boolean hasCharacterEncoding() {
-        String contentType;
-
-        contentType = getContentType();
-        return contentType != null && contentType.contains(";charset=");
+        return responseType != null && responseType.getCharset() != null;
     }
 
     public void close() throws IOException {
@@ -245,53 +352,70 @@ public class LavendelizeHttpServletResponse extends HttpServletResponseWrapper {
         if (outputStream != null) {
             outputStream.close();
         }
+        if (preloads != null) {
+            // error pages would replace the hints of the real page
+            if (getStatus() / 100 == 2) {
+                preloadCache.learn(requestURI, preloads);
+            }
+            preloads = null;
+        }
+        if (createdProcessor != null) {
+            processorFactory.releaseProcessor(createdProcessor);
+            createdProcessor = null;
+        }
     }
 
-    private static final List<String> GZIP_ENABLED = Arrays.asList("text/javascript", "text/css");
-
     /**
      * Creates the processor.
      * @return the processor, null if none is used for the response content type
      */
     public Processor initialize() {
         String contentType;
+        ContentType type;
         Processor processor;
-        MimeType mimeType;
 
         contentType = getContentType();
-        if (contentType != null) {
-            try {
-                mimeType = new MimeType(contentType);
-            } catch (MimeTypeParseException e) {
-                LOG.warn("cannot parse mimeType: " + contentType, e);
-                mimeType = null;
-            }
+        if (contentType == null) {
+            type = ContentType.INVALID;
+        } else if (contentTypes != null) {
+            type = contentTypes.get(contentType);
         } else {
-            mimeType = null;
+            type = ContentType.parse(contentType, processorFactory, gzipConfig);
         }
-        if (contentType == null || mimeType == null) {
-            processor = null;
-            gzip = false;
-        } else {
-            String baseType = mimeType.getBaseType();
-            baseType = baseType.toLowerCase();
-            processor = processorFactory.createProcessor(baseType,  getBaseURI(), getContextPath());
-            if (gzip) {
-                gzip = GZIP_ENABLED.contains(baseType);
-            }
+        responseType = type;
+        processor = type.isProcessed() ? processorFactory.createProcessor(type.getBaseType(), getBaseURI(), getContextPath()) : null;
+        if (gzip) {
+            gzip = type.isGzip();
         }
         processing = processor != null;
+        createdProcessor = processor;
+        if (preloadCache != null && processor instanceof HtmlProcessor && "text/html".equals(type.getBaseType())) {
+            hints((HtmlProcessor) processor);
+        }
         if (contentLength != null) {
             super.setContentLength(processing || gzip ? -1 : contentLength);
         }
         if (gzip) {
-            // see http://cs193h.stevesouders.com and "High Performance Websites", by Steve Souders
-            setHeader("Content-Encoding", "gzip");
+            // see http://cs193h.stevesouders.com and "High Performance Websites", by Steve Souders;
+            // Content-Encoding is set by the gzip stream, small responses are not compressed
             addHeader("Vary", "Accept-Encoding");
         }
         return processor;
     }
 
+    /** Sends the hints learned from the previous response of the path; nothing has been written yet */
+    private void hints(HtmlProcessor html) {
+        PreloadCache.Entry entry;
+
+        entry = preloadCache.get(requestURI);
+        for (String link : entry.getLinks()) {
+            addHeader("Link", link);
+        }
+        html.setPreconnects(entry.getOrigins());
+        preloads = preloadCache.create();
+        html.setPreloads(preloads);
+    }
+
     @Override
     public void setContentLength(int len) {
         if (processing != null) {
@@ -301,6 +425,33 @@ public class LavendelizeHttpServletResponse extends HttpServletResponseWrapper {
         }
     }
 
+    /** Gzip and length streams have to decide before the response is committed. */
+    @Override
+    public void flushBuffer() throws IOException {
+        if (gzipStream != null || lengthStream != null) {
+            if (writer != null) {
+                writer.flush();
+            } else if (outputStream != null) {
+                outputStream.flush();
+            }
+            commitStreams();
+        }
+        super.flushBuffer();
+    }
+
+    /**
+     * Ends buffering in the gzip and length streams, called when the application flushes - e.g. to send the head of a page
+     * early - because the streams otherwise ignore flushes until they have decided.
+     */
+    private void commitStreams() throws IOException {
+        if (gzipStream != null) {
+            gzipStream.commit();
+        }
+        if (lengthStream != null) {
+            lengthStream.commit();
+        }
+    }
+
     public Map<String, String> getHeaders() {
         return headers;
     }
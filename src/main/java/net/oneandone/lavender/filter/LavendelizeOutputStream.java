@@ -0,0 +1,127 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.filter;
+
+import net.oneandone.lavender.filter.processor.ByteChars;
+import net.oneandone.lavender.filter.processor.Processor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.ServletOutputStream;
+import java.io.IOException;
+import java.nio.CharBuffer;
+
+/**
+ * A {@link ServletOutputStream} that passes bytes as {@link ByteChars} to the {@link Processor}, without decoding them.
+ */
+public class LavendelizeOutputStream extends ServletOutputStream {
+    private static final Logger LOG = LoggerFactory.getLogger(LavendelizeOutputStream.class);
+
+    /** The content processor, configured for byte chars. */
+    private final Processor processor;
+
+    private final char[] chars;
+
+    private final CharBuffer buffer;
+
+    private boolean closed;
+
+    public LavendelizeOutputStream(Processor processor, int bufferSize) {
+        this.processor = processor;
+        this.chars = new char[bufferSize];
+        this.buffer = CharBuffer.wrap(chars);
+        this.closed = false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(int b) throws IOException {
+        checkOpen();
+        try {
+            chars[0] = ByteChars.toChar((byte) b);
+            processor.process(buffer, 0, 1);
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Error in LavendelizeOutputStream.write(int)", e);
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        int chunk;
+
+        checkOpen();
+        try {
+            while (len > 0) {
+                chunk = Math.min(len, chars.length);
+                for (int i = 0; i < chunk; i++) {
+                    chars[i] = ByteChars.toChar(b[off + i]);
+                }
+                processor.process(buffer, 0, chunk);
+                off += chunk;
+                len -= chunk;
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Error in LavendelizeOutputStream.write(byte[],int,int)", e);
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void flush() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            processor.flush();
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Error in LavendelizeOutputStream.flush()", e);
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            processor.close();
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Error in LavendelizeOutputStream.close()", e);
+            throw e;
+        }
+    }
+
+    /** the processor is reused for other responses after close */
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("stream closed");
+        }
+    }
+}
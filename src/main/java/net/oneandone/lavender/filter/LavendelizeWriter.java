@@ -48,6 +48,7 @@ public class LavendelizeWriter extends Writer {
      */
     @Override
     public void write(char[] cbuf, int off, int len) throws IOException {
+        checkOpen();
         try {
             processor.process(CharBuffer.wrap(cbuf), off, len);
         } catch (IOException | RuntimeException e) {
@@ -61,6 +62,9 @@ public class LavendelizeWriter extends Writer {
      */
     @Override
     public void flush() throws IOException {
+        if (closed) {
+            return;
+        }
         try {
             processor.flush();
         } catch (IOException | RuntimeException e) {
@@ -85,4 +89,11 @@ public class LavendelizeWriter extends Writer {
             throw e;
         }
     }
+
+    /** the processor is reused for other responses after close */
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("writer closed");
+        }
+    }
 }
@@ -15,6 +15,8 @@
  */
 package net.oneandone.lavender.filter;
 
+import net.oneandone.lavender.filter.processor.LavenderRewriteEngine;
+import net.oneandone.lavender.filter.processor.RewriteCache;
 import net.oneandone.sushi.fs.ExistsException;
 import net.oneandone.sushi.fs.Node;
 import net.oneandone.sushi.fs.World;
@@ -47,7 +49,11 @@ public class Lavender implements Filter, LavenderMBean {
     private static final Logger LOG = LoggerFactory.getLogger(Lavender.class);
 
     public static final String LAVENDER_IDX = "WEB-INF/lavender.idx";
+    /** Optional, binary variant of LAVENDER_IDX */
+    public static final String LAVENDER_IDX_BIN = "WEB-INF/lavender.idx.bin";
     public static final String LAVENDER_NODES = "WEB-INF/lavender.nodes";
+    /** Optional, small images and fonts as data uris */
+    public static final String LAVENDER_INLINE = "WEB-INF/lavender.inline";
 
     public static final String ALLOW_PROD_DEV_MIX_MODE = "lavender.allowProdDevMixMode";
 
@@ -175,6 +181,149 @@ public class Lavender implements Filter, LavenderMBean {
         return -1;
     }
 
+    /** @return null if there's no production filter */
+    private ProductionFilter getProductionFilter() {
+        Filter filter = delegate.get();
+        if (filter instanceof ProductionFilter) {
+            return (ProductionFilter) filter;
+        } else if (filter instanceof FilterList) {
+            for (Filter f : ((FilterList) filter).getFilters()) {
+                if (f instanceof ProductionFilter) {
+                    return (ProductionFilter) f;
+                }
+            }
+        }
+        return null;
+    }
+
+    private RewriteCache getRewriteCache() {
+        ProductionFilter filter;
+        LavenderRewriteEngine engine;
+
+        filter = getProductionFilter();
+        if (filter == null) {
+            return null;
+        }
+        engine = filter.getRewriteEngine();
+        return engine == null ? null : engine.getCache();
+    }
+
+    @Override
+    public long getRewriteCacheHits() {
+        RewriteCache cache = getRewriteCache();
+        return cache == null ? -1 : cache.getHits();
+    }
+
+    @Override
+    public long getRewriteCacheMisses() {
+        RewriteCache cache = getRewriteCache();
+        return cache == null ? -1 : cache.getMisses();
+    }
+
+    @Override
+    public long getRewriteCacheEvictions() {
+        RewriteCache cache = getRewriteCache();
+        return cache == null ? -1 : cache.getEvictions();
+    }
+
+    @Override
+    public int getRewriteCacheSize() {
+        RewriteCache cache = getRewriteCache();
+        return cache == null ? -1 : cache.size();
+    }
+
+    private Gzip getGzip() {
+        ProductionFilter filter;
+
+        filter = getProductionFilter();
+        return filter == null ? null : filter.getGzip();
+    }
+
+    @Override
+    public long getGzipResponses() {
+        Gzip gzip = getGzip();
+        return gzip == null ? -1 : gzip.getResponses();
+    }
+
+    @Override
+    public long getGzipSkipped() {
+        Gzip gzip = getGzip();
+        return gzip == null ? -1 : gzip.getSkipped();
+    }
+
+    @Override
+    public long getGzipBytesIn() {
+        Gzip gzip = getGzip();
+        return gzip == null ? -1 : gzip.getBytesIn();
+    }
+
+    @Override
+    public long getGzipBytesOut() {
+        Gzip gzip = getGzip();
+        return gzip == null ? -1 : gzip.getBytesOut();
+    }
+
+    @Override
+    public long getGzipMillis() {
+        Gzip gzip = getGzip();
+        return gzip == null ? -1 : gzip.getMillis();
+    }
+
+    private ContentTypes getContentTypes() {
+        ProductionFilter filter;
+
+        filter = getProductionFilter();
+        return filter == null ? null : filter.getContentTypes();
+    }
+
+    @Override
+    public long getContentTypeHits() {
+        ContentTypes types = getContentTypes();
+        return types == null ? -1 : types.getHits();
+    }
+
+    @Override
+    public long getContentTypeMisses() {
+        ContentTypes types = getContentTypes();
+        return types == null ? -1 : types.getMisses();
+    }
+
+    private PreloadCache getPreloadCache() {
+        ProductionFilter filter;
+
+        filter = getProductionFilter();
+        return filter == null ? null : filter.getPreloadCache();
+    }
+
+    @Override
+    public long getPreloadHits() {
+        PreloadCache cache = getPreloadCache();
+        return cache == null ? -1 : cache.getHits();
+    }
+
+    @Override
+    public long getPreloadMisses() {
+        PreloadCache cache = getPreloadCache();
+        return cache == null ? -1 : cache.getMisses();
+    }
+
+    @Override
+    public String getRewritePolicy() {
+        ProductionFilter filter;
+
+        filter = getProductionFilter();
+        return filter == null || filter.getRewriteEngine() == null ? null : filter.getRewriteEngine().getPolicy().toString();
+    }
+
+    @Override
+    public int getEngineReferences() {
+        ProductionFilter filter;
+
+        filter = getProductionFilter();
+        return filter == null ? -1 : filter.getEngineReferences();
+    }
+
+    /** Re-creates the filter; configuration changed in system properties, e.g. the rewrite policy, takes effect. */
     @Override
     public void reload() {
         try {
@@ -18,5 +18,32 @@ package net.oneandone.lavender.filter;
 public interface LavenderMBean {
     boolean getProd();
     int getModules();
+
+    /** @return -1 if there's no rewrite cache */
+    long getRewriteCacheHits();
+    long getRewriteCacheMisses();
+    long getRewriteCacheEvictions();
+    int getRewriteCacheSize();
+
+    /** @return -1 if there's no production filter */
+    long getGzipResponses();
+    long getGzipSkipped();
+    long getGzipBytesIn();
+    long getGzipBytesOut();
+    long getGzipMillis();
+
+    /** @return -1 if there's no production filter */
+    long getContentTypeHits();
+    long getContentTypeMisses();
+
+    long getPreloadHits();
+    long getPreloadMisses();
+
+    /** @return null if there's no production filter */
+    String getRewritePolicy();
+
+    /** @return number of filters sharing the rewrite engine - and thus the rewrite cache; -1 if there's no production filter */
+    int getEngineReferences();
+
     void reload();
 }
@@ -0,0 +1,151 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.filter;
+
+import net.oneandone.lavender.filter.processor.Preloads;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Resource hints by request scheme and path, learned from the previous html response of the path: preload links, sent as Link
+ * headers before the body of the next response is written, and the origins of rewritten urls, for preconnect hints after
+ * the head start tag. The current page cannot provide them, its references are not known at this point. Hints are absolute
+ * urls with the scheme of the request, so http and https requests of a path are learned separately. Once the cache
+ * is full, the least recently used path is dropped, so paths requested once do not push out the pages. Thread-safe, the
+ * lru map is guarded by its own lock.
+ */
+public class PreloadCache {
+    public static final int MAX_SIZE = 1024;
+
+    /** Immutable hints of a path */
+    public static final class Entry {
+        private static final String[] NONE = new String[0];
+
+        public static final Entry EMPTY = new Entry(NONE, NONE);
+
+        private final String[] links;
+        private final String[] origins;
+
+        private Entry(String[] links, String[] origins) {
+            this.links = links;
+            this.origins = origins;
+        }
+
+        /** @return values of Link headers */
+        public String[] getLinks() {
+            return links;
+        }
+
+        /** @return scheme, host and port of the cdn nodes */
+        public String[] getOrigins() {
+            return origins;
+        }
+    }
+
+    private final int maxResources;
+    private final int maxImages;
+    private final boolean preconnect;
+    /** Guarded by itself */
+    private final LinkedHashMap<String, Entry> map;
+
+    private final LongAdder hits;
+    private final LongAdder misses;
+
+    /**
+     * @param maxResources number of stylesheets and scripts to preload
+     * @param maxImages number of images to preload
+     */
+    public PreloadCache(int maxResources, int maxImages) {
+        this(maxResources, maxImages, false);
+    }
+
+    /**
+     * @param maxResources number of stylesheets and scripts to preload
+     * @param maxImages number of images to preload
+     * @param preconnect true to learn origins
+     */
+    public PreloadCache(int maxResources, int maxImages, boolean preconnect) {
+        if (maxResources < 0 || maxImages < 0) {
+            throw new IllegalArgumentException("negative number of preloads: " + maxResources + ", " + maxImages);
+        }
+        this.maxResources = maxResources;
+        this.maxImages = maxImages;
+        this.preconnect = preconnect;
+        this.map = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreloadCache.Entry> eldest) {
+                return size() > MAX_SIZE;
+            }
+        };
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+    }
+
+    /** @return collector for the next response */
+    public Preloads create() {
+        return new Preloads(maxResources, maxImages, preconnect);
+    }
+
+    /** @return empty entry if scheme and path of the request are unknown */
+    public Entry get(URI request) {
+        Entry result;
+
+        synchronized (map) {
+            result = map.get(key(request));
+        }
+        if (result == null) {
+            misses.increment();
+            return Entry.EMPTY;
+        }
+        hits.increment();
+        return result;
+    }
+
+    public void learn(URI request, Preloads preloads) {
+        Entry entry;
+
+        entry = new Entry(toArray(preloads.getLinks()), toArray(preloads.getOrigins()));
+        synchronized (map) {
+            map.put(key(request), entry);
+        }
+    }
+
+    private static String key(URI request) {
+        return request.getScheme() + ":" + request.getPath();
+    }
+
+    private static String[] toArray(List<String> list) {
+        return list.isEmpty() ? Entry.NONE : list.toArray(new String[list.size()]);
+    }
+
+    public int size() {
+        synchronized (map) {
+            return map.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+}
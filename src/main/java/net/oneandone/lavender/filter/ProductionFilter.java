@@ -17,10 +17,15 @@ package net.oneandone.lavender.filter;
 
 import net.oneandone.lavender.filter.processor.LavenderProcessorFactory;
 import net.oneandone.lavender.filter.processor.LavenderRewriteEngine;
-import net.oneandone.lavender.filter.processor.RewriteEngine;
-import net.oneandone.lavender.index.Index;
+import net.oneandone.lavender.filter.processor.RewritePolicy;
+import net.oneandone.lavender.index.CompactIndex;
+import net.oneandone.lavender.index.InlineResources;
+import net.oneandone.lavender.index.MappedIndex;
+import net.oneandone.lavender.index.RuntimeIndex;
+import net.oneandone.lavender.index.Util;
 import net.oneandone.sushi.fs.Node;
 import net.oneandone.sushi.fs.World;
+import net.oneandone.sushi.fs.file.FileNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,7 +39,10 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -43,7 +51,123 @@ import java.util.Map;
 public class ProductionFilter implements Filter {
     private static final Logger LOG = LoggerFactory.getLogger(ProductionFilter.class);
 
+    /** Number of rewrite results to cache; 0 disables the cache. */
+    public static final String REWRITE_CACHE_SIZE = "lavender.rewriteCacheSize";
+
+    /** Nodes to spread resources across: "hash" for all (default), "single" for the first or "subset:n" for the first n; see RewritePolicy. */
+    public static final String REWRITE_POLICY = "lavender.rewritePolicy";
+    /** Load factor of 1.0 or more to bound the number of index entries per node, e.g. 1.25; not set for plain consistent hashing. */
+    public static final String BOUNDED_LOAD = "lavender.boundedLoad";
+
+    /** Deflate level 0 to 9 for gzipped responses. */
+    public static final String GZIP_LEVEL = "lavender.gzipLevel";
+    /** Size of the compressed data buffer. */
+    public static final String GZIP_BUFFER_SIZE = "lavender.gzipBufferSize";
+    /** Responses with fewer bytes are not compressed. */
+    public static final String GZIP_MIN_SIZE = "lavender.gzipMinSize";
+    /** Comma-separated content types to compress; empty to disable gzip. */
+    public static final String GZIP_TYPES = "lavender.gzipTypes";
+
+    /** Processed or gzipped responses up to this size are sent with a Content-Length, e.g. 65536; 0 to always stream them. */
+    public static final String RESPONSE_BUFFER_SIZE = "lavender.responseBufferSize";
+    public static final int DEFAULT_RESPONSE_BUFFER_SIZE = 0;
+
+    /** Number of stylesheets and scripts of an html page sent as preload Link headers with the next response of the path; 0 to disable. */
+    public static final String PRELOAD = "lavender.preload";
+    /** Number of images of an html page sent as preload Link headers with the next response of the path; 0 to disable. */
+    public static final String PRELOAD_IMAGES = "lavender.preloadImages";
+    /** "true" to insert preconnect and dns-prefetch links after the head start tag, for the cdn hosts of the previous response of the path. */
+    public static final String PRECONNECT = "lavender.preconnect";
+
+    /** Prefix of string literals to rewrite in javascript and json responses, e.g. "lavender:"; not set to leave them unprocessed. */
+    public static final String MARKER = "lavender.marker";
+
+    /** Max number of data uri chars per html or css response if the war has inline resources; 0 to disable. */
+    public static final String INLINE_BUDGET = "lavender.inlineBudget";
+    public static final int DEFAULT_INLINE_BUDGET = 4096;
+
+    /**
+     * "true" to share the rewrite engine with filters that have the same files and engine configuration. Off by default: the
+     * registry is a static of this class, so webapps share only if lavender is loaded by a common class loader.
+     */
+    public static final String SHARE_ENGINE = "lavender.shareEngine";
+
+    /**
+     * Configuration is taken from system properties or - if the system property is not defined -
+     * from the init parameter of the same name.
+     */
+    static String parameter(FilterConfig config, String name) {
+        String result;
+
+        result = System.getProperty(name);
+        return result != null ? result : config.getInitParameter(name);
+    }
+
+    static int intParameter(FilterConfig config, String name, int dflt) throws ServletException {
+        String str;
+
+        str = parameter(config, name);
+        if (str == null) {
+            return dflt;
+        }
+        try {
+            return Integer.parseInt(str.trim());
+        } catch (NumberFormatException e) {
+            throw new ServletException("invalid number for " + name + ": " + str, e);
+        }
+    }
+
+    static RewritePolicy rewritePolicy(FilterConfig config) throws ServletException {
+        String str;
+        String load;
+        RewritePolicy result;
+
+        str = parameter(config, REWRITE_POLICY);
+        load = parameter(config, BOUNDED_LOAD);
+        try {
+            result = str == null ? RewritePolicy.HASH : RewritePolicy.parse(str);
+            return load == null ? result : result.withBoundedLoad(Double.parseDouble(load.trim()));
+        } catch (IllegalArgumentException e) {
+            // includes NumberFormatException
+            throw new ServletException("invalid rewrite policy: " + e.getMessage(), e);
+        }
+    }
+
+    static Gzip gzip(FilterConfig config) throws ServletException {
+        String types;
+        List<String> list;
+
+        types = parameter(config, GZIP_TYPES);
+        if (types == null) {
+            list = Gzip.DEFAULT_TYPES;
+        } else {
+            list = new ArrayList<>();
+            for (String type : types.split(",")) {
+                if (!type.trim().isEmpty()) {
+                    list.add(type);
+                }
+            }
+        }
+        try {
+            return new Gzip(intParameter(config, GZIP_LEVEL, Gzip.DEFAULT_LEVEL), intParameter(config, GZIP_BUFFER_SIZE, Gzip.DEFAULT_BUFFER_SIZE),
+                    intParameter(config, GZIP_MIN_SIZE, Gzip.DEFAULT_MIN_SIZE), list);
+        } catch (IllegalArgumentException e) {
+            throw new ServletException("invalid gzip configuration: " + e.getMessage(), e);
+        }
+    }
+
+    //--
+
+    private LavenderRewriteEngine rewriteEngine;
+    /** null if the engine is not shared or already released */
+    private String engineKey;
     private LavenderProcessorFactory processorFactory;
+    private Gzip gzip;
+    /** null if disabled */
+    private BufferPool bufferPool;
+    private ContentTypes contentTypes;
+    /** null if disabled */
+    private PreloadCache preloadCache;
 
     @Override
     public void init(FilterConfig filterConfig) throws ServletException {
@@ -55,22 +179,109 @@ public class ProductionFilter implements Filter {
             e.printStackTrace();
             throw new ServletException("Could not initialize Lavender production filter", e);
         }
-        Node webapp = world.file(filterConfig.getServletContext().getRealPath(""));
+        FileNode webapp = world.file(filterConfig.getServletContext().getRealPath(""));
 
-        Node indexSource = webapp.join(Lavender.LAVENDER_IDX);
+        FileNode indexSource = webapp.join(Lavender.LAVENDER_IDX);
+        FileNode binarySource = webapp.join(Lavender.LAVENDER_IDX_BIN);
         Node nodesSource = webapp.join(Lavender.LAVENDER_NODES);
+        FileNode inlineSource = webapp.join(Lavender.LAVENDER_INLINE);
+        int cacheSize = intParameter(filterConfig, REWRITE_CACHE_SIZE, LavenderRewriteEngine.DEFAULT_CACHE_SIZE);
+        RewritePolicy policy = rewritePolicy(filterConfig);
+        gzip = gzip(filterConfig);
+        int bufferSize = intParameter(filterConfig, RESPONSE_BUFFER_SIZE, DEFAULT_RESPONSE_BUFFER_SIZE);
+        bufferPool = bufferSize > 0 ? new BufferPool(bufferSize) : null;
+        int preload = intParameter(filterConfig, PRELOAD, 0);
+        int preloadImages = intParameter(filterConfig, PRELOAD_IMAGES, 0);
+        if (preload < 0 || preloadImages < 0) {
+            throw new ServletException("negative number of preloads: " + preload + ", " + preloadImages);
+        }
+        boolean preconnect = Boolean.parseBoolean(parameter(filterConfig, PRECONNECT));
+        preloadCache = preload > 0 || preloadImages > 0 || preconnect ? new PreloadCache(preload, preloadImages, preconnect) : null;
+        String marker = parameter(filterConfig, MARKER);
+        if (marker != null && marker.trim().isEmpty()) {
+            throw new ServletException("empty " + MARKER);
+        }
+        int inlineBudget = intParameter(filterConfig, INLINE_BUDGET, DEFAULT_INLINE_BUDGET);
+        if (inlineBudget < 0) {
+            throw new ServletException("negative " + INLINE_BUDGET + ": " + inlineBudget);
+        }
+        boolean share = "true".equals(parameter(filterConfig, SHARE_ENGINE));
+        boolean initialized = false;
         try {
-            Index index = Index.load(indexSource);
-            RewriteEngine rewriteEngine = LavenderRewriteEngine.load(index, nodesSource);
-            processorFactory = new LavenderProcessorFactory(rewriteEngine);
-            LOG.info("Lavender prod filter");
+            FileNode inline = inlineBudget > 0 && inlineSource.exists() ? inlineSource : null;
+            MappedIndex mapped = mapIndex(indexSource, binarySource);
+            SharedEngines.Loader loader = () -> loadEngine(mapped != null ? mapped : CompactIndex.load(indexSource), nodesSource, inline, cacheSize, policy);
+            if (share) {
+                String key = SharedEngines.key(new byte[][] { mapped != null ? mapped.textMd5() : Util.md5(indexSource.readBytes()),
+                        Util.md5(nodesSource.readBytes()), inline == null ? null : Util.md5(inline.readBytes()) }, cacheSize + " " + policy);
+                rewriteEngine = SharedEngines.acquire(key, loader);
+                engineKey = key;
+            } else {
+                rewriteEngine = loader.load();
+            }
+            if (inline == null) {
+                inlineBudget = 0;
+            }
+            processorFactory = new LavenderProcessorFactory(rewriteEngine, marker == null ? null : marker.trim(), inlineBudget);
+            contentTypes = new ContentTypes(processorFactory, gzip);
+            RuntimeIndex index = rewriteEngine.getIndex();
+            LOG.info("Lavender prod filter, " + index.size() + " labels (~" + index.memory() / 1024 + " kb), rewrite cache size " + cacheSize
+                    + ", rewrite policy " + policy + ", gzip level " + gzip.getLevel() + " for " + gzip.getMinSize() + "+ bytes, response buffer " + bufferSize
+                    + ", inline budget " + inlineBudget + ", engine " + (share ? "shared by " + getEngineReferences() + " filters" : "not shared"));
+            initialized = true;
         } catch (IOException e) {
             e.printStackTrace();
             throw new ServletException("Could not initialize Lavender production filter", e);
+        } finally {
+            if (!initialized) {
+                // destroy is not called for a filter that failed to initialize
+                releaseEngine();
+            }
         }
 
     }
 
+    /** @param inline null to inline nothing */
+    private static LavenderRewriteEngine loadEngine(RuntimeIndex index, Node nodes, FileNode inline, int cacheSize, RewritePolicy policy)
+            throws IOException {
+        LavenderRewriteEngine result;
+
+        result = LavenderRewriteEngine.load(index, nodes, cacheSize, policy);
+        if (inline != null) {
+            result.setInlineResources(InlineResources.load(inline));
+            LOG.info(result.getInlineResources().size() + " inline resources");
+        }
+        return result;
+    }
+
+    /**
+     * The text index is hashed only if its length or last modified time differs from what the binary index recorded, e.g. because
+     * extracting the war did not preserve it.
+     *
+     * @return null if the binary index is missing, corrupted or does not match the text index
+     */
+    private static MappedIndex mapIndex(FileNode text, FileNode binary) throws IOException {
+        long started;
+        MappedIndex mapped;
+
+        if (!binary.exists()) {
+            return null;
+        }
+        started = System.currentTimeMillis();
+        try {
+            mapped = MappedIndex.load(binary);
+        } catch (IOException e) {
+            LOG.warn(binary + " is not usable, using " + text, e);
+            return null;
+        }
+        if (mapped.isFor(text.size(), text.getLastModified()) || Arrays.equals(mapped.textMd5(), Util.md5(text.readBytes()))) {
+            LOG.info("mapped " + binary + " in " + (System.currentTimeMillis() - started) + " ms");
+            return mapped;
+        }
+        LOG.warn(binary + " is out of date, using " + text);
+        return null;
+    }
+
     @Override
     public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse,
             FilterChain chain) throws IOException, ServletException {
@@ -88,7 +299,8 @@ public class ProductionFilter implements Filter {
             // use custom request and response objects
             lavenderRequest = new LavendelizeHttpServletRequest(request);
             lavenderResponse = new LavendelizeHttpServletResponse(response, processorFactory,
-                    requestURI, request.getHeader("User-Agent"), request.getContextPath() + "/", Gzip.canGzip(request));
+                    requestURI, request.getHeader("User-Agent"), request.getContextPath() + "/", Gzip.canGzip(request) ? gzip : null, bufferPool, contentTypes,
+                    preloadCache);
             logRequest(url, request);
         } catch (RuntimeException re) {
             LOG.error("Error in Lavendelizer.doFilter()", re);
@@ -112,7 +324,44 @@ public class ProductionFilter implements Filter {
 
     @Override
     public void destroy() {
+        if (gzip != null) {
+            gzip.destroy();
+        }
+        releaseEngine();
+    }
+
+    private void releaseEngine() {
+        if (engineKey != null) {
+            SharedEngines.release(engineKey);
+            engineKey = null;
+        }
+    }
+
+    public LavenderRewriteEngine getRewriteEngine() {
+        return rewriteEngine;
+    }
+
+    /** @return number of filters using this filter's rewrite engine, including this one; 0 if not initialized */
+    public int getEngineReferences() {
+        if (engineKey == null) {
+            return rewriteEngine == null ? 0 : 1;
+        }
+        return SharedEngines.references(engineKey);
+    }
+
+    /** @return null if not initialized */
+    public Gzip getGzip() {
+        return gzip;
+    }
+
+    /** @return null if not initialized */
+    public ContentTypes getContentTypes() {
+        return contentTypes;
+    }
 
+    /** @return null if not initialized or disabled */
+    public PreloadCache getPreloadCache() {
+        return preloadCache;
     }
 
     private void logRequest(StringBuffer url, HttpServletRequest httpRequest) {
@@ -0,0 +1,104 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.filter;
+
+import net.oneandone.lavender.filter.processor.LavenderRewriteEngine;
+import net.oneandone.lavender.index.Hex;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Rewrite engines shared by production filters with the same index, nodes and inline files and the same engine configuration.
+ * Engines are reference counted, the last filter to release an engine removes it. Sharing spans all webapps that load this
+ * class with the same class loader - i.e. all webapps of a container if lavender is in a common library directory, otherwise
+ * the filters of a single webapp, e.g. while reloading.
+ */
+public final class SharedEngines {
+    public interface Loader {
+        LavenderRewriteEngine load() throws IOException;
+    }
+
+    private static final class Entry {
+        private final LavenderRewriteEngine engine;
+        private int references;
+
+        private Entry(LavenderRewriteEngine engine) {
+            this.engine = engine;
+            this.references = 0;
+        }
+    }
+
+    /** Guarded by the class lock; loading also holds it, so an engine is never loaded twice */
+    private static final Map<String, Entry> ENGINES = new HashMap<>();
+
+    /**
+     * @param md5s md5 sums of the files the engine is loaded from, null elements for absent files
+     * @param config everything else that affects the engine, e.g. cache size and rewrite policy
+     */
+    public static String key(byte[][] md5s, String config) {
+        StringBuilder result;
+
+        result = new StringBuilder();
+        for (byte[] md5 : md5s) {
+            result.append(md5 == null ? "-" : Hex.encodeString(md5)).append(' ');
+        }
+        return result.append(config).toString();
+    }
+
+    /** @return the engine for the key, loaded if it's not shared yet */
+    public static synchronized LavenderRewriteEngine acquire(String key, Loader loader) throws IOException {
+        Entry entry;
+
+        entry = ENGINES.get(key);
+        if (entry == null) {
+            entry = new Entry(loader.load());
+            ENGINES.put(key, entry);
+        }
+        entry.references++;
+        return entry.engine;
+    }
+
+    public static synchronized void release(String key) {
+        Entry entry;
+
+        entry = ENGINES.get(key);
+        if (entry == null) {
+            throw new IllegalStateException("not acquired: " + key);
+        }
+        entry.references--;
+        if (entry.references == 0) {
+            ENGINES.remove(key);
+        }
+    }
+
+    /** @return number of filters using the engine of this key, 0 if none */
+    public static synchronized int references(String key) {
+        Entry entry;
+
+        entry = ENGINES.get(key);
+        return entry == null ? 0 : entry.references;
+    }
+
+    /** @return number of distinct engines */
+    public static synchronized int size() {
+        return ENGINES.size();
+    }
+
+    private SharedEngines() {
+    }
+}
@@ -20,11 +20,18 @@ import org.slf4j.Logger;
 import java.io.IOException;
 import java.io.Writer;
 import java.net.URI;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
 
 /**
  * Base implementation of {@link Processor}.
  */
 public abstract class AbstractProcessor implements Processor {
+    private static final int SCRATCH_SIZE = 8192;
+    private static final int WRITE_BUFFER_SIZE = 1024;
+
+    /** Buffers that grew larger than this are not kept by reset. */
+    protected static final int MAX_RETAINED_BUFFER = 65536;
 
     /** The logger. */
     private final Logger log;
@@ -41,9 +48,21 @@ public abstract class AbstractProcessor implements Processor {
     /** The context path used, used to resolve URI references. Always starts and ends with a "/" */
     protected String contextPath;
 
+    /** Replaces references to small resources by data uris; null if nothing is inlined */
+    protected Inliner inliner;
+
+    /** Charset if the processor works on byte chars, otherwise null */
+    protected Charset byteChars;
+
     /** Buffer where a potential URI string is stored before it is rewritten. */
     protected StringBuilder uriBuffer = new StringBuilder(128);
 
+    /** Used to pass char sequences without backing array to process(char[], int, int); allocated on demand. */
+    private char[] scratch;
+
+    /** Used to write buffer ranges without creating strings; allocated on demand. */
+    private char[] writeBuffer;
+
     /**
      * Subclass constructor.
      * @param logger
@@ -75,6 +94,29 @@ public abstract class AbstractProcessor implements Processor {
         this.contextPath = theContextPath;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean setByteChars(Charset charset) {
+        rewriteEngine = ByteChars.wrap(rewriteEngine, charset);
+        byteChars = charset;
+        return true;
+    }
+
+    /** @param theInliner null to inline nothing; cleared by reset */
+    public void setInliner(Inliner theInliner) {
+        this.inliner = theInliner;
+    }
+
+    /** @return data uri for the reference, null if it is not inlined */
+    protected String inline(String reference) {
+        if (inliner == null) {
+            return null;
+        }
+        return inliner.inline(byteChars == null ? reference : ByteChars.decode(reference, byteChars), baseURI, contextPath);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -86,9 +128,44 @@ public abstract class AbstractProcessor implements Processor {
             log.debug("Processing chars.length=" + chars.length() + ", offset=" + offset + ", length=" + length);
         }
 
+        if (chars instanceof CharBuffer && ((CharBuffer) chars).hasArray()) {
+            CharBuffer buffer = (CharBuffer) chars;
+            process(buffer.array(), buffer.arrayOffset() + buffer.position() + offset, length);
+        } else {
+            processCopy(chars, offset, length);
+        }
+    }
+
+    private void processCopy(CharSequence chars, int offset, int length) throws IOException {
+        int chunk;
+
+        if (scratch == null) {
+            scratch = new char[Math.min(Math.max(length, 16), SCRATCH_SIZE)];
+        }
+        while (length > 0) {
+            chunk = Math.min(length, scratch.length);
+            if (chars instanceof String) {
+                ((String) chars).getChars(offset, offset + chunk, scratch, 0);
+            } else if (chars instanceof StringBuilder) {
+                ((StringBuilder) chars).getChars(offset, offset + chunk, scratch, 0);
+            } else {
+                for (int i = 0; i < chunk; i++) {
+                    scratch[i] = chars.charAt(offset + i);
+                }
+            }
+            process(scratch, 0, chunk);
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    /**
+     * Processes a range of characters. Override this to scan runs of characters at once; the default calls
+     * process(char) for every character.
+     */
+    protected void process(char[] chars, int offset, int length) throws IOException {
         for (int i = offset; i < offset + length; i++) {
-            char c = chars.charAt(i);
-            process(c);
+            process(chars[i]);
         }
     }
 
@@ -101,12 +178,29 @@ public abstract class AbstractProcessor implements Processor {
      */
     protected abstract void process(char c) throws IOException;
 
+    /**
+     * Writes the characters from start (inclusive) to end (exclusive) of the buffer.
+     */
+    protected void write(StringBuilder buffer, int start, int end) throws IOException {
+        int chunk;
+
+        if (writeBuffer == null) {
+            writeBuffer = new char[WRITE_BUFFER_SIZE];
+        }
+        while (start < end) {
+            chunk = Math.min(end - start, writeBuffer.length);
+            buffer.getChars(start, start + chunk, writeBuffer, 0);
+            out.write(writeBuffer, 0, chunk);
+            start += chunk;
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
     public void flush() throws IOException {
         if (uriBuffer.length() > 0) {
-            out.write(uriBuffer.toString());
+            write(uriBuffer, 0, uriBuffer.length());
             uriBuffer.setLength(0);
         }
         out.flush();
@@ -119,4 +213,26 @@ public abstract class AbstractProcessor implements Processor {
         flush();
         out.close();
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void reset() {
+        out = null;
+        rewriteEngine = null;
+        inliner = null;
+        byteChars = null;
+        baseURI = null;
+        contextPath = null;
+        uriBuffer = clear(uriBuffer, 128);
+    }
+
+    /** @return the emptied buffer, or a new one if it grew too large */
+    protected static StringBuilder clear(StringBuilder buffer, int initialCapacity) {
+        if (buffer.capacity() > MAX_RETAINED_BUFFER) {
+            return new StringBuilder(initialCapacity);
+        }
+        buffer.setLength(0);
+        return buffer;
+    }
 }
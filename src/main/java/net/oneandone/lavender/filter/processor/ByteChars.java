@@ -0,0 +1,106 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.filter.processor;
+
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * Byte chars represent the bytes of an ascii compatible encoding as chars without decoding them: ascii bytes map to
+ * the same char, all other bytes map into a private use area. Processors only look at ascii chars, so they can
+ * process byte chars as is; only references passed to the rewrite engine have to be decoded.
+ */
+public final class ByteChars {
+    private static final char HIGH = '\uF700';
+
+    /** @return true for charsets where every byte &lt; 0x80 is the ascii char and never part of a multi-byte sequence */
+    public static boolean isAsciiCompatible(Charset charset) {
+        String name;
+
+        name = charset.name().toUpperCase(Locale.ENGLISH);
+        return name.equals("UTF-8") || name.equals("US-ASCII") || name.startsWith("ISO-8859-") || name.startsWith("WINDOWS-125");
+    }
+
+    public static char toChar(byte b) {
+        return b >= 0 ? (char) b : (char) (HIGH | (b & 0xFF));
+    }
+
+    /** @return -1 if c is not a byte char */
+    public static int toByte(char c) {
+        if (c < 0x80) {
+            return c;
+        }
+        if (c >= '\uF780' && c <= '\uF7FF') {
+            return c & 0xFF;
+        }
+        return -1;
+    }
+
+    /** Byte chars to string */
+    public static String decode(String str, Charset charset) {
+        byte[] bytes;
+
+        if (isAscii(str)) {
+            return str;
+        }
+        bytes = new byte[str.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) toByte(str.charAt(i));
+        }
+        return new String(bytes, charset);
+    }
+
+    /** String to byte chars */
+    public static String encode(String str, Charset charset) {
+        byte[] bytes;
+        char[] chars;
+
+        if (isAscii(str)) {
+            return str;
+        }
+        bytes = str.getBytes(charset);
+        chars = new char[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i] = toChar(bytes[i]);
+        }
+        return new String(chars);
+    }
+
+    private static boolean isAscii(String str) {
+        for (int i = 0, max = str.length(); i < max; i++) {
+            if (str.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** @return engine that accepts and returns byte chars */
+    public static RewriteEngine wrap(RewriteEngine engine, Charset charset) {
+        return (reference, baseURI, contextPath) -> {
+            String decoded;
+            String result;
+
+            decoded = decode(reference, charset);
+            result = engine.rewrite(decoded, baseURI, contextPath);
+            // keep the original bytes if nothing changed, decoding might have replaced malformed input
+            return result.equals(decoded) ? reference : encode(result, charset);
+        };
+    }
+
+    private ByteChars() {
+    }
+}
@@ -20,17 +20,31 @@ import net.oneandone.lavender.index.Index;
 import java.io.UnsupportedEncodingException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
 /**
  * See http://weblogs.java.net/blog/2007/11/27/consistent-hashing"
+ *
+ * The circle is used to add and remove nodes; lookups use a frozen copy in sorted arrays that's created on demand.
+ * A node's weight scales its number of replicas. For a known set of hashes, assign implements consistent hashing with
+ * bounded loads, see https://arxiv.org/abs/1608.01350.
  */
 public class ConsistentHash {
 
     protected final int numberOfReplicas;
     protected final SortedMap<Integer, String> circle = new TreeMap<>();
 
+    /** weight and number of replicas by node */
+    private final Map<String, Double> weights = new HashMap<>();
+    private final Map<String, Integer> replicas = new HashMap<>();
+
+    /** null if the circle was modified since the last lookup */
+    private volatile Ring ring;
+
     public ConsistentHash(int numberOfReplicas) {
         this(numberOfReplicas, new String[0]);
     }
@@ -44,15 +58,37 @@ public class ConsistentHash {
     }
 
     public void addNode(String node) {
-        for (int i = 0; i < numberOfReplicas; i++) {
+        addNode(node, 1.0);
+    }
+
+    /** @param weight relative capacity of the node, 1.0 for numberOfReplicas replicas */
+    public void addNode(String node, double weight) {
+        int count;
+
+        if (!(weight > 0) || Double.isInfinite(weight)) {
+            throw new IllegalArgumentException("invalid weight for node " + node + ": " + weight);
+        }
+        if (replicas.containsKey(node)) {
+            removeNode(node);
+        }
+        count = Math.max(1, (int) Math.round(numberOfReplicas * weight));
+        for (int i = 0; i < count; i++) {
             circle.put(key(node + "-" + i), node);
         }
+        weights.put(node, weight);
+        replicas.put(node, count);
+        ring = null;
     }
 
     public void removeNode(String node) {
-        for (int i = 0; i < numberOfReplicas; i++) {
+        Integer count;
+
+        count = replicas.remove(node);
+        weights.remove(node);
+        for (int i = 0, max = count == null ? numberOfReplicas : count; i < max; i++) {
             circle.remove(key(node + "-" + i));
         }
+        ring = null;
     }
 
     /**
@@ -62,13 +98,118 @@ public class ConsistentHash {
      * @return the node
      */
     public String getNodeForHash(byte[] md5) {
-        if (circle.isEmpty()) {
-            throw new IllegalStateException("No node in hash circle.");
+        return ring().get(rawKey(md5));
+    }
+
+    /**
+     * Consistent hashing with bounded loads: every node gets a capacity of factor times its weighted share of the hashes
+     * (rounded up); the hashes are assigned in order, each to the first node clockwise from its key that is below capacity.
+     * The result depends on the order of the hashes, it's the same for the same nodes and hashes in the same order; callers that
+     * need the same result on every server have to pass the hashes in a canonical order.
+     *
+     * @param factor 1.0 or more; the fraction of hashes per node stays within factor times its weighted mean
+     * @return node by hash
+     */
+    public String[] assign(byte[][] md5s, double factor) {
+        Ring r;
+        Map<String, Integer> numbers;
+        int[] owners;
+        int[] capacity;
+        int[] load;
+        double totalWeight;
+        String[] result;
+        int idx;
+
+        if (!(factor >= 1.0) || Double.isInfinite(factor)) {
+            throw new IllegalArgumentException("invalid load factor: " + factor);
+        }
+        r = ring();
+        numbers = new HashMap<>();
+        owners = new int[r.nodes.length];
+        totalWeight = 0;
+        for (int i = 0; i < owners.length; i++) {
+            if (!numbers.containsKey(r.nodes[i])) {
+                numbers.put(r.nodes[i], numbers.size());
+                totalWeight += weight(r.nodes[i]);
+            }
+            owners[i] = numbers.get(r.nodes[i]);
+        }
+        capacity = new int[numbers.size()];
+        for (Map.Entry<String, Integer> entry : numbers.entrySet()) {
+            capacity[entry.getValue()] = (int) Math.ceil(factor * md5s.length * weight(entry.getKey()) / totalWeight);
+        }
+        load = new int[capacity.length];
+        result = new String[md5s.length];
+        for (int i = 0; i < md5s.length; i++) {
+            idx = r.index(rawKey(md5s[i]));
+            // terminates because the capacities add up to at least md5s.length
+            while (load[owners[idx]] >= capacity[owners[idx]]) {
+                idx = idx + 1 == owners.length ? 0 : idx + 1;
+            }
+            load[owners[idx]]++;
+            result[i] = r.nodes[idx];
+        }
+        return result;
+    }
+
+    /** @return 1.0 for nodes added by subclasses */
+    public double weight(String node) {
+        Double result;
+
+        result = weights.get(node);
+        return result == null ? 1.0 : result;
+    }
+
+    private Ring ring() {
+        Ring r;
+
+        r = ring;
+        if (r == null) {
+            if (circle.isEmpty()) {
+                throw new IllegalStateException("No node in hash circle.");
+            }
+            r = new Ring(circle);
+            ring = r;
+        }
+        return r;
+    }
+
+    /** Same lookup as circle.tailMap(key), without boxing and allocation */
+    private static class Ring {
+        private final int[] keys;
+        private final String[] nodes;
+
+        Ring(SortedMap<Integer, String> circle) {
+            int i;
+
+            keys = new int[circle.size()];
+            nodes = new String[circle.size()];
+            i = 0;
+            for (Map.Entry<Integer, String> entry : circle.entrySet()) {
+                keys[i] = entry.getKey();
+                nodes[i] = entry.getValue();
+                i++;
+            }
+        }
+
+        /** @return node of the first key &gt;= the given key, wrapping around to the first node */
+        String get(int key) {
+            return nodes[index(key)];
+        }
+
+        /** @return index of the first key &gt;= the given key, wrapping around to 0 */
+        int index(int key) {
+            int idx;
+
+            idx = Arrays.binarySearch(keys, key);
+            if (idx < 0) {
+                idx = -idx - 1;
+                if (idx == keys.length) {
+                    idx = 0;
+                }
+            }
+            return idx;
         }
-        int key = key(md5);
-        SortedMap<Integer, String> tailMap = circle.tailMap(key);
-        key = tailMap.isEmpty() ? circle.firstKey() : tailMap.firstKey();
-        return circle.get(key);
     }
 
     /**
@@ -88,6 +229,10 @@ public class ConsistentHash {
      * @return the circle key
      */
     protected Integer key(byte[] md5) {
+        return rawKey(md5);
+    }
+
+    private static int rawKey(byte[] md5) {
         if (md5.length != 16) {
             throw new IllegalArgumentException("Expected a 16 byte / 128 bit hash.");
         }
@@ -43,27 +43,57 @@ public class CssProcessor extends AbstractProcessor {
      * An enum to track the state of this processor.
      */
     enum State {
+        /** The default state. */
+        OTHER,
+
         /** The 'U' of URL */
-        URL_U(true, 'u', 'U'),
+        URL_U,
 
         /** The 'R' or URL */
-        URL_R(true, 'r', 'R'),
+        URL_R,
 
         /** The 'L' of URL */
-        URL_L(true, 'l', 'L'),
+        URL_L,
 
-        /** The left parenthesis after URL */
-        URL_LPAR(true, '('),
+        /** The left parenthesis after URL, the url is collected in uriBuffer */
+        URL_LPAR,
 
-        /** The default state. */
-        OTHER(false, ')');
+        /** A slash that might start a comment */
+        SLASH,
+
+        COMMENT,
+
+        /** A star in a comment that might end it */
+        COMMENT_STAR,
 
-        private final boolean strict;
-        private final char[] chars;
+        /** In a string literal, quote holds the delimiter */
+        STRING,
 
-        State(boolean strict, char... chars) {
-            this.strict = strict;
-            this.chars = chars;
+        /** Backslash in a string literal */
+        STRING_ESCAPE
+    }
+
+    /** The quote of the current string literal */
+    private char quote;
+
+    /** Used to process single characters */
+    private final char[] single = new char[1];
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void reset() {
+        super.reset();
+        state = State.OTHER;
+        quote = 0;
+    }
+
+    /** Writes a pending url without flushing the writer; for embedded css, where the writer is shared. */
+    void finish() throws IOException {
+        if (uriBuffer.length() > 0) {
+            write(uriBuffer, 0, uriBuffer.length());
+            uriBuffer.setLength(0);
         }
     }
 
@@ -71,26 +101,138 @@ public class CssProcessor extends AbstractProcessor {
      * {@inheritDoc}
      */
     public void process(char c) throws IOException {
-        // url(
-        switch (state) {
-        case OTHER:
-            match(c, State.URL_U);
-            break;
-        case URL_U:
-            match(c, State.URL_R);
-            break;
-        case URL_R:
-            match(c, State.URL_L);
-            break;
-        case URL_L:
-            match(c, State.URL_LPAR);
-            break;
-        case URL_LPAR:
-            processUrl(c);
-            break;
-
-        default:
-            throw new IllegalStateException("Unexpected state: " + state);
+        single[0] = c;
+        process(single, 0, 1);
+    }
+
+    /**
+     * Everything except urls is written in runs; comments and string literals are copied without looking for urls.
+     */
+    @Override
+    protected void process(char[] chars, int offset, int length) throws IOException {
+        int end;
+        int i;
+        int start;
+        char c;
+
+        end = offset + length;
+        i = offset;
+        while (i < end) {
+            switch (state) {
+                case OTHER:
+                    start = i;
+                    c = 0;
+                    while (i < end) {
+                        c = chars[i];
+                        if (c == 'u' || c == 'U' || c == '/' || c == '"' || c == '\'') {
+                            break;
+                        }
+                        i++;
+                    }
+                    if (i == end) {
+                        out.write(chars, start, end - start);
+                        return;
+                    }
+                    i++;
+                    out.write(chars, start, i - start);
+                    if (c == 'u' || c == 'U') {
+                        state = State.URL_U;
+                    } else if (c == '/') {
+                        state = State.SLASH;
+                    } else {
+                        quote = c;
+                        state = State.STRING;
+                    }
+                    break;
+                case URL_U:
+                    i = next(chars, i, 'r', 'R', State.URL_R);
+                    break;
+                case URL_R:
+                    i = next(chars, i, 'l', 'L', State.URL_L);
+                    break;
+                case URL_L:
+                    i = next(chars, i, '(', '(', State.URL_LPAR);
+                    break;
+                case URL_LPAR:
+                    start = i;
+                    while (i < end && chars[i] != ')') {
+                        i++;
+                    }
+                    uriBuffer.append(chars, start, i - start);
+                    if (i < end) {
+                        processUrl(chars[i]);
+                        i++;
+                    }
+                    break;
+                case SLASH:
+                    i = next(chars, i, '*', '*', State.COMMENT);
+                    break;
+                case COMMENT:
+                    start = i;
+                    while (i < end && chars[i] != '*') {
+                        i++;
+                    }
+                    if (i < end) {
+                        state = State.COMMENT_STAR;
+                        i++;
+                    }
+                    out.write(chars, start, i - start);
+                    break;
+                case COMMENT_STAR:
+                    c = chars[i];
+                    if (c == '/') {
+                        state = State.OTHER;
+                    } else if (c != '*') {
+                        state = State.COMMENT;
+                    }
+                    out.write(c);
+                    i++;
+                    break;
+                case STRING:
+                    start = i;
+                    while (i < end) {
+                        c = chars[i];
+                        if (c == quote || c == '\n' || c == '\r' || c == '\f') {
+                            state = State.OTHER;
+                            i++;
+                            break;
+                        } else if (c == '\\') {
+                            state = State.STRING_ESCAPE;
+                            i++;
+                            break;
+                        }
+                        i++;
+                    }
+                    out.write(chars, start, i - start);
+                    break;
+                case STRING_ESCAPE:
+                    state = State.STRING;
+                    out.write(chars[i]);
+                    i++;
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected state: " + state);
+            }
+        }
+    }
+
+    /**
+     * Writes the current character and switches to the next state if it matches. Otherwise switches back to OTHER
+     * without consuming the character, it might start something else.
+     *
+     * @return index of the next character to process
+     */
+    private int next(char[] chars, int i, char lower, char upper, State nextState) throws IOException {
+        char c;
+
+        c = chars[i];
+        if (c == lower || c == upper) {
+            state = nextState;
+            out.write(c);
+            return i + 1;
+        } else {
+            state = State.OTHER;
+            return i;
         }
     }
 
@@ -133,8 +275,9 @@ public class CssProcessor extends AbstractProcessor {
         if (uri.startsWith("data:")) {
             out.write(uriBuffer.toString());
         } else {
+            String data = inline(uri);
             out.write(uriBuffer.substring(0, start));
-            out.write(rewriteEngine.rewrite(uri, baseURI, contextPath));
+            out.write(data != null ? data : rewriteEngine.rewrite(uri, baseURI, contextPath));
             out.write(uriBuffer.substring(end));
         }
         uriBuffer.setLength(0);
@@ -157,24 +300,4 @@ public class CssProcessor extends AbstractProcessor {
         return c == ' ' || c == '\n' || c == '\t' || c == '\r';
     }
 
-    protected void match(char c, State... states) throws IOException {
-        State newState = null;
-        outer: for (State s : states) {
-            for (char k : s.chars) {
-                if (c == k) {
-                    state = s;
-                    newState = s;
-                    break outer;
-                }
-            }
-        }
-
-        // reset state
-        if (newState == null && state.strict) {
-            state = State.OTHER;
-        }
-
-        out.write(c);
-    }
-
 }
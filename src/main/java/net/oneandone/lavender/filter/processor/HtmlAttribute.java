@@ -17,4 +17,20 @@ package net.oneandone.lavender.filter.processor;
 
 public interface HtmlAttribute {
     boolean attributeMatches(String attributeName);
+
+    /**
+     * @return the name this attribute matches case-insensitively, or null. If not null, attributeMatches must match
+     * exactly this name; HtmlProcessor looks up the attribute without calling it.
+     */
+    default String getName() {
+        return null;
+    }
+
+    /**
+     * @return the prefix of all names this attribute matches case-sensitively, or null. Only used if getName returns
+     * null; attributeMatches must match exactly the names with this prefix.
+     */
+    default String getPrefix() {
+        return null;
+    }
 }
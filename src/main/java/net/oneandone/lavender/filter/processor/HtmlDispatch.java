@@ -0,0 +1,264 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.filter.processor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable lookup structure for HtmlProcessor, built once from its tags, attributes and rewrite matchers. Tags and
+ * attributes are numbered by their position in the arrays; the unknown tag is number tags.length, an unknown attribute
+ * is -1. Classifying names in the tag buffer neither allocates nor scans linearly, unless there are attributes without
+ * name or prefix.
+ */
+final class HtmlDispatch {
+    private static final UrlRewriteMatcher[] NO_MATCHERS = new UrlRewriteMatcher[0];
+
+    private final HtmlTag[] tags;
+    private final HtmlAttribute[] attributes;
+
+    /** tag numbers by folded name */
+    private final String[] tagNames;
+    private final int[] tagTable;
+
+    /** attribute numbers by folded name */
+    private final String[] attributeNames;
+    private final int[] attributeTable;
+
+    /** numbers of attributes with prefix, in order */
+    private final int[] prefixed;
+
+    /** numbers of attributes without name and prefix, in order */
+    private final int[] generic;
+
+    /** candidate matchers by tag number and attribute number, in order */
+    private final UrlRewriteMatcher[][][] matchers;
+
+    HtmlDispatch(HtmlTag[] tags, HtmlAttribute[] attributes, UrlRewriteMatcher[] urlRewriteMatchers) {
+        String name;
+        List<Integer> prefixList;
+        List<Integer> genericList;
+
+        this.tags = tags;
+        this.attributes = attributes;
+        this.tagNames = new String[NameTable.size(tags.length)];
+        this.tagTable = new int[tagNames.length];
+        for (int i = 0; i < tags.length; i++) {
+            name = tags[i].getName();
+            // tag names are compared with the lower-cased buffer, a name with upper case chars never matches
+            if (name.equals(fold(name))) {
+                NameTable.put(tagNames, tagTable, name, i);
+            }
+        }
+        this.attributeNames = new String[NameTable.size(attributes.length)];
+        this.attributeTable = new int[attributeNames.length];
+        prefixList = new ArrayList<>();
+        genericList = new ArrayList<>();
+        for (int i = 0; i < attributes.length; i++) {
+            if (attributes[i].getName() != null) {
+                NameTable.put(attributeNames, attributeTable, fold(attributes[i].getName()), i);
+            } else if (attributes[i].getPrefix() != null) {
+                prefixList.add(i);
+            } else {
+                genericList.add(i);
+            }
+        }
+        this.prefixed = toArray(prefixList);
+        this.generic = toArray(genericList);
+        this.matchers = new UrlRewriteMatcher[tags.length + 1][attributes.length][];
+        for (int t = 0; t <= tags.length; t++) {
+            for (int a = 0; a < attributes.length; a++) {
+                matchers[t][a] = candidates(t == tags.length ? null : tags[t], attributes[a], urlRewriteMatchers);
+            }
+        }
+    }
+
+    private static UrlRewriteMatcher[] candidates(HtmlTag tag, HtmlAttribute attribute, UrlRewriteMatcher[] urlRewriteMatchers) {
+        List<UrlRewriteMatcher> result;
+
+        result = new ArrayList<>();
+        for (UrlRewriteMatcher matcher : urlRewriteMatchers) {
+            if (matcher.getAttributeToRewrite() == attribute && (matcher.getTag() == null || matcher.getTag() == tag)) {
+                result.add(matcher);
+            }
+        }
+        return result.isEmpty() ? NO_MATCHERS : result.toArray(new UrlRewriteMatcher[result.size()]);
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] result;
+
+        result = new int[list.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = list.get(i);
+        }
+        return result;
+    }
+
+    //--
+
+    /** @return number of the tag named by the buffer range, tags.length if unknown */
+    int tag(CharSequence buffer, int start, int end) {
+        int result;
+
+        result = NameTable.get(tagNames, tagTable, buffer, start, end);
+        return result == -1 ? tags.length : result;
+    }
+
+    /** @return null for the unknown tag */
+    HtmlTag tag(int number) {
+        return number == tags.length ? null : tags[number];
+    }
+
+    /** @return number of the first attribute that matches the name in the buffer range, -1 if none */
+    int attribute(CharSequence buffer, int start, int end) {
+        int result;
+        int candidate;
+        String name;
+
+        result = NameTable.get(attributeNames, attributeTable, buffer, start, end);
+        for (int i = 0; i < prefixed.length; i++) {
+            candidate = prefixed[i];
+            if (result != -1 && candidate > result) {
+                break;
+            }
+            if (startsWith(buffer, start, end, attributes[candidate].getPrefix())) {
+                result = candidate;
+                break;
+            }
+        }
+        name = null;
+        for (int i = 0; i < generic.length; i++) {
+            candidate = generic[i];
+            if (result != -1 && candidate > result) {
+                break;
+            }
+            if (name == null) {
+                name = buffer.subSequence(start, end).toString();
+            }
+            if (attributes[candidate].attributeMatches(name)) {
+                result = candidate;
+                break;
+            }
+        }
+        return result;
+    }
+
+    HtmlAttribute attribute(int number) {
+        return attributes[number];
+    }
+
+    /** @return matchers that might rewrite the attribute of the tag, in order */
+    UrlRewriteMatcher[] matchers(int tag, int attribute) {
+        return matchers[tag][attribute];
+    }
+
+    //--
+
+    private static boolean startsWith(CharSequence buffer, int start, int end, String prefix) {
+        if (end - start < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (buffer.charAt(start + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static String fold(String str) {
+        StringBuilder result;
+
+        result = new StringBuilder(str.length());
+        for (int i = 0; i < str.length(); i++) {
+            result.append(fold(str.charAt(i)));
+        }
+        return result.toString();
+    }
+
+    /** case folding as in String.equalsIgnoreCase */
+    static char fold(char c) {
+        if (c < 0x80) {
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    /** Open addressing hash table of folded names, load factor 0.5 */
+    private static final class NameTable {
+        static int size(int count) {
+            int result;
+
+            result = 2;
+            while (result < count * 2) {
+                result <<= 1;
+            }
+            return result;
+        }
+
+        /** does nothing if the name is already present, the first number wins */
+        static void put(String[] names, int[] numbers, String name, int number) {
+            int slot;
+
+            slot = hash(name, 0, name.length()) & (names.length - 1);
+            while (names[slot] != null) {
+                if (names[slot].equals(name)) {
+                    return;
+                }
+                slot = (slot + 1) & (names.length - 1);
+            }
+            names[slot] = name;
+            numbers[slot] = number;
+        }
+
+        /** @return -1 if not found */
+        static int get(String[] names, int[] numbers, CharSequence buffer, int start, int end) {
+            int slot;
+
+            slot = hash(buffer, start, end) & (names.length - 1);
+            while (names[slot] != null) {
+                if (matches(names[slot], buffer, start, end)) {
+                    return numbers[slot];
+                }
+                slot = (slot + 1) & (names.length - 1);
+            }
+            return -1;
+        }
+
+        private static int hash(CharSequence str, int start, int end) {
+            int result;
+
+            result = 0;
+            for (int i = start; i < end; i++) {
+                result = 31 * result + fold(str.charAt(i));
+            }
+            return result ^ (result >>> 16);
+        }
+
+        private static boolean matches(String name, CharSequence buffer, int start, int end) {
+            if (name.length() != end - start) {
+                return false;
+            }
+            for (int i = 0; i < name.length(); i++) {
+                if (name.charAt(i) != fold(buffer.charAt(start + i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
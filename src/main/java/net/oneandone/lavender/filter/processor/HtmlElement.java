@@ -24,8 +24,13 @@ public class HtmlElement {
     private List<HtmlAttributeValue> attributeValues;
 
     public HtmlElement(HtmlTag tag, List<HtmlAttributeValue> attributeValues) {
-        this.tag = tag;
-        this.attributeValues = attributeValues;
+        set(tag, attributeValues);
+    }
+
+    /** Used by HtmlProcessor to reuse the instance. */
+    void set(HtmlTag newTag, List<HtmlAttributeValue> newAttributeValues) {
+        this.tag = newTag;
+        this.attributeValues = newAttributeValues;
     }
 
     public HtmlTag getTag() {
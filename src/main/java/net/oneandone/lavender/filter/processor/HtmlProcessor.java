@@ -21,8 +21,6 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class HtmlProcessor extends AbstractProcessor {
 
@@ -33,17 +31,16 @@ public class HtmlProcessor extends AbstractProcessor {
     private static final HtmlAttribute OTHER_HTML_ATTRIBUTE = x -> false;
 
     /**
-     * Parse URLs from image candidate strings in "srcset" according to https://html.spec.whatwg.org/multipage/images.html#srcset-attributes
-     * Matching groups:
-     * <ul>
-     *     <li>ASCII Whitespace (optional</li>
-     *     <li>URL</li>
-     *     <li>ASCII Whitespace (optional)</li>
-     *     <li>Remainder (Width or Density descriptors) including ASCII Whitespace (optional)</li>
-     *     <li>Candidate separator (',') or end of line</li>
-     * </ul>
+     * Attribute values that grow beyond this size are streamed, if they cannot be rewritten. This bounds the tag buffer
+     * for inline data urls and large data attributes.
      */
-    private static final Pattern SRCSET_PATTERN = Pattern.compile("([\\t\\n\\f\\r ]*)([^,\\t\\n\\f\\r ]+)([\\t\\n\\f\\r ]*)([^,]*)(,|$)");
+    static final int STREAM_THRESHOLD = 8192;
+
+    /** Ends the content of a style element, compared case-insensitively */
+    private static final String STYLE_END = "</style";
+
+    private static final HtmlDispatch DEFAULT_DISPATCH = new HtmlDispatch(LavenderHtmlTag.values(), LavenderHtmlAttribute.values(),
+            LavenderUrlRewriteMatcher.values());
 
     /** The main state of this processor. */
     protected State state = State.NULL;
@@ -53,22 +50,42 @@ public class HtmlProcessor extends AbstractProcessor {
      * outside of angle brackets, it contains the last value of currentTag.
      */
     protected HtmlTag currentTag;
+    private int currentTagNumber = -1;
 
     /** The current attribute within a currentTag. */
     protected HtmlAttribute currentAttribute;
+    private int currentAttributeNumber = -1;
     private int attributeValueStartIndex = -1;
     private int attributeNameStartIndex = -1;
 
+    /** True if the rest of the current attribute value is written without buffering */
+    private boolean streaming = false;
+
+    /** True if the current tag is a style start tag */
+    private boolean styleTag = false;
+
+    /** True if the current tag is a head start tag */
+    private boolean headTag = false;
+
     /** The currentTag buffer. */
     protected StringBuilder tagBuffer = new StringBuilder(100);
 
     /** The relevant attributes in the current currentTag, in order. */
     protected List<HtmlAttributeValue> attributes = new ArrayList<>();
 
-    private HtmlTag[] knownTags;
-    private HtmlAttribute[] knownAttributes;
-    private UrlRewriteMatcher[] urlRewriteMatchers;
+    private final HtmlDispatch dispatch;
+
+    /** Reused for rewrite matcher lookups */
+    private final HtmlElement element = new HtmlElement(null, null);
 
+    /** Reused for style attributes and elements; null until the first one */
+    private CssProcessor styleProcessor;
+
+    /** Collects rewritten stylesheets, scripts and images; null if not needed */
+    private Preloads preloads;
+
+    /** Origins to insert preconnect hints for after the head start tag; null if none or already written */
+    private String[] preconnects;
 
     /**
      * An enum to track the state of this processor.
@@ -92,20 +109,39 @@ public class HtmlProcessor extends AbstractProcessor {
         VALUE_START_SQ,
         VALUE_START_DQ,
         VALUE_START_UQ,
-        VALUE
+        VALUE,
+
+        /** Content of a style element, passed to the style processor; tagBuffer holds a possible end tag */
+        STYLE_BODY
     }
 
     static final class HtmlAttributeValue {
         private final HtmlAttribute attr;
+        private final int number;
+        /** -1 if the value has already been written */
         private final int start;
         private final int end;
         private final StringBuilder tagBuffer;
+        /** null if the value is in the tag buffer */
+        private final String value;
 
-        private HtmlAttributeValue(HtmlAttribute attr, int start, int end, StringBuilder tagBuffer) {
+        private HtmlAttributeValue(HtmlAttribute attr, int number, int start, int end, StringBuilder tagBuffer) {
             this.attr = attr;
+            this.number = number;
             this.start = start;
             this.end = end;
             this.tagBuffer = tagBuffer;
+            this.value = null;
+        }
+
+        /** for values that have already been written */
+        private HtmlAttributeValue(HtmlAttribute attr, int number, String value) {
+            this.attr = attr;
+            this.number = number;
+            this.start = -1;
+            this.end = -1;
+            this.tagBuffer = null;
+            this.value = value;
         }
 
         public HtmlAttribute getAttribute() {
@@ -113,7 +149,11 @@ public class HtmlProcessor extends AbstractProcessor {
         }
 
         public String getValue() {
-            return tagBuffer.substring(start, end);
+            return value != null ? value : tagBuffer.substring(start, end);
+        }
+
+        private HtmlAttributeValue detach() {
+            return value != null ? this : new HtmlAttributeValue(attr, number, getValue());
         }
     }
 
@@ -122,25 +162,144 @@ public class HtmlProcessor extends AbstractProcessor {
      * Instantiates a new HTML processor.
      */
     public HtmlProcessor() {
-        this(LavenderHtmlTag.values(), LavenderHtmlAttribute.values(), LavenderUrlRewriteMatcher.values());
+        this(DEFAULT_DISPATCH);
     }
 
     /**
      * Instantiates a new HTML processor.
      */
     public HtmlProcessor(HtmlTag[] knownTags, HtmlAttribute[] knownAttributes, UrlRewriteMatcher[] urlRewriteMatchers) {
+        this(new HtmlDispatch(knownTags, knownAttributes, urlRewriteMatchers));
+    }
+
+    /** For processors of other markup with the same syntax */
+    HtmlProcessor(HtmlDispatch dispatch) {
         super(LOG);
-        this.knownTags = knownTags;
-        this.knownAttributes = knownAttributes;
-        this.urlRewriteMatchers = urlRewriteMatchers;
+        this.dispatch = dispatch;
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        state = State.NULL;
+        currentTag = null;
+        currentTagNumber = -1;
+        currentAttribute = null;
+        currentAttributeNumber = -1;
+        attributeValueStartIndex = -1;
+        attributeNameStartIndex = -1;
+        streaming = false;
+        styleTag = false;
+        headTag = false;
+        tagBuffer = clear(tagBuffer, 100);
+        attributes.clear();
+        element.set(null, null);
+        if (styleProcessor != null) {
+            styleProcessor.reset();
+        }
+        preloads = null;
+        preconnects = null;
+    }
+
+    /**
+     * Call after setRewriteEngine, the engine is wrapped to record origins.
+     * @param preloads null to collect nothing; cleared by reset
+     */
+    public void setPreloads(Preloads preloads) {
+        this.preloads = preloads;
+        if (preloads != null) {
+            rewriteEngine = preloads.wrap(rewriteEngine);
+        }
     }
 
+    /** @param origins to insert preconnect and dns-prefetch links for after the head start tag; cleared by reset */
+    public void setPreconnects(String[] origins) {
+        this.preconnects = origins.length == 0 ? null : origins;
+    }
+
+    /**
+     * Flushes everything up to the current tag. A partial tag, a pending url in a style element and a partial style end tag
+     * stay buffered until they are complete or the processor is closed - writing them now would leave them unrewritten.
+     */
     @Override
     public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (state == State.STYLE_BODY) {
+            styleProcessor.finish();
+        }
         if (tagBuffer.length() > 0) {
-            out.write(tagBuffer.toString());
+            write(tagBuffer, 0, tagBuffer.length());
+            tagBuffer.setLength(0);
+        }
+        super.close();
+    }
+
+    /**
+     * Text between tags is the bulk of most pages: it's written in runs up to and including the next '&lt;'. Quoted
+     * attribute values are appended to the tag buffer in runs, style element content is passed to the style processor
+     * in runs. Everything else is processed per character.
+     */
+    @Override
+    protected void process(char[] chars, int offset, int length) throws IOException {
+        int end;
+        int start;
+        char quote;
+
+        end = offset + length;
+        for (int i = offset; i < end; i++) {
+            switch (state) {
+                case NULL:
+                    start = i;
+                    while (i < end && chars[i] != '<') {
+                        i++;
+                    }
+                    if (i == end) {
+                        out.write(chars, start, end - start);
+                        return;
+                    }
+                    out.write(chars, start, i - start + 1);
+                    state = State.TAG_START;
+                    break;
+                case VALUE_START_DQ:
+                case VALUE_START_SQ:
+                    quote = state == State.VALUE_START_DQ ? '"' : '\'';
+                    start = i;
+                    while (i < end && chars[i] != quote) {
+                        i++;
+                    }
+                    if (streaming) {
+                        out.write(chars, start, i - start);
+                    } else {
+                        tagBuffer.append(chars, start, i - start);
+                        checkValueSize();
+                    }
+                    if (i == end) {
+                        return;
+                    }
+                    process(chars[i]);
+                    break;
+                case STYLE_BODY:
+                    if (tagBuffer.length() == 0) {
+                        start = i;
+                        while (i < end && chars[i] != '<') {
+                            i++;
+                        }
+                        styleProcessor.process(chars, start, i - start);
+                        if (i == end) {
+                            return;
+                        }
+                    }
+                    matchStyleBody(chars[i]);
+                    break;
+                default:
+                    process(chars[i]);
+                    break;
+            }
         }
-        super.flush();
     }
 
     /**
@@ -187,6 +346,9 @@ public class HtmlProcessor extends AbstractProcessor {
             case VALUE_START_UQ:
                 matchUnquotedValue(c);
                 break;
+            case STYLE_BODY:
+                matchStyleBody(c);
+                break;
 
             default:
                 throw new IllegalStateException("Unexpected state: " + state);
@@ -280,13 +442,18 @@ public class HtmlProcessor extends AbstractProcessor {
     private void matchTag(char c) throws IOException {
         if (Character.isSpaceChar(c)) {
             state = State.TAG;
-            currentTag = findTagByName(tagBuffer.toString().toLowerCase());
+            styleTag = isTag(tagBuffer, "style");
+            headTag = preconnects != null && isTag(tagBuffer, "head");
+            currentTagNumber = dispatch.tag(tagBuffer, 0, tagBuffer.length());
+            currentTag = dispatch.tag(currentTagNumber);
+            if (currentTag == null) {
+                currentTag = OTHER_HTML_TAG;
+            }
             tagBuffer.append(c);
         } else if (c == '>') {
-            processTagBuffer();
-            state = State.NULL;
-            tagBuffer.setLength(0);
-            out.write(c);
+            styleTag = isTag(tagBuffer, "style");
+            headTag = preconnects != null && isTag(tagBuffer, "head");
+            endTag(c);
         } else if (c == '!') {
             // comment
             state = State.SPECIAL_START;
@@ -299,10 +466,7 @@ public class HtmlProcessor extends AbstractProcessor {
 
     private void matchInTag(char c) throws IOException {
         if (c == '>') {
-            processTagBuffer();
-            state = State.NULL;
-            tagBuffer.setLength(0);
-            out.write(c);
+            endTag(c);
         } else if (c == '/') {
             // ignore this
             tagBuffer.append(c);
@@ -315,13 +479,92 @@ public class HtmlProcessor extends AbstractProcessor {
         }
     }
 
+    private void endTag(char c) throws IOException {
+        boolean selfClosing;
+
+        selfClosing = tagBuffer.length() > 0 && tagBuffer.charAt(tagBuffer.length() - 1) == '/';
+        processTagBuffer();
+        tagBuffer.setLength(0);
+        out.write(c);
+        if (styleTag && !selfClosing) {
+            startStyleProcessor();
+            state = State.STYLE_BODY;
+        } else {
+            state = State.NULL;
+        }
+        if (headTag) {
+            writePreconnects();
+        }
+        styleTag = false;
+        headTag = false;
+    }
+
+    private void writePreconnects() throws IOException {
+        for (String origin : preconnects) {
+            out.write("<link rel=\"preconnect\" href=\"");
+            out.write(origin);
+            out.write("\"><link rel=\"dns-prefetch\" href=\"");
+            out.write(origin);
+            out.write("\">");
+        }
+        preconnects = null;
+    }
+
+    /** @param name lower case */
+    private static boolean isTag(StringBuilder buffer, String name) {
+        if (buffer.length() != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (HtmlDispatch.fold(buffer.charAt(i)) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Passes style content to the style processor. A '&lt;' starts collecting a possible end tag in the tag buffer; if
+     * it turns out to be something else, the collected chars are passed on, too.
+     */
+    private void matchStyleBody(char c) throws IOException {
+        int length;
+
+        if (tagBuffer.length() == 0) {
+            if (c == '<') {
+                tagBuffer.append(c);
+            } else {
+                styleProcessor.process(c);
+            }
+            return;
+        }
+        length = tagBuffer.length();
+        if (HtmlDispatch.fold(c) == STYLE_END.charAt(length)) {
+            tagBuffer.append(c);
+            if (length + 1 == STYLE_END.length()) {
+                styleProcessor.finish();
+                out.write('<');
+                tagBuffer.deleteCharAt(0);
+                state = State.TAG_START;
+            }
+            return;
+        }
+        styleProcessor.process(tagBuffer, 0, length);
+        tagBuffer.setLength(0);
+        matchStyleBody(c);
+    }
+
     private void matchAttribute(char c) throws IOException {
-        if (c == '=' || Character.isSpaceChar(c)) {
+        if (c == '>') {
+            // attribute without value, e.g. <input disabled> or <?xml version="1.0"?>
+            attributeNameStartIndex = -1;
+            endTag(c);
+        } else if (c == '=' || Character.isSpaceChar(c)) {
             state = State.ATTRIBUTE;
 
             // match the attribute
-            String attributeName = tagBuffer.substring(attributeNameStartIndex);
-            currentAttribute = findMatchingAttribute(attributeName);
+            currentAttributeNumber = dispatch.attribute(tagBuffer, attributeNameStartIndex, tagBuffer.length());
+            currentAttribute = currentAttributeNumber == -1 ? OTHER_HTML_ATTRIBUTE : dispatch.attribute(currentAttributeNumber);
 
             attributeNameStartIndex = -1;
 
@@ -350,7 +593,7 @@ public class HtmlProcessor extends AbstractProcessor {
         }
     }
 
-    private void matchValueStart(char c) {
+    private void matchValueStart(char c) throws IOException {
         if (c == '"') {
             state = State.VALUE_START_DQ;
             tagBuffer.append(c);
@@ -369,143 +612,296 @@ public class HtmlProcessor extends AbstractProcessor {
         }
     }
 
-    private void matchUnquotedValue(char c) {
+    private void matchUnquotedValue(char c) throws IOException {
         if (Character.isSpaceChar(c)) {
             state = State.VALUE;
             markValueLength();
             tagBuffer.append(c);
             state = State.TAG;
         } else {
-            tagBuffer.append(c);
+            appendValue(c);
         }
     }
 
-    private void matchSingleQuotedValue(char c) {
+    private void matchSingleQuotedValue(char c) throws IOException {
         if (c == '\'') {
             state = State.VALUE;
             markValueLength();
             tagBuffer.append(c);
             state = State.TAG;
         } else {
-            tagBuffer.append(c);
+            appendValue(c);
         }
     }
 
-    private void matchDoubleQuotedValue(char c) {
+    private void matchDoubleQuotedValue(char c) throws IOException {
         if (c == '"') {
             state = State.VALUE;
             markValueLength();
             tagBuffer.append(c);
             state = State.TAG;
+        } else {
+            appendValue(c);
+        }
+    }
+
+    private void appendValue(char c) throws IOException {
+        if (streaming) {
+            out.write(c);
         } else {
             tagBuffer.append(c);
+            checkValueSize();
+        }
+    }
+
+    /**
+     * Starts streaming if the current value exceeds the threshold and neither it nor an earlier value of the tag can be
+     * rewritten - matchers of earlier values may depend on attributes that follow. The tag buffer is written
+     * up to the value, rewriting earlier values with the attributes seen so far, and cleared; the attributes are kept
+     * for the matchers of later values, a streamed value only with its first STREAM_THRESHOLD chars.
+     */
+    private void checkValueSize() throws IOException {
+        int valueStart;
+
+        valueStart = attributeValueStartIndex;
+        if (tagBuffer.length() - valueStart <= STREAM_THRESHOLD || !isStreamable()) {
+            return;
+        }
+        writeTagBuffer(valueStart);
+        for (int i = 0, max = attributes.size(); i < max; i++) {
+            attributes.set(i, attributes.get(i).detach());
+        }
+        if (currentAttribute != OTHER_HTML_ATTRIBUTE) {
+            attributes.add(new HtmlAttributeValue(currentAttribute, currentAttributeNumber,
+                    tagBuffer.substring(valueStart, valueStart + STREAM_THRESHOLD)));
         }
+        write(tagBuffer, valueStart, tagBuffer.length());
+        tagBuffer.setLength(0);
+        attributeValueStartIndex = -1;
+        streaming = true;
+    }
+
+    private boolean isStreamable() {
+        HtmlAttributeValue earlier;
+
+        for (int i = 0, max = attributes.size(); i < max; i++) {
+            earlier = attributes.get(i);
+            if (earlier.start != -1 && dispatch.matchers(currentTagNumber, earlier.number).length > 0) {
+                return false;
+            }
+        }
+        if (currentAttribute == OTHER_HTML_ATTRIBUTE) {
+            return true;
+        }
+        if (currentAttribute == LavenderHtmlAttribute.STYLE) {
+            return false;
+        }
+        if (currentAttribute != LavenderHtmlAttribute.SRCSET && startsWith(tagBuffer, attributeValueStartIndex, "data:")) {
+            return true;
+        }
+        return dispatch.matchers(currentTagNumber, currentAttributeNumber).length == 0;
+    }
+
+    private static boolean startsWith(StringBuilder buffer, int start, String prefix) {
+        if (buffer.length() - start < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (buffer.charAt(start + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     private void processTagBuffer() throws IOException {
+        writeTagBuffer(tagBuffer.length());
+        attributeNameStartIndex = -1;
+        attributes.clear();
+        tagBuffer.setLength(0);
+        uriBuffer.setLength(0);
+    }
+
+    /** Writes the tag buffer up to end, rewriting the attribute values in this range */
+    private void writeTagBuffer(int end) throws IOException {
         int index = 0;
-        for (HtmlAttributeValue attributeValue : attributes) {
-            out.write(tagBuffer.substring(index, attributeValue.start));
+        HtmlAttributeValue attributeValue;
+        UrlRewriteMatcher matcher;
+        String value;
+
+        for (int i = 0, max = attributes.size(); i < max; i++) {
+            attributeValue = attributes.get(i);
+            if (attributeValue.start == -1) {
+                // written before streaming
+                continue;
+            }
+            write(tagBuffer, index, attributeValue.start);
 
             if (attributeValue.attr == LavenderHtmlAttribute.STYLE) {
                 rewriteCss(attributeValue);
             } else {
-                UrlRewriteMatcher matcher = lookupRewriteMatcher(currentTag, attributeValue.attr, attributes);
-                String value;
-
-                value = attributeValue.getValue();
-                if (matcher != null && attributeValue.attr == LavenderHtmlAttribute.SRCSET) {
-                    rewriteSrcSet(attributeValue.getValue());
-                } else if (matcher != null && !matcher.ignoreValue(value)) {
-                    matchesRewriteUrl(value);
+                matcher = lookupRewriteMatcher(attributeValue);
+                if (matcher == null) {
+                    write(tagBuffer, attributeValue.start, attributeValue.end);
                 } else {
-                    out.write(value);
+                    if (attributeValue.attr == LavenderHtmlAttribute.SRCSET) {
+                        rewriteSrcSet(attributeValue.start, attributeValue.end);
+                    } else {
+                        value = attributeValue.getValue();
+                        if (!matcher.ignoreValue(value)) {
+                            matchesRewriteUrl(value, attributeValue.attr, isQuoted(attributeValue.start));
+                        } else {
+                            out.write(value);
+                        }
+                    }
                 }
             }
 
             index = attributeValue.end;
         }
 
-        out.write(tagBuffer.substring(index));
-
-        attributeNameStartIndex = -1;
-        attributes.clear();
-        tagBuffer.setLength(0);
-        uriBuffer.setLength(0);
+        write(tagBuffer, index, end);
     }
 
-    private void matchesRewriteUrl(String attributeValue) throws IOException {
-        String str = rewriteEngine.rewrite(attributeValue, baseURI, contextPath);
+    private void matchesRewriteUrl(String attributeValue, HtmlAttribute attribute, boolean quoted) throws IOException {
+        String str;
+
+        str = quoted && isInlineable(attribute) ? inline(attributeValue) : null;
+        if (str != null) {
+            out.write(str);
+            return;
+        }
+        str = rewriteEngine.rewrite(attributeValue, baseURI, contextPath);
         out.write(str);
+        if (preloads != null && !str.equals(attributeValue)) {
+            preload(str, attribute);
+        }
     }
 
-    private void rewriteCss(HtmlAttributeValue htmlAttributeValue) throws IOException {
-        CssProcessor cssProcessor = new CssProcessor();
-        cssProcessor.setRewriteEngine(rewriteEngine, baseURI, contextPath);
-        cssProcessor.setWriter(out);
-        cssProcessor.process(tagBuffer, htmlAttributeValue.start, htmlAttributeValue.end - htmlAttributeValue.start);
-    }
-
-    private void rewriteSrcSet(String attributeValue) throws IOException {
-        Matcher elements = SRCSET_PATTERN.matcher(attributeValue);
-        StringBuffer replacement = new StringBuffer();
-        while (elements.find()) {
-            String url = elements.group(2);
-            if (!url.startsWith("data:")) {
-                url = rewriteEngine.rewrite(url, baseURI, contextPath);
-            }
-            elements.appendReplacement(replacement, new StringBuilder()
-                    .append(elements.group(1))
-                    .append(url)
-                    .append(elements.group(3))
-                    .append(elements.group(4))
-                    .append(elements.group(5))
-                    .toString());
+    /** Only image sources are inlined - links, scripts and frames would not work or not benefit from data uris */
+    private boolean isInlineable(HtmlAttribute attribute) {
+        return inliner != null && attribute == LavenderHtmlAttribute.SRC && (currentTag == LavenderHtmlTag.IMG || currentTag == LavenderHtmlTag.INPUT);
+    }
+
+    /** @return true if the attribute value starting at this tag buffer index is quoted, data uris may contain '=' */
+    private boolean isQuoted(int start) {
+        char c;
+
+        if (start == 0) {
+            return false;
         }
-        elements.appendTail(replacement);
-        out.write(replacement.toString());
+        c = tagBuffer.charAt(start - 1);
+        return c == '"' || c == '\'';
     }
 
-    private void markValueStart() {
-        if (currentAttribute != OTHER_HTML_ATTRIBUTE) {
-            attributeValueStartIndex = tagBuffer.length();
+    /** Called after lookupRewriteMatcher, the element is set */
+    private void preload(String url, HtmlAttribute attribute) {
+        if (currentTag == LavenderHtmlTag.LINK) {
+            if (attribute == LavenderHtmlAttribute.HREF && "stylesheet".equals(element.getAttribute(LavenderHtmlAttribute.REL))) {
+                preloads.add(url, "style");
+            }
+        } else if (currentTag == LavenderHtmlTag.SCRIPT) {
+            if (attribute == LavenderHtmlAttribute.SRC) {
+                preloads.add(url, "script");
+            }
+        } else if (currentTag == LavenderHtmlTag.IMG) {
+            if (attribute == LavenderHtmlAttribute.SRC) {
+                preloads.add(url, "image");
+            }
         }
     }
 
-    private void markValueLength() {
-        int attributeEndInTagBuffer = tagBuffer.length();
-        if (currentAttribute != OTHER_HTML_ATTRIBUTE) {
-            attributes.add(new HtmlAttributeValue(currentAttribute, attributeValueStartIndex, attributeEndInTagBuffer,
-                    tagBuffer));
-            attributeValueStartIndex = -1;
+    private void rewriteCss(HtmlAttributeValue htmlAttributeValue) throws IOException {
+        startStyleProcessor();
+        styleProcessor.process(tagBuffer, htmlAttributeValue.start, htmlAttributeValue.end - htmlAttributeValue.start);
+    }
+
+    private void startStyleProcessor() {
+        if (styleProcessor == null) {
+            styleProcessor = new CssProcessor();
+        } else {
+            styleProcessor.reset();
         }
+        styleProcessor.setRewriteEngine(rewriteEngine, baseURI, contextPath);
+        styleProcessor.setWriter(out);
+        // shares the budget, and the engine is already wrapped for byte chars
+        styleProcessor.setInliner(inliner);
+        styleProcessor.byteChars = byteChars;
     }
 
-    private HtmlTag findTagByName(String name) {
-        for (HtmlTag tag : knownTags) {
-            if (name.equals(tag.getName())) {
-                return tag;
+    /**
+     * Rewrites the urls of the image candidates in a "srcset" value, see
+     * https://html.spec.whatwg.org/multipage/images.html#srcset-attributes. Candidates are separated by commas; a candidate
+     * is optional ASCII whitespace, the url (up to the next whitespace or comma), optional whitespace and the descriptors.
+     * Everything except the urls is copied unchanged. Data urls are not rewritten.
+     */
+    private void rewriteSrcSet(int start, int end) throws IOException {
+        int pos;
+        int from;
+        int urlStart;
+        String url;
+
+        pos = start;
+        while (pos < end) {
+            from = pos;
+            while (pos < end && isAsciiWhitespace(tagBuffer.charAt(pos))) {
+                pos++;
+            }
+            urlStart = pos;
+            while (pos < end && tagBuffer.charAt(pos) != ',' && !isAsciiWhitespace(tagBuffer.charAt(pos))) {
+                pos++;
+            }
+            if (pos > urlStart) {
+                write(tagBuffer, from, urlStart);
+                url = tagBuffer.substring(urlStart, pos);
+                if (!url.startsWith("data:")) {
+                    url = rewriteEngine.rewrite(url, baseURI, contextPath);
+                }
+                out.write(url);
+                from = pos;
             }
+            // whitespace and descriptors up to and including the separator
+            while (pos < end && tagBuffer.charAt(pos) != ',') {
+                pos++;
+            }
+            if (pos < end) {
+                pos++;
+            }
+            write(tagBuffer, from, pos);
         }
+    }
 
-        return OTHER_HTML_TAG;
+    private static boolean isAsciiWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\f' || c == '\r';
     }
 
-    private HtmlAttribute findMatchingAttribute(String name) {
-        for (HtmlAttribute attribute : knownAttributes) {
-            if (attribute.attributeMatches(name)) {
-                return attribute;
-            }
+    private void markValueStart() {
+        attributeValueStartIndex = tagBuffer.length();
+    }
+
+    private void markValueLength() {
+        int attributeEndInTagBuffer = tagBuffer.length();
+        if (streaming) {
+            // already in attributes
+            streaming = false;
+        } else if (currentAttribute != OTHER_HTML_ATTRIBUTE) {
+            attributes.add(new HtmlAttributeValue(currentAttribute, currentAttributeNumber, attributeValueStartIndex,
+                    attributeEndInTagBuffer, tagBuffer));
         }
-        return OTHER_HTML_ATTRIBUTE;
+        attributeValueStartIndex = -1;
     }
 
-    private UrlRewriteMatcher lookupRewriteMatcher(HtmlTag tag, HtmlAttribute attribute, List<HtmlAttributeValue> attributeValues) {
-        HtmlElement htmlElement = new HtmlElement(tag, attributeValues);
+    private UrlRewriteMatcher lookupRewriteMatcher(HtmlAttributeValue attributeValue) {
+        UrlRewriteMatcher[] candidates;
 
-        for (UrlRewriteMatcher urlRewriteMatcher : urlRewriteMatchers) {
-            if (attribute == urlRewriteMatcher.getAttributeToRewrite() && urlRewriteMatcher.matches(htmlElement)) {
-                return urlRewriteMatcher;
+        candidates = dispatch.matchers(currentTagNumber, attributeValue.number);
+        if (candidates.length == 0) {
+            return null;
+        }
+        element.set(currentTag, attributes);
+        for (UrlRewriteMatcher candidate : candidates) {
+            if (candidate.matches(element)) {
+                return candidate;
             }
         }
         return null;
@@ -0,0 +1,50 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.filter.processor;
+
+import java.net.URI;
+
+/**
+ * Replaces references by data uris while the inline budget of a response lasts. Uris that do not fit are rewritten as
+ * usual, so a few large resources do not block many small ones. Not thread-safe, create one instance per response.
+ */
+public class Inliner {
+    private final RewriteEngine engine;
+
+    /** Number of data uri chars left for this response */
+    private int remaining;
+
+    public Inliner(RewriteEngine engine, int budget) {
+        this.engine = engine;
+        this.remaining = budget;
+    }
+
+    /** @return data uri, null if the resource is not available inline or does not fit into the remaining budget */
+    public String inline(String reference, URI baseURI, String contextPath) {
+        String result;
+
+        result = engine.inline(reference, baseURI, contextPath);
+        if (result == null || result.length() > remaining) {
+            return null;
+        }
+        remaining -= result.length();
+        return result;
+    }
+
+    public int getRemaining() {
+        return remaining;
+    }
+}
@@ -15,7 +15,6 @@
  */
 package net.oneandone.lavender.filter.processor;
 
-import java.util.function.Predicate;
 /**
  * An enum to track the current attribute.
  */
@@ -32,20 +31,32 @@ public enum LavenderHtmlAttribute implements HtmlAttribute {
     ACTION("action"),
 
     /** everything starting with "data-lavender-" */
-    DATA_LAVENDER_ATTR(x -> x.startsWith("data-lavender-"));
+    DATA_LAVENDER_ATTR(null, "data-lavender-");
 
-    private Predicate<String> attributeMatch;
+    private final String name;
+    private final String prefix;
 
-    LavenderHtmlAttribute(Predicate<String> attributeMatch) {
-        this.attributeMatch = attributeMatch;
+    LavenderHtmlAttribute(String name) {
+        this(name, null);
     }
 
-    LavenderHtmlAttribute(String attributeName) {
-        this.attributeMatch = x -> attributeName.equalsIgnoreCase(x);
+    LavenderHtmlAttribute(String name, String prefix) {
+        this.name = name;
+        this.prefix = prefix;
     }
 
     @Override
     public boolean attributeMatches(String attributeName) {
-        return attributeMatch.test(attributeName);
+        return name != null ? name.equalsIgnoreCase(attributeName) : attributeName.startsWith(prefix);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getPrefix() {
+        return prefix;
     }
 }
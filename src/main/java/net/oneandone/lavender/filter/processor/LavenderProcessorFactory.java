@@ -19,9 +19,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.URI;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 /**
- * Factory for two content types: text/html and text/css.
+ * Factory for three content types: text/html, text/css and image/svg+xml, plus javascript and json if a marker is configured.
+ * Released processors are reset and kept in a bounded pool,
+ * so responses reuse instances and their buffers instead of allocating new ones. The pool is not thread-local, so
+ * nothing is left in container threads when the application is undeployed.
  */
 public class LavenderProcessorFactory implements ProcessorFactory {
 
@@ -29,8 +34,43 @@ public class LavenderProcessorFactory implements ProcessorFactory {
 
     protected final RewriteEngine rewriteEngine;
 
+    /** Max number of idle processors kept per content type */
+    public static final int POOL_SIZE = 64;
+
+    private final BlockingQueue<HtmlProcessor> idleHtml = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final BlockingQueue<CssProcessor> idleCss = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final BlockingQueue<SvgProcessor> idleSvg = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final BlockingQueue<MarkerProcessor> idleMarker = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    /** Prefix of string literals to rewrite in javascript and json; null if they are not processed */
+    private final String marker;
+
+    /** Data uri chars per html or css response */
+    private final int inlineBudget;
+
     public LavenderProcessorFactory(RewriteEngine rewriteEngine) {
+        this(rewriteEngine, null);
+    }
+
+    /** @param marker null to leave javascript and json unprocessed */
+    public LavenderProcessorFactory(RewriteEngine rewriteEngine, String marker) {
+        this(rewriteEngine, marker, 0);
+    }
+
+    /**
+     * @param marker null to leave javascript and json unprocessed
+     * @param inlineBudget max number of data uri chars per html or css response; 0 to inline nothing
+     */
+    public LavenderProcessorFactory(RewriteEngine rewriteEngine, String marker, int inlineBudget) {
+        if (marker != null && marker.isEmpty()) {
+            throw new IllegalArgumentException("empty marker");
+        }
+        if (inlineBudget < 0) {
+            throw new IllegalArgumentException("negative inline budget: " + inlineBudget);
+        }
         this.rewriteEngine = rewriteEngine;
+        this.marker = marker;
+        this.inlineBudget = inlineBudget;
         if (LOG.isInfoEnabled()) {
             LOG.info("Created default processor factory");
         }
@@ -41,9 +81,25 @@ public class LavenderProcessorFactory implements ProcessorFactory {
         Processor processor = null;
 
         if ("text/html".equals(baseContentType)) {
-            processor = new HtmlProcessor();
+            processor = idleHtml.poll();
+            if (processor == null) {
+                processor = new HtmlProcessor();
+            }
         } else if ("text/css".equals(baseContentType)) {
-            processor = new CssProcessor();
+            processor = idleCss.poll();
+            if (processor == null) {
+                processor = new CssProcessor();
+            }
+        } else if ("image/svg+xml".equals(baseContentType)) {
+            processor = idleSvg.poll();
+            if (processor == null) {
+                processor = new SvgProcessor();
+            }
+        } else if (marker != null && isMarked(baseContentType)) {
+            processor = idleMarker.poll();
+            if (processor == null) {
+                processor = new MarkerProcessor(marker);
+            }
         } else {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("No processor created for content type '" + baseContentType + "'");
@@ -52,8 +108,43 @@ public class LavenderProcessorFactory implements ProcessorFactory {
 
         if (processor != null) {
             processor.setRewriteEngine(rewriteEngine, baseURI, contextPath);
+            if (inlineBudget > 0 && (processor instanceof CssProcessor || processor.getClass() == HtmlProcessor.class)) {
+                ((AbstractProcessor) processor).setInliner(new Inliner(rewriteEngine, inlineBudget));
+            }
         }
 
         return processor;
     }
+
+    @Override
+    public boolean canProcess(String baseContentType) {
+        return "text/html".equals(baseContentType) || "text/css".equals(baseContentType) || "image/svg+xml".equals(baseContentType)
+                || (marker != null && isMarked(baseContentType));
+    }
+
+    private static boolean isMarked(String baseContentType) {
+        return "application/json".equals(baseContentType) || "text/javascript".equals(baseContentType)
+                || "application/javascript".equals(baseContentType);
+    }
+
+    /**
+     * Resets the processor and keeps it for one of the next responses, unless the pool is full. Only plain HtmlProcessor,
+     * CssProcessor, SvgProcessor and MarkerProcessor instances are kept.
+     */
+    @Override
+    public void releaseProcessor(Processor processor) {
+        if (processor.getClass() == HtmlProcessor.class) {
+            processor.reset();
+            idleHtml.offer((HtmlProcessor) processor);
+        } else if (processor.getClass() == CssProcessor.class) {
+            processor.reset();
+            idleCss.offer((CssProcessor) processor);
+        } else if (processor.getClass() == SvgProcessor.class) {
+            processor.reset();
+            idleSvg.offer((SvgProcessor) processor);
+        } else if (processor.getClass() == MarkerProcessor.class) {
+            processor.reset();
+            idleMarker.offer((MarkerProcessor) processor);
+        }
+    }
 }
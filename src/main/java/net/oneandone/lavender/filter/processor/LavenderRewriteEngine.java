@@ -15,8 +15,11 @@
  */
 package net.oneandone.lavender.filter.processor;
 
+import net.oneandone.lavender.index.CompactIndex;
 import net.oneandone.lavender.index.Index;
+import net.oneandone.lavender.index.InlineResources;
 import net.oneandone.lavender.index.Label;
+import net.oneandone.lavender.index.RuntimeIndex;
 import net.oneandone.sushi.fs.Node;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,6 +32,7 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.text.MessageFormat;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -42,24 +46,63 @@ public class LavenderRewriteEngine implements RewriteEngine {
 
     //--
 
-    public static RewriteEngine load(Index index, Node nodesFiles) throws IOException {
+    /** Number of rewrite results cached by default */
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+
+    /** Longer references are not cached: the cache is bounded by entries, and long references are usually unique */
+    public static final int MAX_CACHED_LENGTH = 2048;
+
+    public static LavenderRewriteEngine load(Index index, Node nodesFiles) throws IOException {
+        return load(index, nodesFiles, DEFAULT_CACHE_SIZE);
+    }
+
+    public static LavenderRewriteEngine load(Index index, Node nodesFiles, int cacheSize) throws IOException {
+        return load(CompactIndex.create(index), nodesFiles, cacheSize);
+    }
+
+    public static LavenderRewriteEngine load(RuntimeIndex index, Node nodesFiles, int cacheSize) throws IOException {
+        return load(index, nodesFiles, cacheSize, RewritePolicy.HASH);
+    }
+
+    public static LavenderRewriteEngine load(RuntimeIndex index, Node nodesFiles, int cacheSize, RewritePolicy policy) throws IOException {
         try (InputStream src = nodesFiles.newInputStream()) {
-            return load(index, src);
+            return load(index, src, cacheSize, policy);
         }
     }
 
-    public static RewriteEngine load(Index index, URL url) throws IOException {
+    public static LavenderRewriteEngine load(Index index, URL url) throws IOException {
         try (InputStream src = url.openStream()) {
-            return load(index, src);
+            return load(index, src, DEFAULT_CACHE_SIZE);
         }
     }
 
-    public static RewriteEngine load(Index index, InputStream raw) throws IOException {
+    public static LavenderRewriteEngine load(Index index, InputStream raw) throws IOException {
+        return load(index, raw, DEFAULT_CACHE_SIZE);
+    }
+
+    /** @param cacheSize 0 to disable caching */
+    public static LavenderRewriteEngine load(Index index, InputStream raw, int cacheSize) throws IOException {
+        return load(CompactIndex.create(index), raw, cacheSize);
+    }
+
+    /** @param cacheSize 0 to disable caching */
+    public static LavenderRewriteEngine load(RuntimeIndex index, InputStream raw, int cacheSize) throws IOException {
+        return load(index, raw, cacheSize, RewritePolicy.HASH);
+    }
+
+    /**
+     * Nodes are specified one per line, as url with optional options, e.g. "http://s1.cdn.net/ weight=2". The weight
+     * scales the share of resources of an http node, default is 1.
+     *
+     * @param cacheSize 0 to disable caching
+     * @param policy applied to the http nodes in the order of the nodes file
+     */
+    public static LavenderRewriteEngine load(RuntimeIndex index, InputStream raw, int cacheSize, RewritePolicy policy) throws IOException {
         LavenderRewriteEngine result;
         BufferedReader in;
         String line;
 
-        result = new LavenderRewriteEngine(index);
+        result = new LavenderRewriteEngine(index, cacheSize, policy);
         in = new BufferedReader(new InputStreamReader(raw, Index.ENCODING));
         while (true) {
             line = in.readLine();
@@ -68,19 +111,20 @@ public class LavenderRewriteEngine implements RewriteEngine {
             }
             line = line.trim();
             if (!line.isEmpty()) {
-                if (!line.endsWith("/")) {
-                    line = line + "/";
-                }
-                result.add(URI.create(line));
+                result.addLine(line);
             }
         }
         in.close();
+        if (index instanceof CompactIndex) {
+            // mapped indexes stay off-heap, their rewrites go through the cache
+            result.precompute();
+        }
         return result;
     }
 
     //--
 
-    protected final Index index;
+    protected final RuntimeIndex index;
 
     /** The nodes used for HTTP */
     protected final Map<String, URI> httpNodes;
@@ -88,24 +132,167 @@ public class LavenderRewriteEngine implements RewriteEngine {
     /** The nodes used for HTTPS */
     protected final Map<String, URI> httpsNodes;
 
-    /** The consistent hash function. */
+    /** The consistent hash function, with the http nodes selected by the policy. */
     protected final ConsistentHash consistentHash;
 
+    private final RewritePolicy policy;
+
+    /** Number of http nodes in the consistent hash */
+    private int hashedNodes;
+
+    /** Rewrite results; null if caching is disabled */
+    private final RewriteCache cache;
+
+    /** Node by index entry for bounded loads; null until needed */
+    private volatile String[] assigned;
+
+    /** Small resources as data uris; null if nothing is inlined */
+    private InlineResources inlineResources;
+
+    /** Final urls by index entry; null until precomputed. An https element is null if there's no https node. */
+    private String[] httpUrls;
+    private String[] httpsUrls;
+
     public LavenderRewriteEngine(Index index) {
+        this(index, DEFAULT_CACHE_SIZE);
+    }
+
+    public LavenderRewriteEngine(Index index, int cacheSize) {
+        this(CompactIndex.create(index), cacheSize);
+    }
+
+    public LavenderRewriteEngine(RuntimeIndex index, int cacheSize) {
+        this(index, cacheSize, RewritePolicy.HASH);
+    }
+
+    public LavenderRewriteEngine(RuntimeIndex index, int cacheSize, RewritePolicy policy) {
         this.index = index;
         this.consistentHash = new ConsistentHash(200);
+        this.policy = policy;
+        this.hashedNodes = 0;
         this.httpNodes = new HashMap<>();
         this.httpsNodes = new HashMap<>();
+        this.cache = cacheSize > 0 ? new RewriteCache(cacheSize) : null;
+    }
+
+    /** @return null if caching is disabled */
+    public RewriteCache getCache() {
+        return cache;
+    }
+
+    public RuntimeIndex getIndex() {
+        return index;
+    }
+
+    public RewritePolicy getPolicy() {
+        return policy;
+    }
+
+    /** @param inlineResources null to inline nothing */
+    public void setInlineResources(InlineResources inlineResources) {
+        this.inlineResources = inlineResources;
+    }
+
+    /** @return null if nothing is inlined */
+    public InlineResources getInlineResources() {
+        return inlineResources;
+    }
+
+    /** @return number of index entries by http node; nodes without entries are missing */
+    public Map<String, Integer> distribution() {
+        Map<String, Integer> result;
+        String node;
+
+        result = new HashMap<>();
+        for (int i = 0, max = index.size(); i < max; i++) {
+            node = node(index.label(i), i);
+            result.merge(node, 1, Integer::sum);
+        }
+        return result;
+    }
+
+    /** @return weight of an http node in the consistent hash */
+    public double weight(String host) {
+        return consistentHash.weight(host);
+    }
+
+    /**
+     * Computes the http and https url for every label of the index. Call this after all nodes have been added;
+     * afterwards, the rewrite of an indexed resource is an index lookup.
+     */
+    public void precompute() {
+        long started;
+        String[] http;
+        String[] https;
+        Label label;
+        String node;
+        long bytes;
+
+        started = System.currentTimeMillis();
+        http = new String[index.size()];
+        https = new String[index.size()];
+        bytes = 0;
+        for (int i = 0; i < http.length; i++) {
+            label = index.label(i);
+            node = node(label, i);
+            http[i] = calculateURL(node, label, false).toASCIIString();
+            if (httpsNodes.containsKey(node)) {
+                https[i] = calculateURL(node, label, true).toASCIIString();
+            }
+            bytes += string(http[i]) + string(https[i]);
+        }
+        httpUrls = http;
+        httpsUrls = https;
+        LOG.info("precomputed urls for " + http.length + " labels in " + (System.currentTimeMillis() - started) + " ms, ~"
+                + (http.length == 0 ? 0 : (bytes + index.memory()) / http.length) + " bytes per label");
+    }
+
+    /** very rough heap estimate, including the array element */
+    private static long string(String str) {
+        return str == null ? 4 : 4 + 40 + 2L * str.length();
+    }
+
+    /** @param line url and options of a node */
+    private void addLine(String line) {
+        String[] parts;
+        String url;
+        double weight;
+
+        parts = line.split("\\s+");
+        url = parts[0];
+        if (!url.endsWith("/")) {
+            url = url + "/";
+        }
+        weight = 1.0;
+        for (int i = 1; i < parts.length; i++) {
+            if (parts[i].startsWith("weight=")) {
+                try {
+                    weight = Double.parseDouble(parts[i].substring(7));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("invalid weight: " + line, e);
+                }
+            } else {
+                throw new IllegalArgumentException("unknown node option: " + line);
+            }
+        }
+        add(URI.create(url), weight);
     }
 
     public void add(URI uri) {
+        add(uri, 1.0);
+    }
+
+    /** @param weight relative share of resources for an http node, ignored for https */
+    public void add(URI uri, double weight) {
         if (!uri.getPath().endsWith("/")) {
             throw new IllegalArgumentException(uri.toString());
         }
         switch (uri.getScheme()) {
             case "http":
-                httpNodes.put(uri.getHost(), uri);
-                consistentHash.addNode(uri.getHost());
+                if (httpNodes.put(uri.getHost(), uri) == null && policy.uses(hashedNodes)) {
+                    consistentHash.addNode(uri.getHost(), weight);
+                    hashedNodes++;
+                }
                 break;
             case "https":
                 httpsNodes.put(uri.getHost(), uri);
@@ -113,21 +300,53 @@ public class LavenderRewriteEngine implements RewriteEngine {
             default:
                 throw new IllegalArgumentException(uri + " has unsupported scheme, only http and https are supported.");
         }
+        httpUrls = null;
+        httpsUrls = null;
+        assigned = null;
+        if (cache != null) {
+            cache.clear();
+        }
     }
 
     public String rewrite(String uri, URI baseURI, String contextPath) {
+        RewriteCache.Key key;
+        String unquoted;
+        String result;
+
+        unquoted = UriHelper.removeLeadingTrailingQuotes(uri);
+        if (UriHelper.isOpaque(unquoted)) {
+            // e.g. inline images in html
+            return unquoted;
+        }
+        if (cache == null || uri.length() > MAX_CACHED_LENGTH) {
+            return doRewrite(uri, baseURI, contextPath);
+        }
+        key = RewriteCache.Key.create(uri, baseURI, contextPath);
+        result = cache.get(key);
+        if (result == null) {
+            result = doRewrite(uri, baseURI, contextPath);
+            cache.put(key, result);
+        }
+        return result;
+    }
+
+    private String doRewrite(String uri, URI baseURI, String contextPath) {
         URI reference;
         String result;
 
         uri = UriHelper.removeLeadingTrailingQuotes(uri);
 
         try {
-            reference = new URI(uri);
+            // the fast path resolves most references without parsing them into a URI
+            result = httpUrls == null ? null : precomputed(uri, baseURI, contextPath);
+            if (result == null) {
+                reference = new URI(uri);
+                result = rewrite(reference, baseURI, contextPath).toASCIIString();
+            }
         } catch (URISyntaxException e) {
             LOG.warn("cannot rewrite invalid URI '" + uri + "': " + e.getMessage());
             return uri;
         }
-        result = rewrite(reference, baseURI, contextPath).toASCIIString();
         if (LOG.isDebugEnabled()) {
             LOG.debug("rewrite ok: '" + uri + "' -> '" + result + "'");
         }
@@ -135,6 +354,22 @@ public class LavenderRewriteEngine implements RewriteEngine {
     }
 
 
+    @Override
+    public String inline(String reference, URI baseURI, String contextPath) {
+        String resolved;
+
+        if (inlineResources == null || reference.indexOf('#') != -1) {
+            // a data uri cannot keep the fragment, e.g. of an svg sprite
+            return null;
+        }
+        try {
+            resolved = resolvePathWithoutContext(UriHelper.removeLeadingTrailingQuotes(reference), baseURI, contextPath);
+        } catch (URISyntaxException e) {
+            return null;
+        }
+        return resolved == null ? null : inlineResources.lookup(resolved);
+    }
+
     public URI rewrite(URI reference, URI baseURI, String contextPath) {
         Label label;
 
@@ -151,14 +386,99 @@ public class LavenderRewriteEngine implements RewriteEngine {
         return calculateURL(label, baseURI);
     }
 
+    /** @return null if the reference is not indexed or there's no precomputed url for the scheme */
+    private String precomputed(String reference, URI baseURI, String contextPath) throws URISyntaxException {
+        String resolved;
+        String[] urls;
+        int entry;
+
+        urls = "https".equals(baseURI.getScheme()) ? httpsUrls : httpUrls;
+        resolved = resolvePathWithoutContext(reference, baseURI, contextPath);
+        entry = resolved == null ? -1 : index.find(resolved);
+        return entry == -1 ? null : urls[entry];
+    }
+
     public URI calculateURL(Label label, URI baseURI) {
+        return calculateURL(node(label, -1), label, baseURI.getScheme().equals("https"));
+    }
+
+    /**
+     * @param entry of the label in the index, -1 if unknown
+     * @return the http node of the label
+     */
+    private String node(Label label, int entry) {
+        String[] a;
+
+        if (policy.getBoundedLoad() == 0) {
+            return consistentHash.getNodeForHash(label.md5());
+        }
+        if (entry == -1) {
+            entry = index.find(label.getOriginalPath());
+            if (entry == -1) {
+                return consistentHash.getNodeForHash(label.md5());
+            }
+        }
+        a = assigned;
+        if (a == null) {
+            a = assign();
+            assigned = a;
+        }
+        return a[entry];
+    }
+
+    /**
+     * The assignment depends on the order of the hashes, and the entry order depends on the jvm that created the index.
+     * Thus, hashes are assigned in md5 and original path order, so all servers get the same node for a label.
+     */
+    private String[] assign() {
+        Label[] labels;
+        Integer[] order;
+        byte[][] md5s;
+        String[] nodes;
+        String[] result;
+
+        labels = new Label[index.size()];
+        order = new Integer[labels.length];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = index.label(i);
+            order[i] = i;
+        }
+        Arrays.sort(order, (left, right) -> compare(labels[left], labels[right]));
+        md5s = new byte[labels.length][];
+        for (int i = 0; i < md5s.length; i++) {
+            md5s[i] = labels[order[i]].md5();
+        }
+        nodes = consistentHash.assign(md5s, policy.getBoundedLoad());
+        result = new String[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            result[order[i]] = nodes[i];
+        }
+        return result;
+    }
+
+    private static int compare(Label left, Label right) {
+        byte[] l;
+        byte[] r;
+        int cmp;
+
+        l = left.md5();
+        r = right.md5();
+        for (int i = 0; i < Math.min(l.length, r.length); i++) {
+            cmp = (l[i] & 0xFF) - (r[i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        cmp = l.length - r.length;
+        return cmp != 0 ? cmp : left.getOriginalPath().compareTo(right.getOriginalPath());
+    }
+
+    private URI calculateURL(String node, Label label, boolean https) {
         if (label.getLavendelizedPath() == null) {
             throw new IllegalStateException();
         }
-        byte[] md5 = label.md5();
-        String node = consistentHash.getNodeForHash(md5);
         String lavendelizedPath = label.getLavendelizedPath();
-        URI nodeURI = baseURI.getScheme().equals("https") ? httpsNodes.get(node) : httpNodes.get(node);
+        URI nodeURI = https ? httpsNodes.get(node) : httpNodes.get(node);
         String path = nodeURI.getPath() + lavendelizedPath;
         int port = nodeURI.getPort();
         try {
@@ -15,7 +15,6 @@
  */
 package net.oneandone.lavender.filter.processor;
 
-import java.util.Arrays;
 import java.util.function.Predicate;
 
 import static net.oneandone.lavender.filter.processor.LavenderHtmlAttribute.ACTION;
@@ -36,24 +35,41 @@ import static net.oneandone.lavender.filter.processor.LavenderHtmlTag.SOURCE;
 
 public enum LavenderUrlRewriteMatcher implements UrlRewriteMatcher {
 
-    IMG_MATCHER(SRC, p -> p.getTag() == IMG, true),
-    IMG_SOURCESET_MATCHER(SRCSET, p -> p.getTag() == IMG, false),
-    LINK_MATCHER(HREF, p -> p.getTag() == LINK && Arrays.asList("stylesheet", "icon", "shortcut icon", "preload").contains(p.getAttribute(REL)), false),
-    SCRIPT_MATCHER(SRC, p -> p.getTag() == SCRIPT && (("text/javascript".equals(p.getAttribute(TYPE))) || !p.containsAttribute(TYPE)), false),
-    INPUT_MATCHER(SRC, p -> p.getTag() == INPUT && "image".equals(p.getAttribute(TYPE)), false),
-    A_MATCHER(HREF, p -> p.getTag() == A, false),
-    SOURCE_MATCHER(SRC, p -> p.getTag() == SOURCE, false),
-    SOURCE_SOURCESET_MATCHER(SRCSET, p -> p.getTag() == SOURCE, false),
-    FORM_MATCHER(ACTION, p -> p.getTag() == FORM, false),
-    IFRAME_MATCHER(SRC, p -> p.getTag() == IFRAME, false),
-    DATA_LAVENDER_MATCHER(DATA_LAVENDER_ATTR, p -> true, false);
+    IMG_MATCHER(IMG, SRC, p -> true, true),
+    IMG_SOURCESET_MATCHER(IMG, SRCSET, p -> true, false),
+    LINK_MATCHER(LINK, HREF, p -> isRewrittenRel(p.getAttribute(REL)), false),
+    SCRIPT_MATCHER(SCRIPT, SRC, p -> "text/javascript".equals(p.getAttribute(TYPE)) || !p.containsAttribute(TYPE), false),
+    INPUT_MATCHER(INPUT, SRC, p -> "image".equals(p.getAttribute(TYPE)), false),
+    A_MATCHER(A, HREF, p -> true, false),
+    SOURCE_MATCHER(SOURCE, SRC, p -> true, false),
+    SOURCE_SOURCESET_MATCHER(SOURCE, SRCSET, p -> true, false),
+    FORM_MATCHER(FORM, ACTION, p -> true, false),
+    IFRAME_MATCHER(IFRAME, SRC, p -> true, false),
+    DATA_LAVENDER_MATCHER(null, DATA_LAVENDER_ATTR, p -> true, false);
 
+    private static boolean isRewrittenRel(String rel) {
+        if (rel == null) {
+            return false;
+        }
+        switch (rel) {
+            case "stylesheet":
+            case "icon":
+            case "shortcut icon":
+            case "preload":
+                return true;
+            default:
+                return false;
+        }
+    }
 
+    /** null for all tags */
+    private final HtmlTag tag;
     private final Predicate<HtmlElement> predicate;
     private final HtmlAttribute attributeToRewrite;
     private final boolean ignoreData;
 
-    LavenderUrlRewriteMatcher(HtmlAttribute attributeToRewrite, Predicate<HtmlElement> rewritePredicate, boolean ignoreData) {
+    LavenderUrlRewriteMatcher(HtmlTag tag, HtmlAttribute attributeToRewrite, Predicate<HtmlElement> rewritePredicate, boolean ignoreData) {
+        this.tag = tag;
         this.attributeToRewrite = attributeToRewrite;
         this.predicate = rewritePredicate;
         this.ignoreData = ignoreData;
@@ -65,7 +81,12 @@ public enum LavenderUrlRewriteMatcher implements UrlRewriteMatcher {
 
     @Override
     public boolean matches(HtmlElement htmlElement) {
-        return predicate.test(htmlElement);
+        return (tag == null || htmlElement.getTag() == tag) && predicate.test(htmlElement);
+    }
+
+    @Override
+    public HtmlTag getTag() {
+        return tag;
     }
 
     @Override
@@ -0,0 +1,312 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.filter.processor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * Processor for javascript and json. Rewrites string literals that start with a marker, e.g. "lavender:/img/x.png";
+ * the marker is removed, the rest is rewritten like any other reference. Everything else is copied unchanged. Scans
+ * string literals and comments only, there's no javascript parser: a quote in a regular expression literal may hide
+ * markers up to the end of the line.
+ */
+public class MarkerProcessor extends AbstractProcessor {
+    private static final Logger LOG = LoggerFactory.getLogger(MarkerProcessor.class);
+
+    public static final String DEFAULT_MARKER = "lavender:";
+
+    /** Marked literals that grow longer than this are copied unchanged. */
+    static final int MAX_URL = 4096;
+
+    /**
+     * An enum to track the state of this processor.
+     */
+    enum State {
+        /** The default state. */
+        OTHER,
+
+        /** A slash that might start a comment */
+        SLASH,
+
+        LINE_COMMENT,
+
+        BLOCK_COMMENT,
+
+        /** A star in a block comment that might end it */
+        BLOCK_COMMENT_STAR,
+
+        /** At the start of a string literal, matched chars of the marker are not yet written */
+        MARKER,
+
+        /** In a string literal, quote holds the delimiter */
+        STRING,
+
+        /** Backslash in a string literal */
+        STRING_ESCAPE,
+
+        /** After the marker, the literal is collected in uriBuffer */
+        URL,
+
+        /** Backslash in a marked literal */
+        URL_ESCAPE
+    }
+
+    private final String marker;
+
+    /** The main state of this processor. */
+    protected State state = State.OTHER;
+
+    /** The quote of the current string literal */
+    private char quote;
+
+    /** Number of marker chars matched */
+    private int matched;
+
+    public MarkerProcessor() {
+        this(DEFAULT_MARKER);
+    }
+
+    public MarkerProcessor(String marker) {
+        super(LOG);
+        if (marker.isEmpty()) {
+            throw new IllegalArgumentException("empty marker");
+        }
+        this.marker = marker;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void reset() {
+        super.reset();
+        state = State.OTHER;
+        quote = 0;
+        matched = 0;
+    }
+
+    /**
+     * Writes an unterminated marked literal unchanged.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (state == State.MARKER) {
+            out.write(marker, 0, matched);
+            matched = 0;
+            state = State.STRING;
+        } else if (state == State.URL || state == State.URL_ESCAPE) {
+            out.write(marker);
+            state = state == State.URL ? State.STRING : State.STRING_ESCAPE;
+        }
+        super.flush();
+    }
+
+    /**
+     * Code and unmarked string literals are written in runs.
+     */
+    @Override
+    protected void process(char[] chars, int offset, int length) throws IOException {
+        int end;
+        int i;
+        int start;
+
+        end = offset + length;
+        i = offset;
+        while (i < end) {
+            switch (state) {
+                case OTHER:
+                    start = i;
+                    while (i < end && !startsToken(chars[i])) {
+                        i++;
+                    }
+                    out.write(chars, start, i - start);
+                    break;
+                case STRING:
+                    start = i;
+                    while (i < end && chars[i] != quote && chars[i] != '\\' && chars[i] != '\n') {
+                        i++;
+                    }
+                    out.write(chars, start, i - start);
+                    break;
+                default:
+                    break;
+            }
+            if (i < end) {
+                process(chars[i]);
+                i++;
+            }
+        }
+    }
+
+    private static boolean startsToken(char c) {
+        return c == '"' || c == '\'' || c == '`' || c == '/';
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void process(char c) throws IOException {
+        switch (state) {
+            case OTHER:
+                out.write(c);
+                if (c == '"' || c == '\'' || c == '`') {
+                    quote = c;
+                    matched = 0;
+                    state = State.MARKER;
+                } else if (c == '/') {
+                    state = State.SLASH;
+                }
+                break;
+            case SLASH:
+                if (c == '/') {
+                    out.write(c);
+                    state = State.LINE_COMMENT;
+                } else if (c == '*') {
+                    out.write(c);
+                    state = State.BLOCK_COMMENT;
+                } else {
+                    state = State.OTHER;
+                    process(c);
+                }
+                break;
+            case LINE_COMMENT:
+                out.write(c);
+                if (c == '\n') {
+                    state = State.OTHER;
+                }
+                break;
+            case BLOCK_COMMENT:
+                out.write(c);
+                if (c == '*') {
+                    state = State.BLOCK_COMMENT_STAR;
+                }
+                break;
+            case BLOCK_COMMENT_STAR:
+                out.write(c);
+                if (c == '/') {
+                    state = State.OTHER;
+                } else if (c != '*') {
+                    state = State.BLOCK_COMMENT;
+                }
+                break;
+            case MARKER:
+                if (c == marker.charAt(matched)) {
+                    matched++;
+                    if (matched == marker.length()) {
+                        state = State.URL;
+                    }
+                } else {
+                    out.write(marker, 0, matched);
+                    state = State.STRING;
+                    process(c);
+                }
+                break;
+            case STRING:
+                out.write(c);
+                if (c == '\\') {
+                    state = State.STRING_ESCAPE;
+                } else if (c == quote || isLineEnd(c)) {
+                    state = State.OTHER;
+                }
+                break;
+            case STRING_ESCAPE:
+                out.write(c);
+                state = State.STRING;
+                break;
+            case URL:
+                if (c == quote) {
+                    rewriteUrl();
+                    out.write(c);
+                    state = State.OTHER;
+                } else if (isLineEnd(c) || uriBuffer.length() >= MAX_URL) {
+                    // not a url, copy
+                    out.write(marker);
+                    write(uriBuffer, 0, uriBuffer.length());
+                    uriBuffer.setLength(0);
+                    state = State.STRING;
+                    process(c);
+                } else {
+                    uriBuffer.append(c);
+                    if (c == '\\') {
+                        state = State.URL_ESCAPE;
+                    }
+                }
+                break;
+            case URL_ESCAPE:
+                uriBuffer.append(c);
+                state = State.URL;
+                break;
+            default:
+                throw new IllegalStateException("Unexpected state: " + state);
+        }
+    }
+
+    /** Only template literals may span lines */
+    private boolean isLineEnd(char c) {
+        return c == '\n' && quote != '`';
+    }
+
+    private void rewriteUrl() throws IOException {
+        String raw;
+        String url;
+        String result;
+
+        if (uriBuffer.length() == 0) {
+            out.write(marker);
+            return;
+        }
+        raw = uriBuffer.toString();
+        uriBuffer.setLength(0);
+        url = raw.indexOf('\\') == -1 ? raw : unescape(raw);
+        result = rewriteEngine.rewrite(url, baseURI, contextPath);
+        // keep the escapes if nothing was rewritten
+        out.write(result.equals(url) ? raw : result);
+    }
+
+    /** Removes backslashes, e.g. json's \/; decodes unicode escapes */
+    static String unescape(String str) {
+        StringBuilder result;
+        char c;
+
+        result = new StringBuilder(str.length());
+        for (int i = 0; i < str.length(); i++) {
+            c = str.charAt(i);
+            if (c == '\\' && i + 1 < str.length()) {
+                i++;
+                c = str.charAt(i);
+                if (c == 'u' && i + 4 < str.length() && isHex(str, i + 1, i + 5)) {
+                    c = (char) Integer.parseInt(str.substring(i + 1, i + 5), 16);
+                    i += 4;
+                }
+            }
+            result.append(c);
+        }
+        return result.toString();
+    }
+
+    private static boolean isHex(String str, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (Character.digit(str.charAt(i), 16) == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
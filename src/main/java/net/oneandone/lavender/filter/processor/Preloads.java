@@ -0,0 +1,140 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.filter.processor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects resource hints of an html response: preload links for the first rewritten stylesheets, scripts and images,
+ * as values of a Link header, and the origins of all rewritten urls, for preconnect hints. Not thread-safe, one instance
+ * per response.
+ */
+public class Preloads {
+    /** More origins are not recorded; a page uses few cdn hosts */
+    public static final int MAX_ORIGINS = 16;
+
+    private final int maxResources;
+    private final int maxImages;
+    private final boolean preconnect;
+    private final List<String> links;
+    private final List<String> origins;
+    private int resources;
+    private int images;
+
+    /**
+     * @param maxResources number of stylesheets and scripts to collect
+     * @param maxImages number of images to collect
+     */
+    public Preloads(int maxResources, int maxImages) {
+        this(maxResources, maxImages, false);
+    }
+
+    /**
+     * @param maxResources number of stylesheets and scripts to collect
+     * @param maxImages number of images to collect
+     * @param preconnect true to collect the origins of rewritten urls
+     */
+    public Preloads(int maxResources, int maxImages, boolean preconnect) {
+        this.maxResources = maxResources;
+        this.maxImages = maxImages;
+        this.preconnect = preconnect;
+        this.links = new ArrayList<>();
+        this.origins = new ArrayList<>();
+        this.resources = 0;
+        this.images = 0;
+    }
+
+    /** @param as destination of the preload: style, script or image */
+    public void add(String url, String as) {
+        String link;
+
+        if ("image".equals(as)) {
+            if (images >= maxImages) {
+                return;
+            }
+        } else if (resources >= maxResources) {
+            return;
+        }
+        link = "<" + url + ">; rel=preload; as=" + as;
+        if (links.contains(link)) {
+            return;
+        }
+        if ("image".equals(as)) {
+            images++;
+        } else {
+            resources++;
+        }
+        links.add(link);
+    }
+
+    public List<String> getLinks() {
+        return links;
+    }
+
+    //--
+
+    /** @return engine that records the origins of rewritten urls; the argument if origins are not collected */
+    public RewriteEngine wrap(RewriteEngine engine) {
+        if (!preconnect) {
+            return engine;
+        }
+        return (reference, baseURI, contextPath) -> {
+            String result;
+
+            result = engine.rewrite(reference, baseURI, contextPath);
+            if (!result.equals(reference)) {
+                origin(result);
+            }
+            return result;
+        };
+    }
+
+    /** Records scheme, host and port of an absolute or protocol-relative url */
+    public void origin(String url) {
+        int start;
+        int end;
+
+        if (url.startsWith("//")) {
+            start = 2;
+        } else if (url.startsWith("https://")) {
+            start = 8;
+        } else if (url.startsWith("http://")) {
+            start = 7;
+        } else {
+            return;
+        }
+        end = url.indexOf('/', start);
+        if (end == -1) {
+            end = url.length();
+        }
+        if (end == start) {
+            return;
+        }
+        for (String origin : origins) {
+            if (origin.length() == end && url.startsWith(origin)) {
+                return;
+            }
+        }
+        if (origins.size() < MAX_ORIGINS) {
+            origins.add(url.substring(0, end));
+        }
+    }
+
+    public List<String> getOrigins() {
+        return origins;
+    }
+}
@@ -18,6 +18,7 @@ package net.oneandone.lavender.filter.processor;
 import java.io.IOException;
 import java.io.Writer;
 import java.net.URI;
+import java.nio.charset.Charset;
 
 /**
  * A {@link Processor} scans content for rewritable URIs, delegates the rewrite to the
@@ -57,11 +58,26 @@ public interface Processor {
     void process(CharSequence chars, int offset, int length) throws IOException;
 
     /**
-     * Process all outstanding characters that may be bufferd.
+     * Process all outstanding characters that may be bufferd. Constructs that could still be rewritten - e.g. a partial html
+     * tag - may stay buffered until close.
      * @throws IOException
      *             Signals that an I/O exception has occurred.
      */
     void flush() throws IOException;
 
     void close() throws IOException;
+
+    /**
+     * Prepares this processor for the next response: drops all state of the current content, the writer and the
+     * rewrite engine. Call after close; afterwards, the processor must be configured like a new instance.
+     */
+    void reset();
+
+    /**
+     * Switches this processor to content passed as {@link ByteChars}. Call before processing content.
+     * @return false if not supported, the processor is unchanged in this case
+     */
+    default boolean setByteChars(Charset charset) {
+        return false;
+    }
 }
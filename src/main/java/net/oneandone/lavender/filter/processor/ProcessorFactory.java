@@ -19,4 +19,13 @@ import java.net.URI;
 
 public interface ProcessorFactory {
     Processor createProcessor(String baseContentType, URI baseURI, String contextPath);
+
+    /** @return false if createProcessor always returns null for this content type */
+    default boolean canProcess(String baseContentType) {
+        return true;
+    }
+
+    /** Called when the response of a created processor is complete; the processor is not used afterwards. */
+    default void releaseProcessor(Processor processor) {
+    }
 }
@@ -0,0 +1,234 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.filter.processor;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache for rewrite results, including misses. Thread-safe: entries are spread over segments, each segment is
+ * a small lru map guarded by its own lock.
+ */
+public class RewriteCache {
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments;
+
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+
+    public RewriteCache(int maxSize) {
+        int segmentSize;
+
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("invalid maxSize: " + maxSize);
+        }
+        segmentSize = Math.max(1, maxSize / SEGMENTS);
+        this.segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(segmentSize);
+        }
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.evictions = new LongAdder();
+    }
+
+    /** @return null if not found */
+    public String get(Key key) {
+        Segment segment;
+        String result;
+
+        segment = segment(key);
+        synchronized (segment) {
+            result = segment.get(key);
+        }
+        if (result == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return result;
+    }
+
+    public void put(Key key, String result) {
+        Segment segment;
+
+        segment = segment(key);
+        synchronized (segment) {
+            segment.put(key, result);
+        }
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    private Segment segment(Key key) {
+        int h;
+
+        h = key.hashCode();
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    //--
+
+    public int size() {
+        int result;
+
+        result = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                result += segment.size();
+            }
+        }
+        return result;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    private class Segment extends LinkedHashMap<Key, String> {
+        private final int maxSize;
+
+        Segment(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, String> eldest) {
+            if (size() > maxSize) {
+                evictions.increment();
+                return true;
+            } else {
+                return false;
+            }
+        }
+    }
+
+    //--
+
+    /**
+     * Everything a rewrite result depends on. The base path is only part of the key for relative references, absolute
+     * ones resolve the same for all pages.
+     */
+    public static final class Key {
+        public static Key create(String reference, URI baseURI, String contextPath) {
+            return new Key(baseURI.getScheme(), baseURI.getRawAuthority(), relative(reference) ? basePath(reference, baseURI) : "",
+                    contextPath, reference);
+        }
+
+        private static boolean relative(String reference) {
+            char c;
+
+            if (reference.startsWith("/")) {
+                return false;
+            }
+            for (int i = 0, max = reference.length(); i < max; i++) {
+                c = reference.charAt(i);
+                if (c == ':') {
+                    return false; // has a scheme
+                }
+                if (c == '/' || c == '?' || c == '#') {
+                    return true;
+                }
+            }
+            return true;
+        }
+
+        /** Path references resolve against the base directory, everything else (like "?a=b") against the full path. */
+        private static String basePath(String reference, URI baseURI) {
+            String path;
+            int idx;
+
+            path = baseURI.getRawPath();
+            if (path == null) {
+                return "";
+            }
+            if (reference.isEmpty() || reference.charAt(0) == '?' || reference.charAt(0) == '#') {
+                return path;
+            }
+            idx = path.lastIndexOf('/');
+            return idx == -1 ? "" : path.substring(0, idx + 1);
+        }
+
+        private final String scheme;
+        private final String authority;
+        private final String basePath;
+        private final String contextPath;
+        private final String reference;
+        private final int hash;
+
+        private Key(String scheme, String authority, String basePath, String contextPath, String reference) {
+            this.scheme = scheme;
+            this.authority = authority;
+            this.basePath = basePath;
+            this.contextPath = contextPath;
+            this.reference = reference;
+            this.hash = ((((hash(scheme) * 31 + hash(authority)) * 31 + basePath.hashCode()) * 31 + contextPath.hashCode()) * 31)
+                    + reference.hashCode();
+        }
+
+        private static int hash(String str) {
+            return str == null ? 0 : str.hashCode();
+        }
+
+        private static boolean eq(String left, String right) {
+            return left == null ? right == null : left.equals(right);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            Key key;
+
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            key = (Key) obj;
+            return hash == key.hash && reference.equals(key.reference) && basePath.equals(key.basePath)
+                    && contextPath.equals(key.contextPath) && eq(authority, key.authority) && eq(scheme, key.scheme);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return scheme + "://" + authority + basePath + " " + contextPath + " " + reference;
+        }
+    }
+}
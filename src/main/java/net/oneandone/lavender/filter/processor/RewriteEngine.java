@@ -19,4 +19,9 @@ import java.net.URI;
 
 public interface RewriteEngine {
     String rewrite(String reference, URI baseURI, String contextPath);
+
+    /** @return data uri with the content of the referenced resource; null if it's not available inline */
+    default String inline(String reference, URI baseURI, String contextPath) {
+        return null;
+    }
 }
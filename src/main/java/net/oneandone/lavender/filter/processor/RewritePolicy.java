@@ -0,0 +1,94 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.filter.processor;
+
+/**
+ * Decides which http nodes of lavender.nodes the rewrite engine spreads resources across. "hash" uses all nodes, which
+ * suits http/1.1 with its per-host connection limit; "single" maps everything to the first node and "subset:n" to the
+ * first n nodes, so http/2 clients need fewer connections and tls handshakes. Resources are assigned by consistent hashing
+ * in all cases, optionally with bounded loads. Immutable.
+ */
+public final class RewritePolicy {
+    public static final RewritePolicy HASH = new RewritePolicy("hash", 0, 0);
+    public static final RewritePolicy SINGLE = new RewritePolicy("single", 1, 0);
+
+    private static final String SUBSET = "subset:";
+
+    /** @throws IllegalArgumentException for unknown policies */
+    public static RewritePolicy parse(String str) {
+        int nodes;
+
+        str = str.trim();
+        if (HASH.name.equals(str)) {
+            return HASH;
+        }
+        if (SINGLE.name.equals(str)) {
+            return SINGLE;
+        }
+        if (str.startsWith(SUBSET)) {
+            try {
+                nodes = Integer.parseInt(str.substring(SUBSET.length()).trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("invalid number of nodes: " + str, e);
+            }
+            if (nodes < 1) {
+                throw new IllegalArgumentException("invalid number of nodes: " + str);
+            }
+            return nodes == 1 ? SINGLE : new RewritePolicy(SUBSET + nodes, nodes, 0);
+        }
+        throw new IllegalArgumentException("unknown rewrite policy: " + str);
+    }
+
+    private final String name;
+
+    /** 0 for all */
+    private final int nodes;
+
+    /** 0 for plain consistent hashing */
+    private final double boundedLoad;
+
+    private RewritePolicy(String name, int nodes, double boundedLoad) {
+        this.name = name;
+        this.nodes = nodes;
+        this.boundedLoad = boundedLoad;
+    }
+
+    /**
+     * @param factor 0 for plain consistent hashing; otherwise 1.0 or more, the number of index entries per node stays
+     *               within this factor of its weighted mean, see ConsistentHash.assign
+     */
+    public RewritePolicy withBoundedLoad(double factor) {
+        if (factor != 0 && (!(factor >= 1.0) || Double.isInfinite(factor))) {
+            throw new IllegalArgumentException("invalid load factor: " + factor);
+        }
+        return new RewritePolicy(name, nodes, factor);
+    }
+
+    /** @return 0 for plain consistent hashing */
+    public double getBoundedLoad() {
+        return boundedLoad;
+    }
+
+    /** @param count number of http nodes added so far */
+    public boolean uses(int count) {
+        return nodes == 0 || count < nodes;
+    }
+
+    @Override
+    public String toString() {
+        return boundedLoad == 0 ? name : name + ", bounded load " + boundedLoad;
+    }
+}
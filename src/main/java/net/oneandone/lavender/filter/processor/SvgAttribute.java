@@ -0,0 +1,41 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.filter.processor;
+
+/**
+ * Svg attributes in addition to the html attributes href and style.
+ */
+public enum SvgAttribute implements HtmlAttribute {
+
+    /** SVG 1.1 variant of href, still used by most tools */
+    XLINK_HREF("xlink:href");
+
+    private final String name;
+
+    SvgAttribute(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public boolean attributeMatches(String attributeName) {
+        return name.equalsIgnoreCase(attributeName);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+}
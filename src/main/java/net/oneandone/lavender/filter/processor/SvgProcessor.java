@@ -0,0 +1,30 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.filter.processor;
+
+/**
+ * Processor for image/svg+xml. Uses the html tag scanner with svg tags and attributes: image, feImage, script and a
+ * references in href or xlink:href, style attributes and style elements.
+ */
+public class SvgProcessor extends HtmlProcessor {
+    private static final HtmlAttribute[] ATTRIBUTES = { LavenderHtmlAttribute.HREF, SvgAttribute.XLINK_HREF, LavenderHtmlAttribute.STYLE };
+
+    private static final HtmlDispatch SVG_DISPATCH = new HtmlDispatch(SvgTag.values(), ATTRIBUTES, SvgUrlRewriteMatcher.values());
+
+    public SvgProcessor() {
+        super(SVG_DISPATCH);
+    }
+}
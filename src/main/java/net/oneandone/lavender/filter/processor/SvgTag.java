@@ -0,0 +1,39 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.filter.processor;
+
+/**
+ * Svg elements with attributes that might reference resources.
+ */
+public enum SvgTag implements HtmlTag {
+
+    IMAGE("image"),
+    /** feImage; tags are matched case-insensitively */
+    FEIMAGE("feimage"),
+    SCRIPT("script"),
+    A("a");
+
+    private final String name;
+
+    SvgTag(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+}
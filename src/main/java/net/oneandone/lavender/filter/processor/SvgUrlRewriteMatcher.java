@@ -0,0 +1,67 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.filter.processor;
+
+import static net.oneandone.lavender.filter.processor.LavenderHtmlAttribute.HREF;
+import static net.oneandone.lavender.filter.processor.SvgAttribute.XLINK_HREF;
+import static net.oneandone.lavender.filter.processor.SvgTag.A;
+import static net.oneandone.lavender.filter.processor.SvgTag.FEIMAGE;
+import static net.oneandone.lavender.filter.processor.SvgTag.IMAGE;
+import static net.oneandone.lavender.filter.processor.SvgTag.SCRIPT;
+
+/**
+ * Svg references to rewrite. There's no matcher for use elements: browsers only load use references from the same origin.
+ */
+public enum SvgUrlRewriteMatcher implements UrlRewriteMatcher {
+
+    IMAGE_HREF_MATCHER(IMAGE, HREF, true),
+    IMAGE_XLINK_HREF_MATCHER(IMAGE, XLINK_HREF, true),
+    FEIMAGE_HREF_MATCHER(FEIMAGE, HREF, true),
+    FEIMAGE_XLINK_HREF_MATCHER(FEIMAGE, XLINK_HREF, true),
+    SCRIPT_HREF_MATCHER(SCRIPT, HREF, false),
+    SCRIPT_XLINK_HREF_MATCHER(SCRIPT, XLINK_HREF, false),
+    A_HREF_MATCHER(A, HREF, false),
+    A_XLINK_HREF_MATCHER(A, XLINK_HREF, false);
+
+    private final HtmlTag tag;
+    private final HtmlAttribute attributeToRewrite;
+    private final boolean ignoreData;
+
+    SvgUrlRewriteMatcher(HtmlTag tag, HtmlAttribute attributeToRewrite, boolean ignoreData) {
+        this.tag = tag;
+        this.attributeToRewrite = attributeToRewrite;
+        this.ignoreData = ignoreData;
+    }
+
+    public boolean ignoreValue(String value) {
+        return ignoreData && (value != null) && value.startsWith("data:");
+    }
+
+    @Override
+    public boolean matches(HtmlElement htmlElement) {
+        return htmlElement.getTag() == tag;
+    }
+
+    @Override
+    public HtmlTag getTag() {
+        return tag;
+    }
+
+    @Override
+    public HtmlAttribute getAttributeToRewrite() {
+        return attributeToRewrite;
+    }
+}
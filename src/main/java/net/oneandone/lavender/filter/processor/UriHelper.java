@@ -16,6 +16,9 @@
 package net.oneandone.lavender.filter.processor;
 
 import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
 
 public class UriHelper {
 
@@ -31,6 +34,10 @@ public class UriHelper {
     }
 
     public static String resolvePathWithoutContext(URI reference, URI baseURI, String contextPath) {
+        if (baseURI.getRawAuthority() != null && baseURI.getRawPath().isEmpty()) {
+            // RFC 3986 5.2.3 merges with "/"; URI.resolve before Java 9 does not
+            baseURI = baseURI.resolve("/");
+        }
         URI uri = baseURI.resolve(reference);
         String resolved = uri.getPath();
         if (resolved == null) {
@@ -42,6 +49,263 @@ public class UriHelper {
         return resolved;
     }
 
+    /**
+     * Same result as resolvePathWithoutContext(new URI(reference), baseURI, contextPath), but plain paths, protocol-relative
+     * and absolute urls are resolved on the string. Everything else - escapes, empty references, lone queries or fragments,
+     * unusual characters - is parsed with java.net.URI.
+     *
+     * @throws URISyntaxException if reference is not a valid uri
+     */
+    public static String resolvePathWithoutContext(String reference, URI baseURI, String contextPath) throws URISyntaxException {
+        int end;
+        int colon;
+        int start;
+        String resolved;
+
+        end = pathEnd(reference);
+        if (end <= 0) {
+            return resolvePathWithoutContext(new URI(reference), baseURI, contextPath);
+        }
+        colon = schemeEnd(reference, end);
+        if (colon == -2) {
+            return resolvePathWithoutContext(new URI(reference), baseURI, contextPath);
+        }
+        if (colon != -1) {
+            if (colon + 1 == reference.length() || reference.charAt(colon + 1) != '/') {
+                // opaque, e.g. mailto: or data:
+                if (colon + 1 == reference.length() || reference.charAt(colon + 1) == '#') {
+                    return resolvePathWithoutContext(new URI(reference), baseURI, contextPath);
+                }
+                return null;
+            }
+            start = colon + 1;
+        } else {
+            start = 0;
+        }
+        if (reference.startsWith("//", start)) {
+            start = authorityEnd(reference, start + 2, end);
+            if (start == -1) {
+                return resolvePathWithoutContext(new URI(reference), baseURI, contextPath);
+            }
+        }
+        if (start == end || reference.charAt(start) == '/' || colon != -1) {
+            // absolute path, not normalized by URI.resolve
+            return withoutContext(reference, start, end, contextPath);
+        }
+        resolved = resolveRelative(baseURI, reference.substring(0, end));
+        if (resolved == null) {
+            return resolvePathWithoutContext(new URI(reference), baseURI, contextPath);
+        }
+        return withoutContext(resolved, 0, resolved.length(), contextPath);
+    }
+
+    private static String withoutContext(String path, int start, int end, String contextPath) {
+        if (path.startsWith(contextPath, start) && start + contextPath.length() <= end) {
+            start += contextPath.length();
+        }
+        return start == 0 && end == path.length() ? path : path.substring(start, end);
+    }
+
+    //-- the grammar as implemented by java.net.URI, restricted to characters that need no escaping
+
+    /** unreserved characters, ";:@&=+$," and "/" */
+    private static final boolean[] PATH_CHARS = new boolean[128];
+
+    /** unreserved characters and ";:@&=+$," */
+    private static final boolean[] AUTHORITY_CHARS = new boolean[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            PATH_CHARS[c] = true;
+            PATH_CHARS[c - 'a' + 'A'] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            PATH_CHARS[c] = true;
+        }
+        for (char c : "-_.!~*'();:@&=+$,".toCharArray()) {
+            PATH_CHARS[c] = true;
+        }
+        System.arraycopy(PATH_CHARS, 0, AUTHORITY_CHARS, 0, PATH_CHARS.length);
+        PATH_CHARS['/'] = true;
+    }
+
+    private static boolean isPathChar(char c) {
+        return c < 128 ? PATH_CHARS[c] : !Character.isSpaceChar(c) && !Character.isISOControl(c);
+    }
+
+    /** @return end of the path, i.e. the start of query or fragment; 0 if the path is empty, -1 if the uri is not simple */
+    /** @return true for references that are never rewritten because they have a scheme but no path, e.g. data: or mailto: */
+    public static boolean isOpaque(String reference) {
+        int end;
+        int colon;
+
+        end = pathEnd(reference);
+        if (end <= 0) {
+            return false;
+        }
+        colon = schemeEnd(reference, end);
+        return colon >= 0 && colon + 1 < reference.length() && reference.charAt(colon + 1) != '/' && reference.charAt(colon + 1) != '#';
+    }
+
+    private static int pathEnd(String uri) {
+        int length;
+        int end;
+        char c;
+        boolean fragment;
+
+        length = uri.length();
+        end = length;
+        fragment = false;
+        for (int i = 0; i < length; i++) {
+            c = uri.charAt(i);
+            if (c == '?' && end == length) {
+                end = i;
+            } else if (c == '#' && !fragment) {
+                fragment = true;
+                end = Math.min(end, i);
+            } else if (!isPathChar(c) && c != '?') {
+                return -1;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * A colon before the first slash, query or fragment ends the scheme.
+     * @return position of the colon, -1 if there's no scheme, -2 if the scheme is invalid
+     */
+    private static int schemeEnd(String uri, int end) {
+        boolean valid;
+        char c;
+
+        valid = true;
+        for (int i = 0; i < end; i++) {
+            c = uri.charAt(i);
+            if (c == ':') {
+                return i > 0 && valid ? i : -2;
+            }
+            if (c == '/') {
+                return -1;
+            }
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || i > 0 && (c >= '0' && c <= '9' || c == '+' || c == '-' || c == '.'))) {
+                valid = false;
+            }
+        }
+        return -1;
+    }
+
+    /** @return end of the authority, -1 if it's empty or not simple */
+    private static int authorityEnd(String uri, int start, int end) {
+        char c;
+        int i;
+
+        for (i = start; i < end; i++) {
+            c = uri.charAt(i);
+            if (c == '/') {
+                break;
+            }
+            if (c >= 128 || !AUTHORITY_CHARS[c]) {
+                return -1;
+            }
+        }
+        return i == start ? -1 : i;
+    }
+
+    /**
+     * Like URI.resolve for a relative path without escapes, with an empty base path merged as "/" as in RFC 3986.
+     * @return null if the base is not simple or the result would need a leading "./"
+     */
+    private static String resolveRelative(URI baseURI, String path) {
+        String base;
+        String result;
+        int colon;
+        int slash;
+
+        base = baseURI.isOpaque() ? null : baseURI.getRawPath();
+        if (base == null || base.indexOf('%') != -1) {
+            return null;
+        }
+        if (base.isEmpty() && baseURI.getRawAuthority() != null) {
+            base = "/";
+        }
+        result = normalize(base.substring(0, base.lastIndexOf('/') + 1) + path);
+        if (!result.startsWith("/")) {
+            colon = result.indexOf(':');
+            slash = result.indexOf('/');
+            if (colon != -1 && (slash == -1 || colon < slash)) {
+                return null;
+            }
+        }
+        return result;
+    }
+
+    /** URI.normalize: drops "." segments, ".." segments with their predecessor, and redundant slashes */
+    static String normalize(String path) {
+        List<String> segments;
+        StringBuilder result;
+        int start;
+        int slash;
+        String segment;
+        String last;
+
+        if (!needsNormalization(path)) {
+            return path;
+        }
+        // segments include the following slash, if any
+        segments = new ArrayList<>();
+        start = 0;
+        while (start < path.length()) {
+            slash = path.indexOf('/', start);
+            if (slash == start) {
+                start++;
+                continue;
+            }
+            segment = path.substring(start, slash == -1 ? path.length() : slash + 1);
+            start += segment.length();
+            if (segment.equals(".") || segment.equals("./")) {
+                continue;
+            }
+            if (segment.equals("..") || segment.equals("../")) {
+                last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+                if (last != null && !last.equals("..") && !last.equals("../")) {
+                    segments.remove(segments.size() - 1);
+                    continue;
+                }
+            }
+            segments.add(segment);
+        }
+        result = new StringBuilder(path.length());
+        if (path.startsWith("/")) {
+            result.append('/');
+        }
+        for (String s : segments) {
+            result.append(s);
+        }
+        return result.toString();
+    }
+
+    private static boolean needsNormalization(String path) {
+        int length;
+        char c;
+
+        length = path.length();
+        for (int i = 0; i < length; i++) {
+            c = path.charAt(i);
+            if (c == '/' && i + 1 < length && path.charAt(i + 1) == '/') {
+                return true;
+            }
+            if (c == '.' && (i == 0 || path.charAt(i - 1) == '/')) {
+                if (i + 1 == length || path.charAt(i + 1) == '/') {
+                    return true;
+                }
+                if (path.charAt(i + 1) == '.' && (i + 2 == length || path.charAt(i + 2) == '/')) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     private UriHelper() {
     }
 }
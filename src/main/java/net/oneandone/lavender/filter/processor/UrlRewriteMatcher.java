@@ -22,4 +22,9 @@ public interface UrlRewriteMatcher {
 
     HtmlAttribute getAttributeToRewrite();
 
+    /** @return the only tag this matcher matches, or null if it might match any tag */
+    default HtmlTag getTag() {
+        return null;
+    }
+
 }
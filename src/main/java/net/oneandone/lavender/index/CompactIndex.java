@@ -0,0 +1,295 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.index;
+
+import net.oneandone.sushi.fs.Node;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, read-only variant of an Index for the production filter. Entries are numbered 0 .. size-1; paths are
+ * stored as sequences of shared segments, md5 sums as longs. Lookups are lock-free and do not allocate.
+ */
+public final class CompactIndex implements RuntimeIndex {
+    public static CompactIndex load(Node src) throws IOException {
+        return create(Index.load(src));
+    }
+
+    public static CompactIndex create(Index index) {
+        List<Label> labels;
+
+        labels = new ArrayList<>(index.size());
+        for (Label label : index) {
+            labels.add(label);
+        }
+        return new CompactIndex(labels);
+    }
+
+    static final int MAX_MD5 = 16;
+
+    //--
+
+    /** distinct path segments */
+    private final String[] segments;
+
+    /** segment numbers of all paths; entry i is original path followed by lavendelized path */
+    private final int[] paths;
+    /** start of entry i in paths; size + 1 elements */
+    private final int[] starts;
+    /** start of the lavendelized path of entry i in paths */
+    private final int[] splits;
+
+    private final int[] hashes;
+    private final long[] md5High;
+    private final long[] md5Low;
+    private final byte[] md5Length;
+
+    /** open addressing, entry + 1; 0 for empty slots */
+    private final int[] table;
+
+    private CompactIndex(List<Label> labels) {
+        Map<String, Integer> segmentMap;
+        List<String> segmentList;
+        int size;
+        int used;
+        Label label;
+        byte[] md5;
+        int slot;
+
+        size = labels.size();
+        segmentMap = new HashMap<>();
+        segmentList = new ArrayList<>();
+        used = 0;
+        for (Label l : labels) {
+            used += count(l.getOriginalPath()) + count(l.getLavendelizedPath());
+        }
+        paths = new int[used];
+        used = 0;
+        starts = new int[size + 1];
+        splits = new int[size];
+        hashes = new int[size];
+        md5High = new long[size];
+        md5Low = new long[size];
+        md5Length = new byte[size];
+        table = new int[tableSize(size)];
+        for (int i = 0; i < size; i++) {
+            label = labels.get(i);
+            starts[i] = used;
+            used = split(label.getOriginalPath(), segmentMap, segmentList, used);
+            splits[i] = used;
+            used = split(label.getLavendelizedPath(), segmentMap, segmentList, used);
+            md5 = label.md5();
+            if (md5.length > MAX_MD5) {
+                throw new IllegalArgumentException("md5 too long: " + label);
+            }
+            md5High[i] = pack(md5, 0);
+            md5Low[i] = pack(md5, 8);
+            md5Length[i] = (byte) md5.length;
+            hashes[i] = label.getOriginalPath().hashCode();
+            slot = spread(hashes[i]) & (table.length - 1);
+            while (table[slot] != 0) {
+                slot = (slot + 1) & (table.length - 1);
+            }
+            table[slot] = i + 1;
+        }
+        starts[size] = used;
+        segments = segmentList.toArray(new String[segmentList.size()]);
+    }
+
+    /** load factor 0.5 */
+    static int tableSize(int size) {
+        int result;
+
+        result = 2;
+        while (result < size * 2) {
+            result <<= 1;
+        }
+        return result;
+    }
+
+    private static int count(String path) {
+        int result;
+
+        result = 1;
+        for (int i = 0, max = path.length(); i < max; i++) {
+            if (path.charAt(i) == '/') {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    /** @return new number of used path elements */
+    private int split(String path, Map<String, Integer> segmentMap, List<String> segmentList, int used) {
+        int start;
+        int end;
+        String segment;
+        Integer number;
+
+        start = 0;
+        while (true) {
+            end = path.indexOf('/', start);
+            segment = path.substring(start, end == -1 ? path.length() : end);
+            number = segmentMap.get(segment);
+            if (number == null) {
+                number = segmentList.size();
+                segmentList.add(segment);
+                segmentMap.put(segment, number);
+            }
+            paths[used++] = number;
+            if (end == -1) {
+                return used;
+            }
+            start = end + 1;
+        }
+    }
+
+    static long pack(byte[] md5, int ofs) {
+        long result;
+
+        result = 0;
+        for (int i = ofs; i < ofs + 8; i++) {
+            result = (result << 8) | (i < md5.length ? md5[i] & 0xFF : 0);
+        }
+        return result;
+    }
+
+    //--
+
+    public int size() {
+        return hashes.length;
+    }
+
+    public int find(CharSequence originalPath) {
+        int hash;
+        int slot;
+        int entry;
+
+        hash = hash(originalPath);
+        slot = spread(hash) & (table.length - 1);
+        while (true) {
+            entry = table[slot] - 1;
+            if (entry == -1) {
+                return -1;
+            }
+            if (hashes[entry] == hash && matches(originalPath, starts[entry], splits[entry])) {
+                return entry;
+            }
+            slot = (slot + 1) & (table.length - 1);
+        }
+    }
+
+    static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    static int hash(CharSequence str) {
+        int result;
+
+        if (str instanceof String) {
+            return str.hashCode();
+        }
+        result = 0;
+        for (int i = 0, max = str.length(); i < max; i++) {
+            result = 31 * result + str.charAt(i);
+        }
+        return result;
+    }
+
+    private boolean matches(CharSequence str, int from, int to) {
+        int pos;
+        String segment;
+        int length;
+
+        pos = 0;
+        for (int i = from; i < to; i++) {
+            if (i > from) {
+                if (pos >= str.length() || str.charAt(pos) != '/') {
+                    return false;
+                }
+                pos++;
+            }
+            segment = segments[paths[i]];
+            length = segment.length();
+            if (pos + length > str.length()) {
+                return false;
+            }
+            for (int j = 0; j < length; j++) {
+                if (str.charAt(pos + j) != segment.charAt(j)) {
+                    return false;
+                }
+            }
+            pos += length;
+        }
+        return pos == str.length();
+    }
+
+    public Label label(int entry) {
+        return new Label(originalPath(entry), lavendelizedPath(entry), md5(entry));
+    }
+
+    public String originalPath(int entry) {
+        return join(starts[entry], splits[entry]);
+    }
+
+    public String lavendelizedPath(int entry) {
+        return join(splits[entry], starts[entry + 1]);
+    }
+
+    private String join(int from, int to) {
+        StringBuilder result;
+
+        if (to - from == 1) {
+            return segments[paths[from]];
+        }
+        result = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            if (i > from) {
+                result.append('/');
+            }
+            result.append(segments[paths[i]]);
+        }
+        return result.toString();
+    }
+
+    public byte[] md5(int entry) {
+        return unpack(md5High[entry], md5Low[entry], md5Length[entry]);
+    }
+
+    static byte[] unpack(long high, long low, int length) {
+        byte[] result;
+
+        result = new byte[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = (byte) ((i < 8 ? high >>> (56 - 8 * i) : low >>> (120 - 8 * i)) & 0xFF);
+        }
+        return result;
+    }
+
+    public long memory() {
+        long result;
+
+        result = 4L * (paths.length + starts.length + splits.length + hashes.length + table.length) + 17L * hashes.length;
+        for (String segment : segments) {
+            result += 40 + 2 * segment.length() + 4;
+        }
+        return result;
+    }
+}
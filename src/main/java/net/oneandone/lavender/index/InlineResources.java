@@ -0,0 +1,157 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.index;
+
+import net.oneandone.sushi.fs.Node;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Base64;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Content of small images and fonts as data uris by original path. The war command stores them in WEB-INF/lavender.inline
+ * next to the index, one line per resource: original path, a tab and the data uri. Not thread-safe while adding;
+ * lookups in a loaded instance are.
+ */
+public class InlineResources {
+    public static InlineResources load(Node src) throws IOException {
+        try (InputStream in = src.newInputStream()) {
+            return load(in);
+        }
+    }
+
+    public static InlineResources load(InputStream src) throws IOException {
+        InlineResources result;
+        BufferedReader in;
+        String line;
+        int idx;
+
+        result = new InlineResources(Integer.MAX_VALUE);
+        in = new BufferedReader(new InputStreamReader(src, Index.ENCODING));
+        while (true) {
+            line = in.readLine();
+            if (line == null) {
+                break;
+            }
+            if (!line.isEmpty()) {
+                idx = line.indexOf('\t');
+                if (idx == -1 || !line.startsWith("data:", idx + 1)) {
+                    throw new IOException("invalid inline resource: " + line);
+                }
+                result.map.put(line.substring(0, idx), line.substring(idx + 1));
+            }
+        }
+        return result;
+    }
+
+    /** @return mime type of images and fonts, null for other resources */
+    public static String mimeType(String path) {
+        String extension;
+        int idx;
+
+        idx = path.lastIndexOf('.');
+        if (idx == -1) {
+            return null;
+        }
+        extension = path.substring(idx + 1).toLowerCase();
+        switch (extension) {
+            case "png":
+                return "image/png";
+            case "gif":
+                return "image/gif";
+            case "jpg":
+            case "jpeg":
+                return "image/jpeg";
+            case "webp":
+                return "image/webp";
+            case "svg":
+                return "image/svg+xml";
+            case "ico":
+                return "image/x-icon";
+            case "woff":
+                return "font/woff";
+            case "woff2":
+                return "font/woff2";
+            case "ttf":
+                return "font/ttf";
+            case "otf":
+                return "font/otf";
+            default:
+                return null;
+        }
+    }
+
+    //--
+
+    /** Resources with more bytes are not added */
+    private final int maxSize;
+
+    /** sorted to get the same file for the same resources */
+    private final Map<String, String> map;
+
+    public InlineResources(int maxSize) {
+        this.maxSize = maxSize;
+        this.map = new TreeMap<>();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /** @return true if the resource was added, false if it's too large, not an image or font, or has an unusual path */
+    public boolean add(String originalPath, byte[] data) {
+        String type;
+
+        if (data.length > maxSize) {
+            return false;
+        }
+        type = mimeType(originalPath);
+        if (type == null || originalPath.indexOf('\t') != -1 || originalPath.indexOf('\n') != -1 || originalPath.indexOf('\r') != -1) {
+            return false;
+        }
+        map.put(originalPath, "data:" + type + ";base64," + Base64.getEncoder().encodeToString(data));
+        return true;
+    }
+
+    /** @return null if not found */
+    public String lookup(String originalPath) {
+        return map.get(originalPath);
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public void save(OutputStream dest) throws IOException {
+        Writer out;
+
+        out = new OutputStreamWriter(dest, Index.ENCODING);
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            out.write(entry.getKey());
+            out.write('\t');
+            out.write(entry.getValue());
+            out.write('\n');
+        }
+        out.flush();
+    }
+}
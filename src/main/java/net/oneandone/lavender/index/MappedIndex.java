@@ -0,0 +1,277 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.index;
+
+import net.oneandone.sushi.fs.file.FileNode;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary index, memory-mapped and looked up in place. Written at war publish time next to the text index.
+ *
+ * Format, all numbers big endian:
+ *   header   magic, version, size, table size (ints), md5 of the text index (16 bytes), length and last modified of the
+ *            text index (longs, -1 if unknown)
+ *   table    table size ints: entry + 1, 0 for empty slots; open addressing like CompactIndex
+ *   entries  size * (hash, original offset, lavendelized offset, md5 length (ints), md5 high, md5 low (longs))
+ *   strings  length (int) followed by the chars
+ */
+public final class MappedIndex implements RuntimeIndex {
+    public static final int MAGIC = 0x4C564958; // LVIX
+    public static final int VERSION = 2;
+
+    private static final int HEADER = 48;
+    private static final int ENTRY = 32;
+
+    /** dest will not be closed */
+    public static void save(Index index, byte[] textMd5, OutputStream dest) throws IOException {
+        save(index, textMd5, -1, -1, dest);
+    }
+
+    /**
+     * @param textLength length of the text index file, -1 if unknown
+     * @param textModified last modified time of the text index file, -1 if unknown
+     */
+    public static void save(Index index, byte[] textMd5, long textLength, long textModified, OutputStream dest) throws IOException {
+        List<Label> labels;
+        int size;
+        int[] table;
+        int slot;
+        int offset;
+        DataOutputStream out;
+
+        if (textMd5.length != 16) {
+            throw new IllegalArgumentException("invalid md5");
+        }
+        labels = new ArrayList<>(index.size());
+        for (Label label : index) {
+            if (label.md5().length > CompactIndex.MAX_MD5) {
+                throw new IllegalArgumentException("md5 too long: " + label);
+            }
+            labels.add(label);
+        }
+        size = labels.size();
+        table = new int[CompactIndex.tableSize(size)];
+        for (int i = 0; i < size; i++) {
+            slot = CompactIndex.spread(labels.get(i).getOriginalPath().hashCode()) & (table.length - 1);
+            while (table[slot] != 0) {
+                slot = (slot + 1) & (table.length - 1);
+            }
+            table[slot] = i + 1;
+        }
+        out = new DataOutputStream(dest);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(size);
+        out.writeInt(table.length);
+        out.write(textMd5);
+        out.writeLong(textLength);
+        out.writeLong(textModified);
+        for (int entry : table) {
+            out.writeInt(entry);
+        }
+        offset = HEADER + 4 * table.length + ENTRY * size;
+        for (Label label : labels) {
+            out.writeInt(label.getOriginalPath().hashCode());
+            out.writeInt(offset);
+            offset += 4 + 2 * label.getOriginalPath().length();
+            out.writeInt(offset);
+            offset += 4 + 2 * label.getLavendelizedPath().length();
+            if (offset < 0) {
+                throw new IllegalArgumentException("index too large");
+            }
+            out.writeInt(label.md5().length);
+            out.writeLong(CompactIndex.pack(label.md5(), 0));
+            out.writeLong(CompactIndex.pack(label.md5(), 8));
+        }
+        for (Label label : labels) {
+            out.writeInt(label.getOriginalPath().length());
+            out.writeChars(label.getOriginalPath());
+            out.writeInt(label.getLavendelizedPath().length());
+            out.writeChars(label.getLavendelizedPath());
+        }
+        out.flush();
+    }
+
+    public static MappedIndex load(FileNode src) throws IOException {
+        ByteBuffer buffer;
+
+        try (FileChannel channel = FileChannel.open(src.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        return new MappedIndex(src.toString(), buffer);
+    }
+
+    //--
+
+    private final ByteBuffer buffer;
+    private final int size;
+    private final int tableSize;
+    private final int entries;
+
+    /** buffer must not be modified; only absolute access is used */
+    public MappedIndex(String name, ByteBuffer buffer) throws IOException {
+        if (buffer.capacity() < HEADER || buffer.getInt(0) != MAGIC) {
+            throw new IOException(name + ": not a binary lavender index");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException(name + ": unsupported version " + buffer.getInt(4));
+        }
+        this.buffer = buffer;
+        this.size = buffer.getInt(8);
+        this.tableSize = buffer.getInt(12);
+        this.entries = HEADER + 4 * tableSize;
+        if (Integer.bitCount(tableSize) != 1 || size < 0 || size >= tableSize || HEADER + 4L * tableSize + (long) ENTRY * size > buffer.capacity()) {
+            throw new IOException(name + ": corrupted binary lavender index");
+        }
+        validate(name);
+    }
+
+    /** Checks all offsets, so a truncated or corrupted file fails here and not while looking up paths */
+    private void validate(String name) throws IOException {
+        int strings;
+        int offset;
+        int md5Length;
+        boolean empty;
+        int entry;
+
+        empty = false;
+        for (int slot = 0; slot < tableSize; slot++) {
+            entry = buffer.getInt(HEADER + 4 * slot);
+            if (entry < 0 || entry > size) {
+                throw new IOException(name + ": corrupted table slot " + slot);
+            }
+            if (entry == 0) {
+                empty = true;
+            }
+        }
+        if (!empty) {
+            throw new IOException(name + ": table without empty slot");
+        }
+        strings = entryOffset(size);
+        for (int i = 0; i < size; i++) {
+            offset = entryOffset(i);
+            checkString(name, strings, buffer.getInt(offset + 4));
+            checkString(name, strings, buffer.getInt(offset + 8));
+            md5Length = buffer.getInt(offset + 12);
+            if (md5Length < 0 || md5Length > CompactIndex.MAX_MD5) {
+                throw new IOException(name + ": corrupted md5 length in entry " + i);
+            }
+        }
+    }
+
+    private void checkString(String name, int strings, int offset) throws IOException {
+        int length;
+
+        if (offset < strings || offset > buffer.capacity() - 4) {
+            throw new IOException(name + ": string offset out of range: " + offset);
+        }
+        length = buffer.getInt(offset);
+        if (length < 0 || offset + 4 + 2L * length > buffer.capacity()) {
+            throw new IOException(name + ": string length out of range: " + length);
+        }
+    }
+
+    /** @return md5 of the text index this file was created from */
+    public byte[] textMd5() {
+        byte[] result;
+
+        result = new byte[16];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = buffer.get(16 + i);
+        }
+        return result;
+    }
+
+    /** @return true if the file was created from a text index with this length and last modified time */
+    public boolean isFor(long textLength, long textModified) {
+        return buffer.getLong(32) != -1 && buffer.getLong(32) == textLength && buffer.getLong(40) == textModified;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int find(CharSequence originalPath) {
+        int hash;
+        int slot;
+        int entry;
+
+        hash = CompactIndex.hash(originalPath);
+        slot = CompactIndex.spread(hash) & (tableSize - 1);
+        while (true) {
+            entry = buffer.getInt(HEADER + 4 * slot) - 1;
+            if (entry == -1) {
+                return -1;
+            }
+            if (buffer.getInt(entryOffset(entry)) == hash && matches(originalPath, buffer.getInt(entryOffset(entry) + 4))) {
+                return entry;
+            }
+            slot = (slot + 1) & (tableSize - 1);
+        }
+    }
+
+    private boolean matches(CharSequence str, int offset) {
+        int length;
+
+        length = buffer.getInt(offset);
+        if (length != str.length()) {
+            return false;
+        }
+        offset += 4;
+        for (int i = 0; i < length; i++) {
+            if (buffer.getChar(offset + 2 * i) != str.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int entryOffset(int entry) {
+        return entries + ENTRY * entry;
+    }
+
+    public Label label(int entry) {
+        int offset;
+
+        offset = entryOffset(entry);
+        return new Label(string(buffer.getInt(offset + 4)), string(buffer.getInt(offset + 8)),
+                CompactIndex.unpack(buffer.getLong(offset + 16), buffer.getLong(offset + 24), buffer.getInt(offset + 12)));
+    }
+
+    private String string(int offset) {
+        char[] chars;
+
+        chars = new char[buffer.getInt(offset)];
+        offset += 4;
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = buffer.getChar(offset + 2 * i);
+        }
+        return new String(chars);
+    }
+
+    /** entries live in the mapped file */
+    public long memory() {
+        return 0;
+    }
+}
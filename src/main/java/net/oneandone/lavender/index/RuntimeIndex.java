@@ -0,0 +1,64 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.index;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/** Read-only index used by the production filter. Entries are numbered 0 .. size-1. Implementations are thread-safe. */
+public interface RuntimeIndex extends Iterable<Label> {
+    int size();
+
+    /** @return entry number or -1 if not found; does not allocate */
+    int find(CharSequence originalPath);
+
+    Label label(int entry);
+
+    /** @return rough estimate of the heap used by this index */
+    long memory();
+
+    /** @return null if not found */
+    default Label lookup(String originalPath) {
+        int entry;
+
+        entry = find(originalPath);
+        return entry == -1 ? null : label(entry);
+    }
+
+    default Iterator<Label> iterator() {
+        return new Iterator<Label>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < size();
+            }
+
+            @Override
+            public Label next() {
+                if (next >= size()) {
+                    throw new NoSuchElementException();
+                }
+                return label(next++);
+            }
+
+            @Override
+            public void remove() {
+                throw new IllegalStateException();
+            }
+        };
+    }
+}
@@ -18,6 +18,7 @@ package net.oneandone.lavender.modules;
 import net.oneandone.lavender.config.Connection;
 import net.oneandone.lavender.config.Docroot;
 import net.oneandone.lavender.index.Index;
+import net.oneandone.lavender.index.InlineResources;
 import net.oneandone.lavender.index.Label;
 import net.oneandone.lavender.index.Util;
 import net.oneandone.sushi.fs.Node;
@@ -99,6 +100,14 @@ public class Distributor {
 
     /** @return number of changed (updated or added) resources */
     public long publish(Module<?> module) throws IOException {
+        return publish(module, null);
+    }
+
+    /**
+     * @param inline collects images and fonts not larger than its max size; null to not inline anything
+     * @return number of changed (updated or added) resources
+     */
+    public long publish(Module<?> module, InlineResources inline) throws IOException {
         FileNode cacheFile;
         String path;
         String contentId;
@@ -129,6 +138,15 @@ public class Distributor {
                 label = module.createLabel(resource, md5);
                 if (write(label, resource, dataBuffered)) {
                     count++;
+                    dataBuffered = true;
+                }
+                if (inline != null && InlineResources.mimeType(path) != null) {
+                    if (!dataBuffered) {
+                        resource.writeTo(buffer);
+                    }
+                    if (buffer.size() <= inline.getMaxSize()) {
+                        inline.add(label.getOriginalPath(), buffer.toByteArray());
+                    }
                 }
             }
         }
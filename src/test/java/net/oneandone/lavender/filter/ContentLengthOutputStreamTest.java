@@ -0,0 +1,124 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.filter;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class ContentLengthOutputStreamTest {
+    private static class Stream extends ContentLengthOutputStream {
+        private Integer length;
+
+        Stream(BufferPool pool, ByteArrayOutputStream dest) {
+            super(pool, dest);
+            this.length = null;
+        }
+
+        @Override
+        protected void start(int l) {
+            assertEquals(null, length);
+            this.length = l;
+        }
+    }
+
+    @Test
+    public void small() throws IOException {
+        BufferPool pool;
+        ByteArrayOutputStream dest;
+        Stream stream;
+
+        pool = new BufferPool(10);
+        dest = new ByteArrayOutputStream();
+        stream = new Stream(pool, dest);
+        stream.write("hello".getBytes());
+        stream.write('!');
+        stream.flush();
+        assertEquals(null, stream.length);
+        assertEquals(0, dest.size());
+        stream.write("1234".getBytes());
+        stream.close();
+        assertEquals(10, (int) stream.length);
+        assertEquals("hello!1234", dest.toString());
+    }
+
+    @Test
+    public void large() throws IOException {
+        ByteArrayOutputStream dest;
+        Stream stream;
+
+        dest = new ByteArrayOutputStream();
+        stream = new Stream(new BufferPool(10), dest);
+        stream.write("hello".getBytes());
+        stream.write("world!".getBytes());
+        assertEquals(-1, (int) stream.length);
+        assertEquals("helloworld!", dest.toString());
+        stream.write('x');
+        stream.close();
+        assertEquals("helloworld!x", dest.toString());
+    }
+
+    @Test
+    public void single() throws IOException {
+        ByteArrayOutputStream dest;
+        Stream stream;
+
+        dest = new ByteArrayOutputStream();
+        stream = new Stream(new BufferPool(2), dest);
+        stream.write('a');
+        stream.write('b');
+        assertEquals(null, stream.length);
+        stream.write('c');
+        assertEquals(-1, (int) stream.length);
+        stream.close();
+        assertEquals("abc", dest.toString());
+    }
+
+    @Test
+    public void commit() throws IOException {
+        ByteArrayOutputStream dest;
+        Stream stream;
+
+        dest = new ByteArrayOutputStream();
+        stream = new Stream(new BufferPool(10), dest);
+        stream.write("hi".getBytes());
+        stream.commit();
+        assertEquals(-1, (int) stream.length);
+        assertEquals("hi", dest.toString());
+        stream.close();
+    }
+
+    @Test
+    public void empty() throws IOException {
+        Stream stream;
+
+        stream = new Stream(new BufferPool(10), new ByteArrayOutputStream());
+        stream.close();
+        assertEquals(0, (int) stream.length);
+    }
+
+    @Test(expected = IOException.class)
+    public void writeAfterClose() throws IOException {
+        Stream stream;
+
+        stream = new Stream(new BufferPool(10), new ByteArrayOutputStream());
+        stream.close();
+        stream.write('a');
+    }
+}
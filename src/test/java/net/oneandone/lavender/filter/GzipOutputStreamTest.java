@@ -0,0 +1,192 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.filter;
+
+import net.oneandone.sushi.io.Buffer;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GzipOutputStreamTest {
+    private static class Stream extends GzipOutputStream {
+        private Boolean compress;
+        private int length;
+
+        Stream(Gzip gzip, ByteArrayOutputStream dest) {
+            super(gzip, dest);
+            this.compress = null;
+        }
+
+        @Override
+        protected void start(boolean c, int l) {
+            assertEquals(null, compress);
+            this.compress = c;
+            this.length = l;
+        }
+    }
+
+    private static Gzip gzip(int bufferSize, int minSize) {
+        return new Gzip(Gzip.DEFAULT_LEVEL, bufferSize, minSize, Arrays.asList("text/html"));
+    }
+
+    @Test
+    public void compressed() throws IOException {
+        Gzip gzip;
+        Random random;
+        byte[] data;
+        ByteArrayOutputStream dest;
+        Stream stream;
+
+        gzip = gzip(16, 100);
+        random = new Random(7);
+        data = new byte[20000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ("abc <>\"=\n".charAt(random.nextInt(9)) + (i % 97 == 0 ? random.nextInt(100) : 0));
+        }
+        dest = new ByteArrayOutputStream();
+        stream = new Stream(gzip, dest);
+        stream.write(data, 0, 10);
+        stream.write(data[10]);
+        stream.flush();
+        assertEquals(0, dest.size());
+        stream.write(data, 11, 5000);
+        stream.flush();
+        stream.write(data, 5011, data.length - 5011);
+        stream.close();
+        assertTrue(stream.compress);
+        assertEquals(-1, stream.length);
+        assertArrayEquals(data, gunzip(dest.toByteArray()));
+        assertEquals(1, gzip.getResponses());
+        assertEquals(data.length, gzip.getBytesIn());
+        assertEquals(dest.size(), gzip.getBytesOut());
+    }
+
+    @Test
+    public void belowMinSize() throws IOException {
+        Gzip gzip;
+        ByteArrayOutputStream dest;
+        Stream stream;
+
+        gzip = gzip(512, 100);
+        dest = new ByteArrayOutputStream();
+        stream = new Stream(gzip, dest);
+        stream.write("<p>small</p>".getBytes());
+        stream.flush();
+        stream.close();
+        assertFalse(stream.compress);
+        assertEquals(12, stream.length);
+        assertEquals("<p>small</p>", dest.toString());
+        assertEquals(0, gzip.getResponses());
+        assertEquals(1, gzip.getSkipped());
+    }
+
+    @Test
+    public void commit() throws IOException {
+        ByteArrayOutputStream dest;
+        Stream stream;
+
+        dest = new ByteArrayOutputStream();
+        stream = new Stream(gzip(512, 100), dest);
+        stream.write("<p>small</p>".getBytes());
+        stream.commit();
+        assertTrue(stream.compress);
+        stream.close();
+        assertEquals("<p>small</p>", new String(gunzip(dest.toByteArray())));
+    }
+
+    @Test
+    public void empty() throws IOException {
+        ByteArrayOutputStream dest;
+        Stream stream;
+
+        dest = new ByteArrayOutputStream();
+        stream = new Stream(gzip(512, 0), dest);
+        stream.close();
+        assertFalse(stream.compress);
+        assertEquals(0, stream.length);
+        assertEquals(0, dest.size());
+    }
+
+    @Test
+    public void pooled() throws IOException {
+        Gzip gzip;
+        Deflater deflater;
+        ByteArrayOutputStream dest;
+        Stream stream;
+
+        gzip = gzip(512, 0);
+        deflater = gzip.acquire();
+        gzip.release(deflater);
+        for (int i = 0; i < 3; i++) {
+            dest = new ByteArrayOutputStream();
+            stream = new Stream(gzip, dest);
+            stream.write(("response " + i).getBytes());
+            stream.close();
+            assertEquals("response " + i, new String(gunzip(dest.toByteArray())));
+        }
+        assertSame(deflater, gzip.acquire());
+    }
+
+    @Test
+    public void releaseAfterDestroy() {
+        Gzip gzip;
+        Deflater deflater;
+
+        gzip = gzip(512, 0);
+        deflater = gzip.acquire();
+        gzip.destroy();
+        gzip.release(deflater);
+        assertNotSame(deflater, gzip.acquire());
+        try {
+            deflater.deflate(new byte[16]);
+            fail();
+        } catch (NullPointerException e) {
+            // ended
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void writeAfterClose() throws IOException {
+        Stream stream;
+
+        stream = new Stream(gzip(512, 0), new ByteArrayOutputStream());
+        stream.close();
+        stream.write('a');
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidLevel() {
+        new Gzip(10, 512, 0, Arrays.asList("text/html"));
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        return new Buffer().readBytes(new GZIPInputStream(new ByteArrayInputStream(compressed)));
+    }
+}
@@ -15,29 +15,43 @@
  */
 package net.oneandone.lavender.filter;
 
+import net.oneandone.lavender.filter.processor.HtmlProcessor;
 import net.oneandone.lavender.filter.processor.LavenderProcessorFactory;
 import net.oneandone.lavender.filter.processor.Processor;
+import net.oneandone.sushi.io.Buffer;
 import net.oneandone.sushi.io.MultiWriter;
 import org.junit.Before;
 import org.junit.Test;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class LavendelizeHttpServletResponseTest {
@@ -50,6 +64,7 @@ public class LavendelizeHttpServletResponseTest {
     public void setUp() {
         wrappedResponse = mock(HttpServletResponse.class);
         processorFactory = mock(LavenderProcessorFactory.class);
+        when(processorFactory.canProcess(anyString())).thenReturn(true);
         URI requestURI = URI.create("http://localhost:8080/a/b/c.html");
         String contextPath = "/a/";
         response = new LavendelizeHttpServletResponse(wrappedResponse, processorFactory, requestURI, null, contextPath, false);
@@ -98,6 +113,24 @@ public class LavendelizeHttpServletResponseTest {
         assertSame(writer, response.getWriter());
     }
 
+    @Test
+    public void testCharacterEncoding() throws IOException {
+        when(wrappedResponse.getWriter()).thenReturn(new PrintWriter(MultiWriter.createNullWriter()));
+        when(wrappedResponse.getContentType()).thenReturn("text/html; Charset=ISO-8859-1");
+        when(wrappedResponse.getCharacterEncoding()).thenReturn("ISO-8859-1");
+
+        response.getWriter().write("x");
+        verify(wrappedResponse, never()).setCharacterEncoding(anyString());
+
+        setUp();
+        when(wrappedResponse.getWriter()).thenReturn(new PrintWriter(MultiWriter.createNullWriter()));
+        when(wrappedResponse.getContentType()).thenReturn("text/html");
+        when(wrappedResponse.getCharacterEncoding()).thenReturn("UTF-8");
+
+        response.getWriter().write("x");
+        verify(wrappedResponse).setCharacterEncoding("UTF-8");
+    }
+
     @Test(expected = IllegalStateException.class)
     public void testGetOutputStreamAfterGetWriter() throws IOException {
         PrintWriter wrappedWriter = new PrintWriter(MultiWriter.createNullWriter());
@@ -140,6 +173,281 @@ public class LavendelizeHttpServletResponseTest {
         assertSame(outputStream, response.getOutputStream());
     }
 
+    @Test
+    public void testOutputStreamByteChars() throws IOException {
+        ByteArrayOutputStream dest = new ByteArrayOutputStream();
+        ServletOutputStream wrappedOutputStream = new ServletOutputStream() {
+            public void write(int b) {
+                dest.write(b);
+            }
+        };
+        when(wrappedResponse.getContentType()).thenReturn("text/html;charset=UTF-8");
+        when(wrappedResponse.getCharacterEncoding()).thenReturn("UTF-8");
+        when(wrappedResponse.getOutputStream()).thenReturn(wrappedOutputStream);
+        Processor processor = new HtmlProcessor();
+        processor.setRewriteEngine((reference, baseURI, contextPath) -> "http://cdn/" + reference, URI.create("http://localhost"), "/");
+        when(processorFactory.createProcessor(anyString(), any(URI.class), anyString())).thenReturn(processor);
+
+        ServletOutputStream outputStream = response.getOutputStream();
+        outputStream.write("<p>\u00e4</p><img src='\u00f6.png'>".getBytes(StandardCharsets.UTF_8));
+        response.close();
+        assertEquals("<p>\u00e4</p><img src='http://cdn/\u00f6.png'>", new String(dest.toByteArray(), StandardCharsets.UTF_8));
+        verify(wrappedResponse, never()).getWriter();
+        verify(processorFactory).releaseProcessor(processor);
+    }
+
+    @Test
+    public void testGzipHtml() throws IOException {
+        ByteArrayOutputStream dest = new ByteArrayOutputStream();
+        ServletOutputStream wrappedOutputStream = new ServletOutputStream() {
+            public void write(int b) {
+                dest.write(b);
+            }
+        };
+        Gzip gzip = new Gzip(Gzip.DEFAULT_LEVEL, 512, 10, Gzip.DEFAULT_TYPES);
+        response = new LavendelizeHttpServletResponse(wrappedResponse, processorFactory, URI.create("http://localhost:8080/a/b/c.html"),
+                null, "/a/", gzip, null, null);
+        when(wrappedResponse.getContentType()).thenReturn("text/html;charset=UTF-8");
+        when(wrappedResponse.getCharacterEncoding()).thenReturn("UTF-8");
+        when(wrappedResponse.getOutputStream()).thenReturn(wrappedOutputStream);
+        Processor processor = new HtmlProcessor();
+        processor.setRewriteEngine((reference, baseURI, contextPath) -> "http://cdn/" + reference, URI.create("http://localhost"), "/");
+        when(processorFactory.createProcessor(anyString(), any(URI.class), anyString())).thenReturn(processor);
+
+        response.getWriter().write("<p>\u00e4</p><img src='\u00f6.png'>");
+        response.close();
+        assertEquals("<p>\u00e4</p><img src='http://cdn/\u00f6.png'>",
+                new String(new Buffer().readBytes(new GZIPInputStream(new ByteArrayInputStream(dest.toByteArray()))), StandardCharsets.UTF_8));
+        verify(wrappedResponse).setHeader("Content-Encoding", "gzip");
+        verify(wrappedResponse).addHeader("Vary", "Accept-Encoding");
+        assertEquals(1, gzip.getResponses());
+    }
+
+    @Test
+    public void testGzipBelowMinSize() throws IOException {
+        ByteArrayOutputStream dest = new ByteArrayOutputStream();
+        ServletOutputStream wrappedOutputStream = new ServletOutputStream() {
+            public void write(int b) {
+                dest.write(b);
+            }
+        };
+        Gzip gzip = new Gzip(Gzip.DEFAULT_LEVEL, 512, 1024, Gzip.DEFAULT_TYPES);
+        response = new LavendelizeHttpServletResponse(wrappedResponse, processorFactory, URI.create("http://localhost:8080/a/b/c.html"),
+                null, "/a/", gzip, null, null);
+        when(wrappedResponse.getContentType()).thenReturn("text/javascript;charset=UTF-8");
+        when(wrappedResponse.getCharacterEncoding()).thenReturn("UTF-8");
+        when(wrappedResponse.getOutputStream()).thenReturn(wrappedOutputStream);
+
+        response.setContentLength(5);
+        response.getOutputStream().write("a=1;\n".getBytes(StandardCharsets.UTF_8));
+        response.close();
+        assertEquals("a=1;\n", new String(dest.toByteArray(), StandardCharsets.UTF_8));
+        verify(wrappedResponse, never()).setHeader("Content-Encoding", "gzip");
+        verify(wrappedResponse).setContentLength(-1);
+        verify(wrappedResponse).setContentLength(5);
+        assertEquals(1, gzip.getSkipped());
+    }
+
+    @Test
+    public void testBufferedContentLength() throws IOException {
+        ServletOutputStream wrappedOutputStream = mock(ServletOutputStream.class);
+        response = new LavendelizeHttpServletResponse(wrappedResponse, processorFactory, URI.create("http://localhost:8080/a/b/c.html"),
+                null, "/a/", null, new BufferPool(100), null);
+        when(wrappedResponse.getContentType()).thenReturn("text/html;charset=UTF-8");
+        when(wrappedResponse.getCharacterEncoding()).thenReturn("UTF-8");
+        when(wrappedResponse.getOutputStream()).thenReturn(wrappedOutputStream);
+        Processor processor = new HtmlProcessor();
+        processor.setRewriteEngine((reference, baseURI, contextPath) -> "http://cdn/" + reference, URI.create("http://localhost"), "/");
+        when(processorFactory.createProcessor(anyString(), any(URI.class), anyString())).thenReturn(processor);
+
+        response.setContentLength(17);
+        PrintWriter writer = response.getWriter();
+        writer.write("<img src='a.png'>");
+        verify(wrappedOutputStream, never()).write(any(byte[].class), anyInt(), anyInt());
+        response.close();
+        verify(wrappedResponse).setContentLength(-1);
+        verify(wrappedResponse).setContentLength(28);
+        verify(wrappedOutputStream).write(any(byte[].class), eq(0), eq(28));
+    }
+
+    @Test
+    public void testApplicationFlush() throws IOException {
+        ByteArrayOutputStream dest = new ByteArrayOutputStream();
+        ServletOutputStream wrappedOutputStream = spy(new ServletOutputStream() {
+            public void write(int b) {
+                dest.write(b);
+            }
+        });
+        response = new LavendelizeHttpServletResponse(wrappedResponse, processorFactory, URI.create("http://localhost:8080/a/b/c.html"),
+                null, "/a/", null, new BufferPool(100), null);
+        when(wrappedResponse.getContentType()).thenReturn("text/html;charset=UTF-8");
+        when(wrappedResponse.getCharacterEncoding()).thenReturn("UTF-8");
+        when(wrappedResponse.getOutputStream()).thenReturn(wrappedOutputStream);
+        Processor processor = new HtmlProcessor();
+        processor.setRewriteEngine((reference, baseURI, contextPath) -> "http://cdn/" + reference, URI.create("http://localhost"), "/");
+        when(processorFactory.createProcessor(anyString(), any(URI.class), anyString())).thenReturn(processor);
+
+        PrintWriter writer = response.getWriter();
+        writer.write("<head><link rel='stylesheet' href='a.css'>");
+        writer.flush();
+        assertEquals("<head><link rel='stylesheet' href='http://cdn/a.css'>", new String(dest.toByteArray(), StandardCharsets.UTF_8));
+        verify(wrappedOutputStream).flush();
+        writer.write("</head>");
+        response.close();
+        assertEquals("<head><link rel='stylesheet' href='http://cdn/a.css'></head>", new String(dest.toByteArray(), StandardCharsets.UTF_8));
+        verify(wrappedResponse, never()).setContentLength(anyInt());
+    }
+
+    @Test
+    public void testBufferExceeded() throws IOException {
+        ByteArrayOutputStream dest = new ByteArrayOutputStream();
+        ServletOutputStream wrappedOutputStream = new ServletOutputStream() {
+            public void write(int b) {
+                dest.write(b);
+            }
+        };
+        response = new LavendelizeHttpServletResponse(wrappedResponse, processorFactory, URI.create("http://localhost:8080/a/b/c.html"),
+                null, "/a/", null, new BufferPool(10), null);
+        when(wrappedResponse.getContentType()).thenReturn("text/html;charset=UTF-8");
+        when(wrappedResponse.getCharacterEncoding()).thenReturn("UTF-8");
+        when(wrappedResponse.getOutputStream()).thenReturn(wrappedOutputStream);
+        Processor processor = new HtmlProcessor();
+        processor.setRewriteEngine((reference, baseURI, contextPath) -> "http://cdn/" + reference, URI.create("http://localhost"), "/");
+        when(processorFactory.createProcessor(anyString(), any(URI.class), anyString())).thenReturn(processor);
+
+        response.getOutputStream().write("<p>\u00e4</p><img src='a.png'>".getBytes(StandardCharsets.UTF_8));
+        response.close();
+        assertEquals("<p>\u00e4</p><img src='http://cdn/a.png'>", new String(dest.toByteArray(), StandardCharsets.UTF_8));
+        verify(wrappedResponse, never()).setContentLength(anyInt());
+    }
+
+    @Test
+    public void testContentTypes() throws IOException {
+        LavenderProcessorFactory factory = new LavenderProcessorFactory((reference, baseURI, contextPath) -> reference);
+        ContentTypes contentTypes = new ContentTypes(factory, Gzip.DEFAULT);
+        when(wrappedResponse.getContentType()).thenReturn("text/javascript;charset=UTF-8");
+        for (int i = 0; i < 3; i++) {
+            response = new LavendelizeHttpServletResponse(wrappedResponse, factory, URI.create("http://localhost:8080/a/b/c.html"),
+                    null, "/a/", Gzip.DEFAULT, null, contentTypes);
+            assertNull(response.initialize());
+        }
+        verify(wrappedResponse, times(3)).addHeader("Vary", "Accept-Encoding");
+        assertEquals(1, contentTypes.getMisses());
+        assertEquals(2, contentTypes.getHits());
+
+        ContentType type = contentTypes.get("Text/HTML; charset=iso-8859-1");
+        assertEquals("text/html", type.getBaseType());
+        assertEquals("iso-8859-1", type.getCharset());
+        assertTrue(type.isProcessed());
+        assertTrue(type.isGzip());
+        type = contentTypes.get("image/png");
+        assertFalse(type.isProcessed());
+        assertFalse(type.isGzip());
+        assertSame(ContentType.INVALID, contentTypes.get("no type"));
+    }
+
+    @Test
+    public void testPreloadHeaders() throws IOException {
+        LavenderProcessorFactory factory = new LavenderProcessorFactory((reference, baseURI, contextPath) -> "http://cdn/" + reference);
+        PreloadCache cache = new PreloadCache(4, 0);
+        URI requestURI = URI.create("http://localhost:8080/a/b/c.html?x=1");
+        when(wrappedResponse.getStatus()).thenReturn(200);
+        when(wrappedResponse.getContentType()).thenReturn("text/html;charset=UTF-8");
+        when(wrappedResponse.getCharacterEncoding()).thenReturn("UTF-8");
+        when(wrappedResponse.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+
+        for (int i = 0; i < 2; i++) {
+            response = new LavendelizeHttpServletResponse(wrappedResponse, factory, requestURI, null, "/a/", null, null, null, cache);
+            PrintWriter writer = response.getWriter();
+            writer.write("<link rel='stylesheet' href='a.css'><img src='x.png'>");
+            response.close();
+        }
+        verify(wrappedResponse, times(1)).addHeader("Link", "<http://cdn/a.css>; rel=preload; as=style");
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        assertArrayEquals(new String[] { "<http://cdn/a.css>; rel=preload; as=style" }, cache.get(requestURI).getLinks());
+
+        // not learned from an error page
+        when(wrappedResponse.getStatus()).thenReturn(404);
+        response = new LavendelizeHttpServletResponse(wrappedResponse, factory, requestURI, null, "/a/", null, null, null, cache);
+        response.getWriter().write("<link rel='stylesheet' href='error.css'>");
+        response.close();
+        assertArrayEquals(new String[] { "<http://cdn/a.css>; rel=preload; as=style" }, cache.get(requestURI).getLinks());
+        verify(wrappedResponse, times(2)).addHeader("Link", "<http://cdn/a.css>; rel=preload; as=style");
+
+        when(wrappedResponse.getContentType()).thenReturn("text/css");
+        response = new LavendelizeHttpServletResponse(wrappedResponse, factory, requestURI, null, "/a/", null, null, null, cache);
+        response.initialize();
+        response.close();
+        assertEquals(4, cache.getHits());
+        verify(wrappedResponse, times(2)).addHeader(eq("Link"), anyString());
+    }
+
+    @Test
+    public void testPreloadSchemes() throws IOException {
+        LavenderProcessorFactory factory = new LavenderProcessorFactory((reference, baseURI, contextPath) -> baseURI.getScheme() + "://cdn/" + reference);
+        PreloadCache cache = new PreloadCache(4, 0, true);
+        StringWriter dest = new StringWriter();
+        when(wrappedResponse.getStatus()).thenReturn(200);
+        when(wrappedResponse.getContentType()).thenReturn("text/html;charset=UTF-8");
+        when(wrappedResponse.getCharacterEncoding()).thenReturn("UTF-8");
+
+        for (String scheme : new String[] { "http", "https", "https" }) {
+            when(wrappedResponse.getWriter()).thenReturn(new PrintWriter(dest));
+            response = new LavendelizeHttpServletResponse(wrappedResponse, factory, URI.create(scheme + "://localhost/a/b/c.html"), null, "/a/",
+                    null, null, null, cache);
+            response.getWriter().write("<head><link rel='stylesheet' href='a.css'>\n");
+            response.close();
+        }
+        verify(wrappedResponse, times(1)).addHeader(eq("Link"), anyString());
+        verify(wrappedResponse).addHeader("Link", "<https://cdn/a.css>; rel=preload; as=style");
+        assertEquals("<head><link rel='stylesheet' href='http://cdn/a.css'>\n"
+                + "<head><link rel='stylesheet' href='https://cdn/a.css'>\n"
+                + "<head><link rel=\"preconnect\" href=\"https://cdn\"><link rel=\"dns-prefetch\" href=\"https://cdn\">"
+                + "<link rel='stylesheet' href='https://cdn/a.css'>\n", dest.toString());
+    }
+
+    @Test
+    public void testPreconnect() throws IOException {
+        LavenderProcessorFactory factory = new LavenderProcessorFactory((reference, baseURI, contextPath) -> "https://s1.cdn/" + reference);
+        PreloadCache cache = new PreloadCache(0, 0, true);
+        URI requestURI = URI.create("http://localhost:8080/a/b/c.html");
+        when(wrappedResponse.getStatus()).thenReturn(200);
+        StringWriter dest = new StringWriter();
+        when(wrappedResponse.getContentType()).thenReturn("text/html;charset=UTF-8");
+        when(wrappedResponse.getCharacterEncoding()).thenReturn("UTF-8");
+
+        for (int i = 0; i < 2; i++) {
+            when(wrappedResponse.getWriter()).thenReturn(new PrintWriter(dest));
+            response = new LavendelizeHttpServletResponse(wrappedResponse, factory, requestURI, null, "/a/", null, null, null, cache);
+            response.getWriter().write("<head><link rel='stylesheet' href='a.css'>\n");
+            response.close();
+        }
+        assertEquals("<head><link rel='stylesheet' href='https://s1.cdn/a.css'>\n"
+                + "<head><link rel=\"preconnect\" href=\"https://s1.cdn\"><link rel=\"dns-prefetch\" href=\"https://s1.cdn\">"
+                + "<link rel='stylesheet' href='https://s1.cdn/a.css'>\n", dest.toString());
+        verify(wrappedResponse, never()).addHeader(eq("Link"), anyString());
+    }
+
+    @Test(expected = IOException.class)
+    public void testWriteAfterClose() throws IOException {
+        ServletOutputStream wrappedOutputStream = new ServletOutputStream() {
+            public void write(int b) {
+            }
+        };
+        when(wrappedResponse.getContentType()).thenReturn("text/html;charset=UTF-8");
+        when(wrappedResponse.getCharacterEncoding()).thenReturn("UTF-8");
+        when(wrappedResponse.getOutputStream()).thenReturn(wrappedOutputStream);
+        Processor processor = new HtmlProcessor();
+        processor.setRewriteEngine((reference, baseURI, contextPath) -> reference, URI.create("http://localhost"), "/");
+        when(processorFactory.createProcessor(anyString(), any(URI.class), anyString())).thenReturn(processor);
+
+        ServletOutputStream outputStream = response.getOutputStream();
+        outputStream.write('a');
+        response.close();
+        outputStream.write('b');
+    }
+
     @Test(expected = IllegalStateException.class)
     public void testGetWriterAfterGetOutputStream() throws IOException {
         ServletOutputStream wrappedOutputStream = new ServletOutputStream() {
@@ -0,0 +1,116 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.filter;
+
+import net.oneandone.lavender.filter.processor.CssProcessor;
+import net.oneandone.lavender.filter.processor.HtmlProcessor;
+import net.oneandone.lavender.filter.processor.LavenderRewriteEngine;
+import net.oneandone.lavender.filter.processor.Processor;
+import net.oneandone.lavender.index.Index;
+import net.oneandone.lavender.index.Label;
+import net.oneandone.lavender.index.Util;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LavendelizeOutputStreamTest {
+    private static final String HTML = "<html><body>äöü € <img src='img/a.png' alt='ä '>"
+            + "<img src='img/ä.png'><img src='img/unknown-ä.png'><img src=\"img/b.png\" >"
+            + "<div style='background: url(img/ä.png)'>ß</div></body></html>";
+
+    private static final String CSS = "/* ä */ a { background: url(img/ä.png); content: 'ö' } b { background: URL(img/a.png) }";
+
+    private LavenderRewriteEngine engine;
+
+    @Before
+    public void setUp() {
+        Index index;
+
+        index = new Index();
+        index.add(new Label("img/a.png", "a.png", Util.md5("a".getBytes())));
+        index.add(new Label("img/ä.png", "ae.png", Util.md5("ae".getBytes())));
+        engine = new LavenderRewriteEngine(index);
+        engine.add(URI.create("http://s1.cdn.net/"));
+    }
+
+    @Test
+    public void html() throws IOException {
+        check(HtmlProcessor::new, HTML, StandardCharsets.UTF_8);
+        check(HtmlProcessor::new, HTML, Charset.forName("ISO-8859-15"));
+        check(HtmlProcessor::new, HTML, Charset.forName("windows-1252"));
+    }
+
+    @Test
+    public void css() throws IOException {
+        check(CssProcessor::new, CSS, StandardCharsets.UTF_8);
+        check(CssProcessor::new, CSS, StandardCharsets.ISO_8859_1);
+    }
+
+    /** byte chars have to produce the same bytes as decoding and encoding */
+    private void check(Supplier<Processor> factory, String content, Charset charset) throws IOException {
+        byte[] bytes;
+        byte[] expected;
+        byte[] found;
+
+        bytes = content.getBytes(charset);
+        expected = chars(factory.get(), bytes, charset);
+        assertTrue(new String(expected, charset), new String(expected, charset).contains("http://s1.cdn.net/ae.png"));
+        for (int chunk = 1; chunk <= bytes.length; chunk++) {
+            found = byteChars(factory.get(), bytes, charset, chunk);
+            assertArrayEquals("chunk " + chunk, expected, found);
+        }
+    }
+
+    private byte[] chars(Processor processor, byte[] bytes, Charset charset) throws IOException {
+        ByteArrayOutputStream dest;
+        OutputStream src;
+
+        dest = new ByteArrayOutputStream();
+        processor.setRewriteEngine(engine, URI.create("http://localhost/app/"), "/app/");
+        processor.setWriter(new OutputStreamWriter(dest, charset));
+        src = WriterOutputStream.create(new LavendelizeWriter(processor), charset.name());
+        src.write(bytes);
+        src.close();
+        return dest.toByteArray();
+    }
+
+    private byte[] byteChars(Processor processor, byte[] bytes, Charset charset, int chunk) throws IOException {
+        ByteArrayOutputStream dest;
+        OutputStream src;
+
+        dest = new ByteArrayOutputStream();
+        processor.setRewriteEngine(engine, URI.create("http://localhost/app/"), "/app/");
+        assertTrue(processor.setByteChars(charset));
+        processor.setWriter(new ByteCharsWriter(dest, charset, 16));
+        src = new LavendelizeOutputStream(processor, 7);
+        for (int ofs = 0; ofs < bytes.length; ofs += chunk) {
+            src.write(bytes, ofs, Math.min(chunk, bytes.length - ofs));
+        }
+        src.close();
+        return dest.toByteArray();
+    }
+}
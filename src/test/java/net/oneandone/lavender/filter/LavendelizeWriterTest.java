@@ -179,6 +179,12 @@ public class LavendelizeWriterTest {
         verify(processor, times(1)).close();
     }
 
+    @Test(expected = IOException.class)
+    public void testWriteAfterClose() throws IOException {
+        lw.close();
+        lw.write("abc");
+    }
+
     class ReaderAnswer implements Answer<String> {
         private CharSequence s;
         private int offset;
@@ -132,6 +132,58 @@ public class LavenderTest {
         verify(developmentFilterMock, times(1)).init(any());
     }
 
+    @Test
+    public void initShouldShareEngine() throws Exception {
+        Lavender second;
+
+        givenFile(Lavender.LAVENDER_IDX, "img/a.png=app/a.png\\:0123456789abcdef0123456789abcdef");
+        givenFile(Lavender.LAVENDER_NODES, "http://s1.uicdn.net/shared");
+        System.clearProperty("lavender.allowProdDevMixMode");
+        when(filterConfig.getInitParameter(ProductionFilter.SHARE_ENGINE)).thenReturn("true");
+
+        lavenderFilter.init(filterConfig);
+        second = new Lavender();
+        second.init(filterConfig);
+
+        assertEquals(2, second.getEngineReferences());
+        second.reload();
+        assertEquals(2, lavenderFilter.getEngineReferences());
+        second.destroy();
+        assertEquals(1, lavenderFilter.getEngineReferences());
+        lavenderFilter.destroy();
+    }
+
+    @Test
+    public void initShouldNotShareEngineByDefault() throws Exception {
+        Lavender second;
+
+        givenFile(Lavender.LAVENDER_IDX, "img/a.png=app/a.png\\:0123456789abcdef0123456789abcdef");
+        givenFile(Lavender.LAVENDER_NODES, "http://s1.uicdn.net/shared");
+        System.clearProperty("lavender.allowProdDevMixMode");
+
+        lavenderFilter.init(filterConfig);
+        second = new Lavender();
+        second.init(filterConfig);
+
+        assertEquals(1, lavenderFilter.getEngineReferences());
+        assertEquals(1, second.getEngineReferences());
+        second.destroy();
+        lavenderFilter.destroy();
+    }
+
+    @Test
+    public void initShouldIgnoreCorruptedBinaryIndex() throws Exception {
+        givenFile(Lavender.LAVENDER_IDX, "img/a.png=app/a.png\\:0123456789abcdef0123456789abcdef");
+        givenFile(Lavender.LAVENDER_IDX_BIN, "LVIX corrupted");
+        givenFile(Lavender.LAVENDER_NODES, "http://s1.uicdn.net/m1");
+        System.clearProperty("lavender.allowProdDevMixMode");
+
+        lavenderFilter.init(filterConfig);
+
+        assertTrue(lavenderFilter.getProd());
+        lavenderFilter.destroy();
+    }
+
     private void givenFile(String filename, String... lines) throws IOException {
         FileNode file = lavenderRoot.join(filename);
         file.mkfile();
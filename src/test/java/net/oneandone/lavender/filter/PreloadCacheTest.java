@@ -0,0 +1,69 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.filter;
+
+import net.oneandone.lavender.filter.processor.Preloads;
+import org.junit.Test;
+
+import java.net.URI;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class PreloadCacheTest {
+    @Test
+    public void evictLeastRecentlyUsed() {
+        PreloadCache cache;
+        Preloads preloads;
+
+        cache = new PreloadCache(1, 0);
+        preloads = cache.create();
+        preloads.add("http://cdn/a.css", "style");
+        cache.learn(URI.create("http://localhost/page"), preloads);
+        for (int i = 0; i < PreloadCache.MAX_SIZE * 3; i++) {
+            cache.learn(URI.create("http://localhost/junk/" + i), cache.create());
+            if (i % 100 == 0) {
+                cache.get(URI.create("http://localhost/page"));
+            }
+        }
+        assertEquals(PreloadCache.MAX_SIZE, cache.size());
+        assertArrayEquals(new String[] { "<http://cdn/a.css>; rel=preload; as=style" }, cache.get(URI.create("http://localhost/page")).getLinks());
+        assertSame(PreloadCache.Entry.EMPTY, cache.get(URI.create("http://localhost/junk/0")));
+        cache.learn(URI.create("http://localhost/new"), preloads);
+        assertEquals(1, cache.get(URI.create("http://localhost/new")).getLinks().length);
+    }
+
+    @Test
+    public void scheme() {
+        PreloadCache cache;
+        Preloads preloads;
+
+        cache = new PreloadCache(1, 0, true);
+        preloads = cache.create();
+        preloads.add("http://cdn/a.css", "style");
+        preloads.origin("http://cdn");
+        cache.learn(URI.create("http://localhost/page"), preloads);
+        assertSame(PreloadCache.Entry.EMPTY, cache.get(URI.create("https://localhost/page")));
+        preloads = cache.create();
+        preloads.add("https://cdn/a.css", "style");
+        preloads.origin("https://cdn");
+        cache.learn(URI.create("https://localhost/page"), preloads);
+        assertArrayEquals(new String[] { "http://cdn" }, cache.get(URI.create("http://localhost/page")).getOrigins());
+        assertArrayEquals(new String[] { "https://cdn" }, cache.get(URI.create("https://localhost/page")).getOrigins());
+        assertArrayEquals(new String[] { "<https://cdn/a.css>; rel=preload; as=style" }, cache.get(URI.create("https://localhost/page")).getLinks());
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.filter;
+
+import net.oneandone.lavender.filter.processor.LavenderRewriteEngine;
+import net.oneandone.lavender.index.Index;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class SharedEnginesTest {
+    @Test
+    public void acquireAndRelease() throws IOException {
+        String key;
+        int[] loads;
+        SharedEngines.Loader loader;
+        LavenderRewriteEngine first;
+
+        key = SharedEngines.key(new byte[][] { "index".getBytes(), "nodes".getBytes(), null }, "test");
+        loads = new int[1];
+        loader = () -> {
+            loads[0]++;
+            return new LavenderRewriteEngine(new Index());
+        };
+        first = SharedEngines.acquire(key, loader);
+        assertSame(first, SharedEngines.acquire(key, loader));
+        assertEquals(1, loads[0]);
+        assertEquals(2, SharedEngines.references(key));
+        SharedEngines.release(key);
+        SharedEngines.release(key);
+        assertEquals(0, SharedEngines.references(key));
+        assertNotSame(first, SharedEngines.acquire(key, loader));
+        assertEquals(2, loads[0]);
+        SharedEngines.release(key);
+    }
+
+    @Test
+    public void key() {
+        assertEquals(SharedEngines.key(new byte[][] { "a".getBytes(), null }, "x"), SharedEngines.key(new byte[][] { "a".getBytes(), null }, "x"));
+        assertNotEquals(SharedEngines.key(new byte[][] { "a".getBytes(), null }, "x"), SharedEngines.key(new byte[][] { "a".getBytes(), new byte[0] }, "x"));
+        assertNotEquals(SharedEngines.key(new byte[][] { "a".getBytes() }, "x"), SharedEngines.key(new byte[][] { "a".getBytes() }, "y"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void releaseUnknown() {
+        SharedEngines.release("unknown");
+    }
+}
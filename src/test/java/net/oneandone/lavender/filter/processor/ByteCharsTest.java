@@ -0,0 +1,78 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.filter.processor;
+
+import org.junit.Test;
+
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ByteCharsTest {
+    @Test
+    public void asciiCompatible() {
+        assertTrue(ByteChars.isAsciiCompatible(StandardCharsets.UTF_8));
+        assertTrue(ByteChars.isAsciiCompatible(StandardCharsets.ISO_8859_1));
+        assertTrue(ByteChars.isAsciiCompatible(StandardCharsets.US_ASCII));
+        assertTrue(ByteChars.isAsciiCompatible(Charset.forName("ISO-8859-15")));
+        assertTrue(ByteChars.isAsciiCompatible(Charset.forName("windows-1252")));
+        assertFalse(ByteChars.isAsciiCompatible(StandardCharsets.UTF_16));
+        assertFalse(ByteChars.isAsciiCompatible(Charset.forName("Shift_JIS")));
+    }
+
+    @Test
+    public void bytes() {
+        for (int i = Byte.MIN_VALUE; i <= Byte.MAX_VALUE; i++) {
+            assertEquals(i & 0xFF, ByteChars.toByte(ByteChars.toChar((byte) i)));
+        }
+        assertEquals('a', ByteChars.toChar((byte) 'a'));
+        assertEquals(-1, ByteChars.toByte('ä'));
+        assertEquals(-1, ByteChars.toByte(''));
+    }
+
+    @Test
+    public void encodeDecode() {
+        String str;
+
+        str = "/img/äöü€.png";
+        assertSame("abc", ByteChars.encode("abc", StandardCharsets.UTF_8));
+        assertEquals(str.length() + 5, ByteChars.encode(str, StandardCharsets.UTF_8).length());
+        assertEquals(str, ByteChars.decode(ByteChars.encode(str, StandardCharsets.UTF_8), StandardCharsets.UTF_8));
+        assertEquals(str.length(), ByteChars.encode(str, Charset.forName("ISO-8859-15")).length());
+        assertEquals(str, ByteChars.decode(ByteChars.encode(str, Charset.forName("ISO-8859-15")), Charset.forName("ISO-8859-15")));
+    }
+
+    @Test
+    public void wrap() {
+        RewriteEngine engine;
+        String reference;
+
+        engine = ByteChars.wrap((ref, baseURI, contextPath) -> ref.startsWith("/img/") ? "http://cdn/" + ref.substring(5) : ref,
+                StandardCharsets.UTF_8);
+        reference = ByteChars.encode("/img/ä.png", StandardCharsets.UTF_8);
+        assertEquals(ByteChars.encode("http://cdn/ä.png", StandardCharsets.UTF_8), engine.rewrite(reference, URI.create("http://x/"), "/"));
+        reference = ByteChars.encode("/other/ä.png", StandardCharsets.UTF_8);
+        assertSame(reference, engine.rewrite(reference, URI.create("http://x/"), "/"));
+        // malformed utf-8 is kept
+        reference = "/other/" + ByteChars.toChar((byte) 0xC3);
+        assertSame(reference, engine.rewrite(reference, URI.create("http://x/"), "/"));
+    }
+}
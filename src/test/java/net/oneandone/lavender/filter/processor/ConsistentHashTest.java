@@ -21,9 +21,12 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -84,6 +87,44 @@ public class ConsistentHashTest {
         assertTrue(md5Hex.startsWith(keyHex));
     }
 
+    @Test
+    public void testSameAsTailMap() {
+        Random random;
+        byte[] md5;
+
+        random = new Random(42);
+        md5 = new byte[16];
+        for (int i = 0; i < 100000; i++) {
+            if (i == 50000) {
+                ch.removeNode("n2");
+                ch.addNode("n5");
+            }
+            random.nextBytes(md5);
+            if (i % 100 == 0) {
+                md5[0] = (byte) (i % 200 == 0 ? 0x7F : 0xFF);
+                md5[1] = md5[0];
+                md5[2] = md5[0];
+                md5[3] = md5[0];
+            }
+            assertEquals(tailMap(ch.circle, md5), ch.getNodeForHash(md5));
+        }
+        for (Integer key : ch.circle.keySet()) {
+            md5[0] = (byte) (key >>> 24);
+            md5[1] = (byte) (key >>> 16);
+            md5[2] = (byte) (key >>> 8);
+            md5[3] = (byte) (int) key;
+            assertEquals(ch.circle.get(key), ch.getNodeForHash(md5));
+        }
+    }
+
+    /** the original implementation */
+    private static String tailMap(SortedMap<Integer, String> circle, byte[] md5) {
+        int key = (md5[0] & 0xFF) << 24 | (md5[1] & 0xFF) << 16 | (md5[2] & 0xFF) << 8 | (md5[3] & 0xFF);
+        SortedMap<Integer, String> tailMap = circle.tailMap(key);
+        key = tailMap.isEmpty() ? circle.firstKey() : tailMap.firstKey();
+        return circle.get(key);
+    }
+
     @Test
     public void testEqualDistribution() {
 
@@ -112,4 +153,73 @@ public class ConsistentHashTest {
         }
         assertEquals(1000000, count);
     }
+
+    @Test
+    public void testWeights() {
+        Map<String, Integer> counts;
+        String before;
+
+        before = ch.getNodeForHash(Util.md5("x".getBytes()));
+        ch.addNode("n1", 2.0);
+        ch.addNode("n2", 0.5);
+        assertEquals(200 * 2 + 100 + 200 + 200, ch.circle.size());
+        assertEquals(2.0, ch.weight("n1"), 0.0);
+        assertEquals(1.0, ch.weight("n3"), 0.0);
+        counts = new TreeMap<>();
+        for (int i = 0; i < 100000; i++) {
+            counts.merge(ch.getNodeForHash(Util.md5(Integer.toString(i).getBytes())), 1, Integer::sum);
+        }
+        // shares 2 : 0.5 : 1 : 1
+        assertTrue(counts.toString(), counts.get("n1") > 38000 && counts.get("n1") < 50000);
+        assertTrue(counts.toString(), counts.get("n2") > 7000 && counts.get("n2") < 13000);
+        ch.removeNode("n1");
+        ch.removeNode("n2");
+        ch.addNode("n1");
+        ch.addNode("n2");
+        assertEquals(800, ch.circle.size());
+        assertEquals(before, ch.getNodeForHash(Util.md5("x".getBytes())));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidWeight() {
+        ch.addNode("n5", 0);
+    }
+
+    @Test
+    public void testBoundedLoad() {
+        byte[][] md5s;
+        String[] nodes;
+        Map<String, Integer> counts;
+
+        ch.addNode("n4", 2.0);
+        md5s = new byte[10000][];
+        for (int i = 0; i < md5s.length; i++) {
+            // a hot spot: half of the hashes close to each other
+            md5s[i] = Util.md5(Integer.toString(i).getBytes());
+            if (i % 2 == 0) {
+                md5s[i][0] = 0x11;
+            }
+        }
+        nodes = ch.assign(md5s, 1.25);
+        assertEquals(md5s.length, nodes.length);
+        counts = new TreeMap<>();
+        for (String node : nodes) {
+            counts.merge(node, 1, Integer::sum);
+        }
+        // capacity is 1.25 * 10000 * weight / 5
+        assertTrue(counts.toString(), counts.get("n1") <= 2500);
+        assertTrue(counts.toString(), counts.get("n4") <= 5000);
+        assertEquals(10000, counts.get("n1") + counts.get("n2") + counts.get("n3") + counts.get("n4"));
+        assertArrayEquals(nodes, ch.assign(md5s, 1.25));
+        // a node below capacity keeps its hashes
+        nodes = ch.assign(md5s, 100);
+        for (int i = 0; i < md5s.length; i++) {
+            assertEquals(ch.getNodeForHash(md5s[i]), nodes[i]);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLoad() {
+        ch.assign(new byte[0][], 0.9);
+    }
 }
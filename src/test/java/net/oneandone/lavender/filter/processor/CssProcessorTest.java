@@ -22,6 +22,7 @@ import org.junit.Test;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.net.URI;
+import java.nio.CharBuffer;
 
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.any;
@@ -61,6 +62,20 @@ public class CssProcessorTest {
         assertEquals(expected, out.getBuffer().toString());
     }
 
+    @Test
+    public void testInline() throws IOException {
+        when(rewriteEngine.inline(eq("/x/y/z.gif"), eq(URI.create("http://x.y.z")), anyString())).thenReturn("data:image/gif;base64,AQID");
+        processor.setInliner(new Inliner(rewriteEngine, 30));
+
+        String input = "a { background: url('/x/y/z.gif') } b { background: url(/x/y/z.gif) }";
+        String expected = "a { background: url('data:image/gif;base64,AQID') } b { background: url(http://a.b.c) }";
+
+        processor.process(input, 0, input.length());
+        processor.flush();
+
+        assertEquals(expected, out.getBuffer().toString());
+    }
+
     @Test
     public void testWhiteSpace() throws IOException {
 
@@ -161,4 +176,67 @@ public class CssProcessorTest {
         assertEquals(expected, out.getBuffer().toString());
     }
 
+    @Test
+    public void testCaseInsensitive() throws IOException {
+
+        String input = "a { background: URL(/x/y/z.gif) } b { background: Url(/x/y/z.gif) } c { background: uurl(/x/y/z.gif) }";
+        String expected = "a { background: URL(http://a.b.c) } b { background: Url(http://a.b.c) } c { background: uurl(http://a.b.c) }";
+
+        processor.process(input, 0, input.length());
+        processor.flush();
+
+        assertEquals(expected, out.getBuffer().toString());
+    }
+
+    @Test
+    public void testCommentsAndStrings() throws IOException {
+
+        String input = "/* url(/x/y/z.gif) */ a { content: \"url(/x/y/z.gif)\"; font-family: 'it\\'s url(/x/y/z.gif)' }"
+                + " /** url(/x/y/z.gif) **/ b { background: url(/x/y/z.gif) }";
+        String expected = "/* url(/x/y/z.gif) */ a { content: \"url(/x/y/z.gif)\"; font-family: 'it\\'s url(/x/y/z.gif)' }"
+                + " /** url(/x/y/z.gif) **/ b { background: url(http://a.b.c) }";
+
+        processor.process(input, 0, input.length());
+        processor.flush();
+
+        assertEquals(expected, out.getBuffer().toString());
+    }
+
+    @Test
+    public void testUnterminatedStringEndsAtNewline() throws IOException {
+
+        String input = "a { content: \"abc\n background: url(/x/y/z.gif) }";
+        String expected = "a { content: \"abc\n background: url(http://a.b.c) }";
+
+        processor.process(input, 0, input.length());
+        processor.flush();
+
+        assertEquals(expected, out.getBuffer().toString());
+    }
+
+    @Test
+    public void testChunks() throws IOException {
+        when(rewriteEngine.rewrite(any(String.class), eq(URI.create("http://x.y.z")), anyString())).thenReturn("http://a.b.c");
+
+        String input;
+        String expected;
+        CharBuffer chars;
+        int length;
+
+        input = WORLD.resource("CssProcessorTest.css").readString();
+        chars = CharBuffer.wrap(input.toCharArray());
+        expected = WORLD.resource("CssProcessorTest-expected.css").readString();
+        for (int chunk = 1; chunk < 200; chunk++) {
+            out = new StringWriter();
+            processor = new CssProcessor();
+            processor.setRewriteEngine(rewriteEngine, URI.create("http://x.y.z"), "/");
+            processor.setWriter(out);
+            for (int ofs = 0; ofs < input.length(); ofs += chunk) {
+                length = Math.min(chunk, input.length() - ofs);
+                processor.process(chars, ofs, length);
+            }
+            processor.flush();
+            assertEquals("chunk " + chunk, expected, out.getBuffer().toString());
+        }
+    }
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.filter.processor;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class HtmlDispatchTest {
+    private static final HtmlDispatch DISPATCH = new HtmlDispatch(LavenderHtmlTag.values(), LavenderHtmlAttribute.values(),
+            LavenderUrlRewriteMatcher.values());
+
+    private static int tag(HtmlDispatch dispatch, String name) {
+        StringBuilder buffer;
+
+        buffer = new StringBuilder("<x ").append(name).append(' ');
+        return dispatch.tag(buffer, 3, buffer.length() - 1);
+    }
+
+    private static int attribute(HtmlDispatch dispatch, String name) {
+        StringBuilder buffer;
+
+        buffer = new StringBuilder("<x ").append(name).append('=');
+        return dispatch.attribute(buffer, 3, buffer.length() - 1);
+    }
+
+    @Test
+    public void tags() {
+        for (LavenderHtmlTag tag : LavenderHtmlTag.values()) {
+            assertSame(tag, DISPATCH.tag(tag(DISPATCH, tag.getName())));
+            assertSame(tag, DISPATCH.tag(tag(DISPATCH, tag.getName().toUpperCase())));
+        }
+        assertSame(LavenderHtmlTag.IMG, DISPATCH.tag(tag(DISPATCH, "iMg")));
+        assertNull(DISPATCH.tag(tag(DISPATCH, "im")));
+        assertNull(DISPATCH.tag(tag(DISPATCH, "imgs")));
+        assertNull(DISPATCH.tag(tag(DISPATCH, "")));
+        assertNull(DISPATCH.tag(tag(DISPATCH, "/img")));
+    }
+
+    @Test
+    public void upperCaseTagNameNeverMatches() {
+        HtmlDispatch dispatch;
+
+        dispatch = new HtmlDispatch(new HtmlTag[] { () -> "IMG" }, new HtmlAttribute[0], new UrlRewriteMatcher[0]);
+        assertNull(dispatch.tag(tag(dispatch, "img")));
+        assertNull(dispatch.tag(tag(dispatch, "IMG")));
+    }
+
+    @Test
+    public void attributes() {
+        for (LavenderHtmlAttribute attribute : LavenderHtmlAttribute.values()) {
+            if (attribute.getName() != null) {
+                assertSame(attribute, DISPATCH.attribute(attribute(DISPATCH, attribute.getName())));
+                assertSame(attribute, DISPATCH.attribute(attribute(DISPATCH, attribute.getName().toUpperCase())));
+            }
+        }
+        assertSame(LavenderHtmlAttribute.DATA_LAVENDER_ATTR, DISPATCH.attribute(attribute(DISPATCH, "data-lavender-x")));
+        assertSame(LavenderHtmlAttribute.DATA_LAVENDER_ATTR, DISPATCH.attribute(attribute(DISPATCH, "data-lavender-")));
+        assertEquals(-1, attribute(DISPATCH, "DATA-LAVENDER-x"));
+        assertEquals(-1, attribute(DISPATCH, "data-lavender"));
+        assertEquals(-1, attribute(DISPATCH, "class"));
+        assertEquals(-1, attribute(DISPATCH, "sr"));
+    }
+
+    @Test
+    public void sameAsLinearScan() {
+        HtmlAttribute[] attributes;
+        HtmlDispatch dispatch;
+        int expected;
+
+        attributes = new HtmlAttribute[] {
+                x -> x.endsWith("-src"),
+                LavenderHtmlAttribute.SRC,
+                LavenderHtmlAttribute.DATA_LAVENDER_ATTR,
+                LavenderHtmlAttribute.HREF,
+                x -> x.startsWith("data-"),
+                LavenderHtmlAttribute.SRC
+        };
+        dispatch = new HtmlDispatch(new HtmlTag[0], attributes, new UrlRewriteMatcher[0]);
+        for (String name : Arrays.asList("src", "SRC", "data-src", "data-lavender-src", "data-lavender-x", "data-x", "href", "x", "")) {
+            expected = -1;
+            for (int i = 0; i < attributes.length; i++) {
+                if (attributes[i].attributeMatches(name)) {
+                    expected = i;
+                    break;
+                }
+            }
+            assertEquals(name, expected, attribute(dispatch, name));
+        }
+    }
+
+    @Test
+    public void matchers() {
+        int img;
+        int src;
+        int other;
+
+        img = tag(DISPATCH, "img");
+        src = attribute(DISPATCH, "src");
+        other = tag(DISPATCH, "div");
+        assertArrayEquals(new UrlRewriteMatcher[] { LavenderUrlRewriteMatcher.IMG_MATCHER }, DISPATCH.matchers(img, src));
+        assertEquals(0, DISPATCH.matchers(other, src).length);
+        assertArrayEquals(new UrlRewriteMatcher[] { LavenderUrlRewriteMatcher.DATA_LAVENDER_MATCHER },
+                DISPATCH.matchers(other, attribute(DISPATCH, "data-lavender-x")));
+        assertEquals(0, DISPATCH.matchers(img, attribute(DISPATCH, "style")).length);
+    }
+}
@@ -22,8 +22,14 @@ import org.junit.Test;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.net.URI;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
@@ -60,6 +66,36 @@ public class HtmlProcessorTest {
         assertEquals(expected, out.getBuffer().toString());
     }
 
+    @Test
+    public void testReset() throws IOException {
+        String input = "<p style=\"background: url(/x/y/z)\">abc<img src='/x";
+        String expected = "<p style=\"background: url(http://a.b.c)\"><img src='http://a.b.c'>";
+        StringWriter second;
+        RewriteEngine engine;
+
+        processor.process(input, 0, input.length());
+        processor.reset();
+        engine = mock(RewriteEngine.class);
+        when(engine.rewrite(any(String.class), eq(URI.create("http://x.y.z")), anyString())).thenReturn("http://a.b.c");
+        processor.setRewriteEngine(engine, URI.create("http://x.y.z"), "/");
+        second = new StringWriter();
+        processor.setWriter(second);
+        input = "<p style=\"background: url(/x/y/z)\"><img src='/x/y/z'>";
+        processor.process(input, 0, input.length());
+        processor.flush();
+        assertEquals(expected, second.toString());
+    }
+
+    @Test
+    public void testStyleAfterUnterminatedStyle() throws IOException {
+        String input = "<p style=\"content: 'x\"><p style=\"background: url(/x/y/z)\">";
+        String expected = "<p style=\"content: 'x\"><p style=\"background: url(http://a.b.c)\">";
+
+        processor.process(input, 0, input.length());
+        processor.flush();
+        assertEquals(expected, out.getBuffer().toString());
+    }
+
     @Test
     public void testHtml5Source() throws IOException {
 
@@ -84,6 +120,108 @@ public class HtmlProcessorTest {
         assertEquals(expected, out.getBuffer().toString());
     }
 
+    /** the regex based implementation the srcset tokenizer replaced, with the replacement quoted */
+    private static final Pattern SRCSET_PATTERN = Pattern.compile("([\\t\\n\\f\\r ]*)([^,\\t\\n\\f\\r ]+)([\\t\\n\\f\\r ]*)([^,]*)(,|$)");
+
+    private static String rewriteSrcSetRegex(String value, RewriteEngine engine) {
+        Matcher elements = SRCSET_PATTERN.matcher(value);
+        StringBuffer replacement = new StringBuffer();
+        while (elements.find()) {
+            String url = elements.group(2);
+            if (!url.startsWith("data:")) {
+                url = engine.rewrite(url, null, "/");
+            }
+            elements.appendReplacement(replacement, Matcher.quoteReplacement(elements.group(1) + url + elements.group(3)
+                    + elements.group(4) + elements.group(5)));
+        }
+        elements.appendTail(replacement);
+        return replacement.toString();
+    }
+
+    @Test
+    public void testSourceSetSameAsRegex() throws IOException {
+        String[] tokens = { " ", "  ", "\t", "\n", "\f", "\r", "\u000b", ",", ",", ",", "a.png", "/x/y/z", "1x", "2.5x", "640w",
+                "data:", "data:image/png;base64,AAAA", "$1", "\\", "\u00e4.png" };
+        RewriteEngine engine = (reference, baseURI, contextPath) -> "[" + reference + "]";
+        Random random = new Random(7);
+        StringBuilder value = new StringBuilder();
+        String input;
+        StringWriter dest;
+
+        for (int i = 0; i < 10000; i++) {
+            value.setLength(0);
+            for (int j = random.nextInt(12); j >= 0; j--) {
+                value.append(tokens[random.nextInt(tokens.length)]);
+            }
+            processor = new HtmlProcessor();
+            processor.setRewriteEngine(engine, URI.create("http://x.y.z"), "/");
+            dest = new StringWriter();
+            processor.setWriter(dest);
+            input = "<img srcset=\"" + value + "\">";
+            processor.process(input, 0, input.length());
+            processor.flush();
+            assertEquals(value.toString(), "<img srcset=\"" + rewriteSrcSetRegex(value.toString(), engine) + "\">", dest.toString());
+        }
+    }
+
+    private static String repeat(String str, int count) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            result.append(str);
+        }
+        return result.toString();
+    }
+
+    @Test
+    public void testLargeValuesStreamed() throws IOException {
+        String data = "data:image/png;base64," + repeat("AAAA", 3 * HtmlProcessor.STREAM_THRESHOLD);
+        String json = "{" + repeat("\"a\": 1, ", HtmlProcessor.STREAM_THRESHOLD) + "}";
+        String input = "<link rel='stylesheet' data-json='" + json + "' href='/x/y/z'>"
+                + "<img alt=x src=\"" + data + "\" data-lavender-x='/x/y/z'>"
+                + "<script data-x=" + json.replace(" ", "") + " src='/x/y/z' type='text/javascript'>"
+                + "<a title=\"" + json.replace('"', '\'') + "\" href='/x/y/z' class='x'>";
+        String expected = "<link rel='stylesheet' data-json='" + json + "' href='http://a.b.c'>"
+                + "<img alt=x src=\"" + data + "\" data-lavender-x='http://a.b.c'>"
+                + "<script data-x=" + json.replace(" ", "") + " src='http://a.b.c' type='text/javascript'>"
+                + "<a title=\"" + json.replace('"', '\'') + "\" href='http://a.b.c' class='x'>";
+        int max = 0;
+
+        for (int i = 0; i < input.length(); i += 100) {
+            processor.process(input, i, Math.min(100, input.length() - i));
+            max = Math.max(max, ((HtmlProcessor) processor).tagBuffer.length());
+        }
+        processor.flush();
+        assertEquals(expected, out.getBuffer().toString());
+        assertTrue(max <= HtmlProcessor.STREAM_THRESHOLD + 100);
+    }
+
+    @Test
+    public void testLargeValuesAfterRewrittenValuesBuffered() throws IOException {
+        String data = repeat("y", 2 * HtmlProcessor.STREAM_THRESHOLD);
+        String input = "<link href='/a.css' data-x='" + data + "' rel='stylesheet'>"
+                + "<input src='/x/y/z' data-x='" + data + "' type='image'>";
+        String expected = "<link href='http://a.b.c' data-x='" + data + "' rel='stylesheet'>"
+                + "<input src='http://a.b.c' data-x='" + data + "' type='image'>";
+
+        for (int i = 0; i < input.length(); i += 100) {
+            processor.process(input, i, Math.min(100, input.length() - i));
+        }
+        processor.flush();
+        assertEquals(expected, out.getBuffer().toString());
+    }
+
+    @Test
+    public void testLargeRewrittenValuesBuffered() throws IOException {
+        String css = repeat("  ", HtmlProcessor.STREAM_THRESHOLD);
+        String input = "<p style=\"" + css + "background: url(/x/y/z)\"><img src='/x/y/z" + css + "'>";
+        String expected = "<p style=\"" + css + "background: url(http://a.b.c)\"><img src='http://a.b.c'>";
+
+        processor.process(input, 0, input.length());
+        processor.flush();
+        assertEquals(expected, out.getBuffer().toString());
+    }
+
+
     @Test
     public void testDataLavenderAttributes() throws IOException {
         String input = "<a src='/x/y/z' data-lavender-a='x/y/z' data-lavender-2='x/y/z' >";
@@ -346,6 +484,9 @@ public class HtmlProcessorTest {
 
         processor.process(input, 0, input.length());
         processor.flush();
+        // the partial tag might still be rewritten
+        assertEquals("<html><body><img src='http://a.b.c' /><", out.getBuffer().toString());
+        processor.close();
 
         assertEquals(expected, out.getBuffer().toString());
     }
@@ -455,6 +596,142 @@ public class HtmlProcessorTest {
         assertEquals(expected, out.getBuffer().toString());
     }
 
+    @Test
+    public void testStyleElement() throws IOException {
+        String input = "<head><STYLE type='text/css'>\n.a { background: url(/a/b/c) } /* </p> */ .b:before { content: '<' }\n"
+                + ".c { background: url('/x/y/z') }</Style><p style='x'>url(/a/b/c)</p><style/><img src='/a/b/c'>"
+                + "<style>.d { background: url(/a/b/c) }</style >";
+        String expected = "<head><STYLE type='text/css'>\n.a { background: url(http://a.b.c) } /* </p> */ .b:before { content: '<' }\n"
+                + ".c { background: url('http://a.b.c') }</Style><p style='x'>url(/a/b/c)</p><style/><img src='http://a.b.c'>"
+                + "<style>.d { background: url(http://a.b.c) }</style >";
+        int flushAt = input.indexOf("/x/y") + 2;
+        StringWriter dest;
+
+        for (int chunk = 1; chunk <= input.length(); chunk++) {
+            processor.reset();
+            processor.setRewriteEngine((reference, baseURI, contextPath) -> "http://a.b.c", URI.create("http://x.y.z"), "/");
+            dest = new StringWriter();
+            processor.setWriter(dest);
+            for (int i = 0; i < input.length(); i += chunk) {
+                processor.process(input, i, Math.min(chunk, input.length() - i));
+                if (i < flushAt && i + chunk >= flushAt) {
+                    // an application flush in the middle of a url
+                    processor.flush();
+                }
+            }
+            processor.flush();
+            assertEquals("chunk " + chunk, expected, dest.toString());
+        }
+    }
+
+    @Test
+    public void testUnterminatedStyleElement() throws IOException {
+        String input = "<style>.a { background: url(/a/b/c) } </st";
+        String expected = "<style>.a { background: url(http://a.b.c) } </st";
+
+        processor.process(input, 0, input.length());
+        processor.flush();
+        assertEquals("<style>.a { background: url(http://a.b.c) } ", out.getBuffer().toString());
+        processor.close();
+        assertEquals(expected, out.getBuffer().toString());
+    }
+
+
+    @Test
+    public void testAttributeWithoutValue() throws IOException {
+        String input = "<input disabled><img src='/x/y/z' hidden>";
+        String expected = "<input disabled><img src='http://a.b.c' hidden>";
+
+        processor.process(input, 0, input.length());
+        processor.flush();
+        assertEquals(expected, out.getBuffer().toString());
+    }
+
+    @Test
+    public void testPreloads() throws IOException {
+        HtmlProcessor html;
+        Preloads preloads;
+        String input;
+
+        html = new HtmlProcessor();
+        html.setRewriteEngine((reference, baseURI, contextPath) -> reference.startsWith("/") ? "http://cdn" + reference : reference,
+                URI.create("http://x.y.z"), "/");
+        html.setWriter(out);
+        preloads = new Preloads(2, 1);
+        html.setPreloads(preloads);
+        input = "<head><link rel='icon' href='/favicon.ico'><link href='/a.css' rel='stylesheet'><script src='/a.js'></script>"
+                + "<script src='/a.js'></script><script src='b.js'></script><script src='/c.js'></script></head>"
+                + "<body><img src='/x.png' data-lavender-src='/y.png'><img src='/z.png'><a href='/p.html'>x</a></body>";
+        html.process(input, 0, input.length());
+        html.flush();
+        assertEquals(Arrays.asList("<http://cdn/a.css>; rel=preload; as=style", "<http://cdn/a.js>; rel=preload; as=script",
+                "<http://cdn/x.png>; rel=preload; as=image"), preloads.getLinks());
+        html.reset();
+        html.setRewriteEngine((reference, baseURI, contextPath) -> "http://cdn" + reference, URI.create("http://x.y.z"), "/");
+        html.setWriter(out);
+        html.process(input, 0, input.length());
+        assertEquals(3, preloads.getLinks().size());
+    }
+
+    @Test
+    public void testPreconnects() throws IOException {
+        HtmlProcessor html;
+        Preloads preloads;
+        String input;
+
+        html = new HtmlProcessor();
+        html.setRewriteEngine((reference, baseURI, contextPath) -> reference.startsWith("/")
+                ? "http://s" + reference.length() % 2 + ".cdn:8080" + reference : reference, URI.create("http://x.y.z"), "/");
+        html.setWriter(out);
+        preloads = new Preloads(0, 0, true);
+        html.setPreloads(preloads);
+        html.setPreconnects(new String[] { "http://s1.cdn", "//s2.cdn" });
+        input = "<!-- <head> --><HEAD lang='en'><title>x</title></head><head><body><img src='/a.png' srcset='/bb.png 2x'>"
+                + "<div style='background: url(/c.png)'></div><a href='b.html'>x</a><a href='http://other.host/'>y</a></body>";
+        html.process(input, 0, input.length());
+        html.flush();
+        assertEquals("<!-- <head> --><HEAD lang='en'><link rel=\"preconnect\" href=\"http://s1.cdn\"><link rel=\"dns-prefetch\" href=\"http://s1.cdn\">"
+                + "<link rel=\"preconnect\" href=\"//s2.cdn\"><link rel=\"dns-prefetch\" href=\"//s2.cdn\"><title>x</title></head><head><body>"
+                + "<img src='http://s0.cdn:8080/a.png' srcset='http://s1.cdn:8080/bb.png 2x'>"
+                + "<div style='background: url(http://s0.cdn:8080/c.png)'></div><a href='b.html'>x</a><a href='http://other.host/'>y</a></body>",
+                out.toString());
+        assertEquals(Arrays.asList("http://s0.cdn:8080", "http://s1.cdn:8080"), preloads.getOrigins());
+        assertEquals(0, preloads.getLinks().size());
+    }
+
+    @Test
+    public void testInline() throws IOException {
+        HtmlProcessor html;
+        RewriteEngine engine;
+        Inliner inliner;
+        String input;
+
+        engine = new RewriteEngine() {
+            @Override
+            public String rewrite(String reference, URI baseURI, String contextPath) {
+                return "http://cdn" + reference;
+            }
+
+            @Override
+            public String inline(String reference, URI baseURI, String contextPath) {
+                return reference.startsWith("/i") ? "data:" + reference : null;
+            }
+        };
+        html = new HtmlProcessor();
+        html.setRewriteEngine(engine, URI.create("http://x.y.z"), "/");
+        html.setWriter(out);
+        inliner = new Inliner(engine, 27);
+        html.setInliner(inliner);
+        input = "<a href='/i1'><img src=\"/i2\"></a><img src=/i3><input type='image' src='/other'><iframe src='/i4'></iframe>"
+                + "<div style='background: url(/i5)'></div><img src='/i6'><img src='/i7'>";
+        html.process(input, 0, input.length());
+        html.flush();
+        assertEquals("<a href='http://cdn/i1'><img src=\"data:/i2\"></a><img src=http://cdn/i3><input type='image' src='http://cdn/other'>"
+                + "<iframe src='http://cdn/i4'></iframe><div style='background: url(data:/i5)'></div><img src='data:/i6'><img src='http://cdn/i7'>",
+                out.toString());
+        assertEquals(3, inliner.getRemaining());
+    }
+
     @Test
     public void testEmbeddedCss() throws IOException {
 
@@ -478,4 +755,26 @@ public class HtmlProcessorTest {
 
         assertEquals(expected, out.getBuffer().toString());
     }
+
+    @Test
+    public void testChunks() throws IOException {
+
+        String input = "<!DOCTYPE html><html><!-- <img src='/a'> --><body>text <img src = '/a/b/c' alt=\"x > y\"/>"
+                + "<a href=/x/y >more</a><div style='abc url(/a/b/c);'>...</div><![CDATA[ <img src='/b'> ]]></body></html>";
+        String expected = "<!DOCTYPE html><html><!-- <img src='/a'> --><body>text <img src = 'http://a.b.c' alt=\"x > y\"/>"
+                + "<a href=http://a.b.c >more</a><div style='abc url(http://a.b.c);'>...</div><![CDATA[ <img src='/b'> ]]></body></html>";
+        char[] chars;
+        int length;
+
+        chars = ("__" + input + "__").toCharArray();
+        for (int chunk = 1; chunk <= input.length(); chunk++) {
+            setUp();
+            for (int ofs = 0; ofs < input.length(); ofs += chunk) {
+                length = Math.min(chunk, input.length() - ofs);
+                processor.process(CharBuffer.wrap(chars, 2, input.length()).slice(), ofs, length);
+            }
+            processor.flush();
+            assertEquals("chunk " + chunk, expected, out.getBuffer().toString());
+        }
+    }
 }
@@ -18,8 +18,11 @@ package net.oneandone.lavender.filter.processor;
 import org.junit.Before;
 import org.junit.Test;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class LavenderProcessorFactoryTest {
@@ -45,6 +48,53 @@ public class LavenderProcessorFactoryTest {
         assertTrue(cssProcessor instanceof CssProcessor);
     }
 
+    @Test
+    public void testSvg() {
+        Processor svg = processorFactory.createProcessor("image/svg+xml", null, "/");
+        assertTrue(svg instanceof SvgProcessor);
+        assertTrue(processorFactory.canProcess("image/svg+xml"));
+        processorFactory.releaseProcessor(svg);
+        assertSame(svg, processorFactory.createProcessor("image/svg+xml", null, "/"));
+    }
+
+    @Test
+    public void testMarker() {
+        LavenderProcessorFactory marked;
+        Processor json;
+
+        assertNull(processorFactory.createProcessor("application/json", null, "/"));
+        assertFalse(processorFactory.canProcess("text/javascript"));
+        marked = new LavenderProcessorFactory(null, "lavender:");
+        json = marked.createProcessor("application/json", null, "/");
+        assertTrue(json instanceof MarkerProcessor);
+        assertTrue(marked.createProcessor("text/javascript", null, "/") instanceof MarkerProcessor);
+        assertTrue(marked.canProcess("application/javascript"));
+        marked.releaseProcessor(json);
+        assertSame(json, marked.createProcessor("application/json", null, "/"));
+    }
+
+    @Test
+    public void testReuse() {
+        Processor html = processorFactory.createProcessor("text/html", null, "/");
+        Processor css = processorFactory.createProcessor("text/css", null, "/");
+
+        assertNotSame(html, processorFactory.createProcessor("text/html", null, "/"));
+        processorFactory.releaseProcessor(html);
+        processorFactory.releaseProcessor(css);
+        assertSame(html, processorFactory.createProcessor("text/html", null, "/"));
+        assertSame(css, processorFactory.createProcessor("text/css", null, "/"));
+        assertNotSame(html, processorFactory.createProcessor("text/html", null, "/"));
+    }
+
+    @Test
+    public void testReleaseOther() {
+        Processor other = new HtmlProcessor() {
+        };
+
+        processorFactory.releaseProcessor(other);
+        assertNotSame(other, processorFactory.createProcessor("text/html", null, "/"));
+    }
+
     @Test
     public void testUnknownContentType() {
         Processor nullProcessor = processorFactory.createProcessor("image/png", null, "/");
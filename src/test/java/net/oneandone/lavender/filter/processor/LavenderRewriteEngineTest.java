@@ -15,16 +15,26 @@
  */
 package net.oneandone.lavender.filter.processor;
 
+import net.oneandone.lavender.index.CompactIndex;
 import net.oneandone.lavender.index.Hex;
 import net.oneandone.lavender.index.Index;
+import net.oneandone.lavender.index.InlineResources;
 import net.oneandone.lavender.index.Label;
+import net.oneandone.lavender.index.MappedIndex;
+import net.oneandone.lavender.index.RuntimeIndex;
 import net.oneandone.lavender.index.Util;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
@@ -62,6 +72,144 @@ public class LavenderRewriteEngineTest {
         assertEquals("http://s1.cdn.net/out.jpg", engine.rewrite("//localhost:80/in.jpg", URI.create("http://localhost:80"), "/"));
     }
 
+    @Test
+    public void rewritePolicy() throws IOException {
+        Index index;
+        LavenderRewriteEngine single;
+        LavenderRewriteEngine subset;
+        String nodes;
+        String url;
+        int s2;
+
+        index = new Index();
+        for (int i = 0; i < 100; i++) {
+            index.add(new Label("img/" + i + ".png", "app/" + i + ".png", Util.md5(Integer.toString(i).getBytes())));
+        }
+        nodes = "http://s1.cdn.net\nhttp://s2.cdn.net\nhttp://s3.cdn.net\nhttps://s1.cdn.net/x\n";
+        single = LavenderRewriteEngine.load(CompactIndex.create(index), new ByteArrayInputStream(nodes.getBytes()), 0, RewritePolicy.parse("single"));
+        subset = LavenderRewriteEngine.load(CompactIndex.create(index), new ByteArrayInputStream(nodes.getBytes()), 0, RewritePolicy.parse("subset:2"));
+        s2 = 0;
+        for (int i = 0; i < 100; i++) {
+            assertEquals("http://s1.cdn.net/app/" + i + ".png", single.rewrite("/img/" + i + ".png", URI.create("http://localhost/"), "/"));
+            assertEquals("https://s1.cdn.net/x/app/" + i + ".png", single.rewrite("/img/" + i + ".png", URI.create("https://localhost/"), "/"));
+            url = subset.rewrite("/img/" + i + ".png", URI.create("http://localhost/"), "/");
+            assertTrue(url, url.startsWith("http://s1.cdn.net/") || url.startsWith("http://s2.cdn.net/"));
+            if (url.startsWith("http://s2.cdn.net/")) {
+                s2++;
+            }
+        }
+        assertTrue(s2 > 0 && s2 < 100);
+        assertEquals("single", single.getPolicy().toString());
+        assertEquals("subset:2", subset.getPolicy().toString());
+        assertSame(RewritePolicy.HASH, RewritePolicy.parse(" hash"));
+        assertSame(RewritePolicy.SINGLE, RewritePolicy.parse("subset:1"));
+    }
+
+    @Test
+    public void rewriteWeighted() throws IOException {
+        Index index;
+        LavenderRewriteEngine plain;
+        LavenderRewriteEngine bounded;
+        String nodes;
+        Map<String, Integer> distribution;
+
+        index = new Index();
+        for (int i = 0; i < 1000; i++) {
+            index.add(new Label("img/" + i + ".png", "app/" + i + ".png", Util.md5(Integer.toString(i).getBytes())));
+        }
+        nodes = "http://s1.cdn.net weight=3\nhttp://s2.cdn.net/\nhttps://s1.cdn.net/  weight=3\n";
+        plain = LavenderRewriteEngine.load(CompactIndex.create(index), new ByteArrayInputStream(nodes.getBytes()), 0, RewritePolicy.HASH);
+        assertEquals(3.0, plain.weight("s1.cdn.net"), 0.0);
+        distribution = plain.distribution();
+        assertTrue(distribution.toString(), distribution.get("s1.cdn.net") > 650);
+
+        bounded = LavenderRewriteEngine.load(CompactIndex.create(index), new ByteArrayInputStream(nodes.getBytes()), 0,
+                RewritePolicy.HASH.withBoundedLoad(1.0));
+        distribution = bounded.distribution();
+        assertEquals(750, (int) distribution.get("s1.cdn.net"));
+        assertEquals(250, (int) distribution.get("s2.cdn.net"));
+        bounded.precompute();
+        for (int i = 0; i < 1000; i++) {
+            // precomputed and uncached lookups agree
+            assertEquals(bounded.calculateURL(index.lookup("img/" + i + ".png"), URI.create("http://localhost/")).toString(),
+                    bounded.rewrite("/img/" + i + ".png", URI.create("http://localhost/"), "/"));
+        }
+        assertEquals("hash, bounded load 1.0", bounded.getPolicy().toString());
+    }
+
+    @Test
+    public void boundedLoadIndependentOfEntryOrder() throws IOException {
+        Index index;
+        CompactIndex compact;
+        RuntimeIndex reversed;
+        String nodes;
+        LavenderRewriteEngine forward;
+        LavenderRewriteEngine backward;
+        String path;
+
+        index = new Index();
+        for (int i = 0; i < 200; i++) {
+            index.add(new Label("img/" + i + ".png", "app/" + i + ".png", Util.md5(Integer.toString(i).getBytes())));
+        }
+        compact = CompactIndex.create(index);
+        reversed = new RuntimeIndex() {
+            public int size() {
+                return compact.size();
+            }
+
+            public int find(CharSequence originalPath) {
+                int entry;
+
+                entry = compact.find(originalPath);
+                return entry == -1 ? -1 : compact.size() - 1 - entry;
+            }
+
+            public Label label(int entry) {
+                return compact.label(compact.size() - 1 - entry);
+            }
+
+            public long memory() {
+                return 0;
+            }
+        };
+        nodes = "http://s1.cdn.net/\nhttp://s2.cdn.net/\nhttp://s3.cdn.net/\n";
+        forward = LavenderRewriteEngine.load(compact, new ByteArrayInputStream(nodes.getBytes()), 0, RewritePolicy.HASH.withBoundedLoad(1.0));
+        backward = LavenderRewriteEngine.load(reversed, new ByteArrayInputStream(nodes.getBytes()), 0, RewritePolicy.HASH.withBoundedLoad(1.0));
+        for (int i = 0; i < 200; i++) {
+            path = "/img/" + i + ".png";
+            assertEquals(path, forward.rewrite(path, URI.create("http://localhost/"), "/"),
+                    backward.rewrite(path, URI.create("http://localhost/"), "/"));
+        }
+        assertEquals(forward.distribution(), backward.distribution());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rewriteUnknownNodeOption() throws IOException {
+        LavenderRewriteEngine.load(new Index(), new ByteArrayInputStream("http://s1.cdn.net/ x=1\n".getBytes()));
+    }
+
+    @Test
+    public void inline() {
+        InlineResources inline;
+        URI base;
+
+        base = URI.create("http://localhost:80/app/page/");
+        assertNull(engine.inline("in.jpg", base, "/app/"));
+        inline = new InlineResources(100);
+        inline.add("img/a.png", new byte[] { 1, 2, 3 });
+        engine.setInlineResources(inline);
+        assertEquals("data:image/png;base64,AQID", engine.inline("../img/a.png", base, "/app/"));
+        assertEquals("data:image/png;base64,AQID", engine.inline("'/app/img/a.png'", base, "/app/"));
+        assertNull(engine.inline("../img/a.png#icon", base, "/app/"));
+        assertNull(engine.inline("img/a.png", base, "/app/"));
+        assertNull(engine.inline("..\\:x", base, "/app/"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rewritePolicyInvalid() {
+        RewritePolicy.parse("subset:0");
+    }
+
     @Test
     public void rewriteNotFound() {
         assertEquals("unknown.jpg", engine.rewrite("unknown.jpg", URI.create("http://localhost:80"), "/"));
@@ -73,6 +221,104 @@ public class LavenderRewriteEngineTest {
         assertEquals("http:", engine.rewrite("http:", URI.create("http://localhost:80/app/img/"), "/app/"));
     }
 
+    @Test
+    public void rewriteCached() {
+        URI base = URI.create("http://localhost:80/page.html");
+
+        assertEquals("http://s1.cdn.net/out.jpg", engine.rewrite("in.jpg", base, "/"));
+        assertEquals("http://s1.cdn.net/out.jpg", engine.rewrite("in.jpg", base, "/"));
+        assertEquals("unknown.jpg", engine.rewrite("unknown.jpg", base, "/"));
+        assertEquals("unknown.jpg", engine.rewrite("unknown.jpg", base, "/"));
+        assertEquals(2, engine.getCache().getHits());
+        assertEquals(2, engine.getCache().getMisses());
+    }
+
+    @Test
+    public void rewriteNotCached() {
+        URI base = URI.create("http://localhost:80/page.html");
+        String data = "data:image/png;base64,iVBORw0KGgo=";
+        String unknown = "unknown/" + new String(new char[LavenderRewriteEngine.MAX_CACHED_LENGTH]).replace('\0', 'x') + ".jpg";
+
+        assertEquals(data, engine.rewrite(data, base, "/"));
+        assertEquals(data, engine.rewrite("'" + data + "'", base, "/"));
+        assertEquals("mailto:foo@example.com", engine.rewrite("mailto:foo@example.com", base, "/"));
+        assertEquals(unknown, engine.rewrite(unknown, base, "/"));
+        assertEquals(0, engine.getCache().size());
+        assertEquals(0, engine.getCache().getMisses());
+    }
+
+    @Test
+    public void rewriteCachedRelative() {
+        assertEquals("http://s1.cdn.net/out.jpg", engine.rewrite("in.jpg", URI.create("http://localhost:80/page.html"), "/"));
+        assertEquals("in.jpg", engine.rewrite("in.jpg", URI.create("http://localhost:80/sub/page.html"), "/"));
+    }
+
+    @Test
+    public void rewriteUncached() {
+        Index index;
+
+        index = new Index();
+        index.add(new Label("in.jpg", "out.jpg", Util.md5()));
+        engine = new LavenderRewriteEngine(index, 0);
+        engine.add(URI.create("http://s1.cdn.net/"));
+        assertNull(engine.getCache());
+        assertEquals("http://s1.cdn.net/out.jpg", engine.rewrite("in.jpg", URI.create("http://localhost:80"), "/"));
+    }
+
+    @Test
+    public void rewritePrecomputed() throws IOException {
+        Index index;
+        LavenderRewriteEngine precomputed;
+        String nodes;
+
+        index = new Index();
+        for (char c = 'A'; c <= 'Z'; c++) {
+            index.add(new Label(c + ".png", "m/" + c + ".png", Util.md5((byte) c)));
+        }
+        nodes = "http://s1.uicdn.net/m1/\nhttps://s1.uicdn.net/m1/\nhttp://s2.uicdn.net:8080/m1\nhttps://s2.uicdn.net/m1/\n";
+        precomputed = LavenderRewriteEngine.load(index, new ByteArrayInputStream(nodes.getBytes(Index.ENCODING)), 0);
+        engine = new LavenderRewriteEngine(index, 0);
+        for (String node : nodes.split("\n")) {
+            engine.add(URI.create(node.endsWith("/") ? node : node + "/"));
+        }
+        for (String base : new String[] { "http://localhost/app/page.html", "https://localhost/app/page.html" }) {
+            for (char c = 'A'; c <= 'Z'; c++) {
+                assertEquals(engine.rewrite("/app/" + c + ".png", URI.create(base), "/app/"),
+                        precomputed.rewrite("/app/" + c + ".png", URI.create(base), "/app/"));
+                assertEquals(engine.rewrite(c + ".png?x=1", URI.create(base), "/app/"),
+                        precomputed.rewrite(c + ".png?x=1", URI.create(base), "/app/"));
+            }
+        }
+        assertEquals("unknown.jpg", precomputed.rewrite("unknown.jpg", URI.create("https://localhost/app/"), "/app/"));
+    }
+
+    @Test
+    public void rewritePrecomputedWithoutHttpsNode() throws IOException {
+        Index index;
+
+        index = new Index();
+        index.add(new Label("in.jpg", "out.jpg", Util.md5()));
+        engine = LavenderRewriteEngine.load(index, new ByteArrayInputStream("http://s1.cdn.net/\n".getBytes(Index.ENCODING)));
+        assertEquals("http://s1.cdn.net/out.jpg", engine.rewrite("in.jpg", URI.create("http://localhost:80"), "/"));
+        engine.add(URI.create("http://s2.cdn.net/"));
+        assertEquals("http://s1.cdn.net/out.jpg", engine.rewrite("in.jpg", URI.create("http://localhost:80"), "/"));
+    }
+
+    @Test
+    public void rewriteMapped() throws IOException {
+        Index index;
+        ByteArrayOutputStream binary;
+
+        index = new Index();
+        index.add(new Label("in.jpg", "out.jpg", Util.md5()));
+        binary = new ByteArrayOutputStream();
+        MappedIndex.save(index, Util.md5(), binary);
+        engine = LavenderRewriteEngine.load(new MappedIndex("test", ByteBuffer.wrap(binary.toByteArray())),
+                new ByteArrayInputStream("http://s1.cdn.net/\nhttps://s1.cdn.net/\n".getBytes(Index.ENCODING)), 100);
+        assertEquals("https://s1.cdn.net/out.jpg", engine.rewrite("in.jpg", URI.create("https://localhost:80"), "/"));
+        assertEquals("unknown.jpg", engine.rewrite("unknown.jpg", URI.create("http://localhost:80"), "/"));
+    }
+
     @Test
     public void noRewriteOfAbsoulteURI() {
         URI reference = URI.create("http://x.y.z:1234/index.html");
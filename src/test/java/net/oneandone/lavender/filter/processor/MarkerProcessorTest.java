@@ -0,0 +1,112 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.filter.processor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URI;
+
+import static org.junit.Assert.assertEquals;
+
+public class MarkerProcessorTest {
+
+    protected StringWriter out;
+    protected Processor processor;
+
+    @Before
+    public void setUp() {
+        processor = new MarkerProcessor();
+        processor.setRewriteEngine((reference, baseURI, contextPath) -> reference.startsWith("/img/") ? "http://a.b.c" + reference : reference,
+                URI.create("http://x.y.z"), "/");
+        out = new StringWriter();
+        processor.setWriter(out);
+    }
+
+    private void check(String input, String expected) throws IOException {
+        processor.process(input, 0, input.length());
+        processor.flush();
+        assertEquals(expected, out.getBuffer().toString());
+    }
+
+    @Test
+    public void testJson() throws IOException {
+        check("{\"logo\": \"lavender:/img/logo.png\", \"name\": \"lavender\", \"icons\": [\"lavender:/img/a.png\", \"/img/b.png\"]}",
+              "{\"logo\": \"http://a.b.c/img/logo.png\", \"name\": \"lavender\", \"icons\": [\"http://a.b.c/img/a.png\", \"/img/b.png\"]}");
+    }
+
+    @Test
+    public void testJavascript() throws IOException {
+        check("var a = 'lavender:/img/a.png', b = `lavender:/img/b.png`; // don't 'lavender:/img/c.png'\n"
+                + "/* it's \"lavender:/img/d.png\" */ var e = x / 2 + \"lavender:/img/e.png\";",
+              "var a = 'http://a.b.c/img/a.png', b = `http://a.b.c/img/b.png`; // don't 'lavender:/img/c.png'\n"
+                + "/* it's \"lavender:/img/d.png\" */ var e = x / 2 + \"http://a.b.c/img/e.png\";");
+    }
+
+    @Test
+    public void testMarkerOnlyAtStart() throws IOException {
+        check("['see lavender:/img/a.png', 'lavender', 'lavendel:/img/b.png', 'lavender:', \"it's\", 'lavender:/img/c.png']",
+              "['see lavender:/img/a.png', 'lavender', 'lavendel:/img/b.png', 'lavender:', \"it's\", 'http://a.b.c/img/c.png']");
+    }
+
+    @Test
+    public void testMarkerRemoved() throws IOException {
+        check("\"lavender:/css/unknown.css\"", "\"/css/unknown.css\"");
+    }
+
+    @Test
+    public void testEscapes() throws IOException {
+        check("[\"lavender:\\/img\\/a.png\", \"a \\\"lavender:/img/b.png\\\"\", \"lavender:\\/other\\/c.png\", \"\\\\\", \"lavender:/img/d.png\"]",
+              "[\"http://a.b.c/img/a.png\", \"a \\\"lavender:/img/b.png\\\"\", \"\\/other\\/c.png\", \"\\\\\", \"http://a.b.c/img/d.png\"]");
+        assertEquals("/img/ä.png", MarkerProcessor.unescape("\\/img\\/\\u00e4.png"));
+        assertEquals("u12", MarkerProcessor.unescape("\\u12"));
+    }
+
+    @Test
+    public void testUnterminated() throws IOException {
+        check("var a = 'lavender:/img/a.png\nvar b = 'lavender:/img/b.png", "var a = 'lavender:/img/a.png\nvar b = 'lavender:/img/b.png");
+    }
+
+    @Test
+    public void testLongLiteral() throws IOException {
+        StringBuilder value;
+
+        value = new StringBuilder("/img/");
+        while (value.length() <= MarkerProcessor.MAX_URL) {
+            value.append("abcdefgh");
+        }
+        check("'lavender:" + value + "' 'lavender:/img/a.png'", "'lavender:" + value + "' 'http://a.b.c/img/a.png'");
+    }
+
+    @Test
+    public void testChunks() throws IOException {
+        String input;
+        String expected;
+
+        input = "// '\nvar a = {\"x\": \"lavender:\\/img\\/a.png\", 'y': 'lavender:/img/b.png'}; /* ' */ c = `lavender:/img/c.png`;";
+        expected = "// '\nvar a = {\"x\": \"http://a.b.c/img/a.png\", 'y': 'http://a.b.c/img/b.png'}; /* ' */ c = `http://a.b.c/img/c.png`;";
+        for (int size = 1; size <= input.length(); size++) {
+            setUp();
+            for (int i = 0; i < input.length(); i += size) {
+                processor.process(input, i, Math.min(size, input.length() - i));
+            }
+            processor.flush();
+            assertEquals("chunk size " + size, expected, out.getBuffer().toString());
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.filter.processor;
+
+import org.junit.Test;
+
+import java.net.URI;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RewriteCacheTest {
+    private static final URI BASE = URI.create("http://localhost:80/app/img/page.html");
+
+    @Test
+    public void hitAndMiss() {
+        RewriteCache cache = new RewriteCache(100);
+        RewriteCache.Key key = RewriteCache.Key.create("a.gif", BASE, "/app/");
+
+        assertNull(cache.get(key));
+        cache.put(key, "http://s1.cdn.net/a.gif");
+        assertEquals("http://s1.cdn.net/a.gif", cache.get(RewriteCache.Key.create("a.gif", BASE, "/app/")));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void bounded() {
+        RewriteCache cache = new RewriteCache(32);
+
+        for (int i = 0; i < 1000; i++) {
+            cache.put(RewriteCache.Key.create("img" + i + ".gif", BASE, "/app/"), "x");
+        }
+        assertTrue(cache.size() <= 32);
+        assertEquals(1000 - cache.size(), cache.getEvictions());
+    }
+
+    @Test
+    public void relativeReferencesDependOnBaseDirectory() {
+        assertEquals(key("a.gif", "http://localhost/app/img/one.html"), key("a.gif", "http://localhost/app/img/two.html"));
+        assertNotEquals(key("a.gif", "http://localhost/app/img/one.html"), key("a.gif", "http://localhost/app/css/one.html"));
+        assertNotEquals(key("?a=b", "http://localhost/app/img/one.html"), key("?a=b", "http://localhost/app/img/two.html"));
+    }
+
+    @Test
+    public void absoluteReferencesIgnoreBasePath() {
+        assertEquals(key("/app/a.gif", "http://localhost/app/img/one.html"), key("/app/a.gif", "http://localhost/app/css/two.html"));
+        assertEquals(key("http://localhost/app/a.gif", "http://localhost/app/img/one.html"),
+                key("http://localhost/app/a.gif", "http://localhost/app/css/two.html"));
+    }
+
+    @Test
+    public void schemeHostAndContext() {
+        assertNotEquals(key("/a.gif", "http://localhost/"), key("/a.gif", "https://localhost/"));
+        assertNotEquals(key("/a.gif", "http://localhost/"), key("/a.gif", "http://otherhost/"));
+        assertNotEquals(RewriteCache.Key.create("/a.gif", BASE, "/"), RewriteCache.Key.create("/a.gif", BASE, "/app/"));
+    }
+
+    private static RewriteCache.Key key(String reference, String base) {
+        return RewriteCache.Key.create(reference, URI.create(base), "/");
+    }
+}
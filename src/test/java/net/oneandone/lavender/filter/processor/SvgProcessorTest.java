@@ -0,0 +1,76 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.filter.processor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URI;
+
+import static org.junit.Assert.assertEquals;
+
+public class SvgProcessorTest {
+
+    protected StringWriter out;
+    protected Processor processor;
+
+    @Before
+    public void setUp() {
+        processor = new SvgProcessor();
+        processor.setRewriteEngine((reference, baseURI, contextPath) -> reference.startsWith("/") ? "http://a.b.c" + reference : reference,
+                URI.create("http://x.y.z"), "/");
+        out = new StringWriter();
+        processor.setWriter(out);
+    }
+
+    private void check(String input, String expected) throws IOException {
+        processor.process(input, 0, input.length());
+        processor.flush();
+        assertEquals(expected, out.getBuffer().toString());
+    }
+
+    @Test
+    public void testImage() throws IOException {
+        check("<svg xmlns='http://www.w3.org/2000/svg' xmlns:xlink='http://www.w3.org/1999/xlink'>"
+                + "<image href='/img/a.png' width='10'/><image xlink:href=\"/img/b.png\"/><image href='data:image/png;base64,AAAA'/>"
+                + "<filter><feImage xlink:href='/img/c.png'/></filter></svg>",
+              "<svg xmlns='http://www.w3.org/2000/svg' xmlns:xlink='http://www.w3.org/1999/xlink'>"
+                + "<image href='http://a.b.c/img/a.png' width='10'/><image xlink:href=\"http://a.b.c/img/b.png\"/>"
+                + "<image href='data:image/png;base64,AAAA'/><filter><feImage xlink:href='http://a.b.c/img/c.png'/></filter></svg>");
+    }
+
+    @Test
+    public void testLinksAndScripts() throws IOException {
+        check("<a xlink:href='/page.html'><text>x</text></a><script href='/js/a.js'/>",
+              "<a xlink:href='http://a.b.c/page.html'><text>x</text></a><script href='http://a.b.c/js/a.js'/>");
+    }
+
+    @Test
+    public void testUseNotRewritten() throws IOException {
+        check("<use href='/img/sprite.svg#icon'/><use xlink:href='#icon'/><path d='M0 0' src='/x.png'/>",
+              "<use href='/img/sprite.svg#icon'/><use xlink:href='#icon'/><path d='M0 0' src='/x.png'/>");
+    }
+
+    @Test
+    public void testStyle() throws IOException {
+        check("<?xml version=\"1.0\"?><svg><style><![CDATA[ .a { fill: url(#g); background: url(/img/a.png) } ]]></style>"
+                + "<rect style='filter: url(/img/f.svg)'/></svg>",
+              "<?xml version=\"1.0\"?><svg><style><![CDATA[ .a { fill: url(#g); background: url(http://a.b.c/img/a.png) } ]]></style>"
+                + "<rect style='filter: url(http://a.b.c/img/f.svg)'/></svg>");
+    }
+}
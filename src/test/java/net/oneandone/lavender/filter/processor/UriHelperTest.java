@@ -18,9 +18,13 @@ package net.oneandone.lavender.filter.processor;
 import org.junit.Test;
 
 import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class UriHelperTest {
 
@@ -29,6 +33,14 @@ public class UriHelperTest {
         assertEquals("img/close.gif", doResolve("img/close.gif", "http://localhost:80", "/"));
     }
 
+    @Test
+    public void resolveEmptyBasePath() throws URISyntaxException {
+        // RFC 3986, on every Java version
+        assertEquals("/appapp/", doResolve("appapp/", "http://localhost:80", "/x/"));
+        assertEquals("/appapp/", UriHelper.resolvePathWithoutContext("appapp/", URI.create("http://localhost:80"), "/x/"));
+        assertEquals("/a/b", UriHelper.resolvePathWithoutContext("a/./b", URI.create("http://localhost:80"), "/x/"));
+    }
+
     @Test
     public void resolveNullPath() {
         assertNull(doResolve("mailto:michael.hartmeier@1und1.de", "http://localhost:80", "/"));
@@ -64,7 +76,80 @@ public class UriHelperTest {
         assertEquals("img/close.gif", doResolve("../img/close.gif", "http://localhost:80/app/img/", "/app/"));
     }
 
+    @Test
+    public void resolveString() throws URISyntaxException {
+        URI base = URI.create("http://localhost:80/app/img/");
+
+        assertEquals("img/close.gif", UriHelper.resolvePathWithoutContext("/app/img/close.gif", base, "/app/"));
+        assertEquals("img/close.gif", UriHelper.resolvePathWithoutContext("close.gif?x=1#y", base, "/app/"));
+        assertEquals("img/close.gif", UriHelper.resolvePathWithoutContext("../img/./close.gif", base, "/app/"));
+        assertEquals("img/close.gif", UriHelper.resolvePathWithoutContext("//cdn/app/img/close.gif", base, "/app/"));
+        assertEquals("img/close.gif", UriHelper.resolvePathWithoutContext("http://other:8080/app/img/close.gif", base, "/app/"));
+        assertEquals("/other/../img/close.gif", UriHelper.resolvePathWithoutContext("/other/../img/close.gif", base, "/app/"));
+        assertEquals("img/a b.gif", UriHelper.resolvePathWithoutContext("a%20b.gif", base, "/app/"));
+        assertEquals("img/\u00e4.gif", UriHelper.resolvePathWithoutContext("\u00e4.gif", base, "/app/"));
+        assertNull(UriHelper.resolvePathWithoutContext("mailto:michael.hartmeier@1und1.de", base, "/app/"));
+        assertNull(UriHelper.resolvePathWithoutContext("data:image/png;base64,AAAA", base, "/app/"));
+    }
+
+    @Test(expected = URISyntaxException.class)
+    public void resolveStringInvalid() throws URISyntaxException {
+        UriHelper.resolvePathWithoutContext("img/a b.gif", URI.create("http://localhost/"), "/");
+    }
+
+    /** differential test: the string variant must return the same as the URI variant, or fail the same way */
+    @Test
+    public void resolveStringSameAsUri() {
+        // the first tokens are handled by the fast path, every other reference uses only these
+        int simple = 22;
+        String[] tokens = { "/", "/", "/", "//", ".", "..", "./", "../", "a", "img", "app", "x.png", ":", "?", "#", "=", "&",
+                "http:", "mailto:", "@", "host:80", "\u00e4", "%20", "%2F", "%", " ", "\u00a0", "\t", "HTTP:", "h1+.-:", "1a:", "data:",
+                "[", "]", "~", "-", "'", "\\", "|", "user@host" };
+        String[] bases = { "http://localhost:80", "http://localhost:80/", "http://localhost/app/", "http://localhost/app/img/x.html",
+                "https://localhost/a%20b/c/", "http://localhost/x/../app/", "http://localhost/a:b/", "http://[::1]/app/" };
+        String[] contextPaths = { "/", "/app/", "/a b/" };
+        Random random = new Random(42);
+        StringBuilder builder = new StringBuilder();
+        String reference;
+        URI base;
+        String contextPath;
+        String expected;
+        String actual;
+
+        for (int i = 0; i < 200000; i++) {
+            builder.setLength(0);
+            for (int j = random.nextInt(8); j >= 0; j--) {
+                builder.append(tokens[random.nextInt(i % 2 == 0 ? simple : tokens.length)]);
+            }
+            reference = builder.toString();
+            base = URI.create(bases[random.nextInt(bases.length)]);
+            contextPath = contextPaths[random.nextInt(contextPaths.length)];
+            try {
+                expected = UriHelper.resolvePathWithoutContext(new URI(reference), base, contextPath);
+            } catch (URISyntaxException e) {
+                expected = "invalid";
+            }
+            try {
+                actual = UriHelper.resolvePathWithoutContext(reference, base, contextPath);
+            } catch (URISyntaxException e) {
+                actual = "invalid";
+            }
+            assertEquals(reference + " against " + base + ", " + contextPath, expected, actual);
+        }
+    }
+
     private String doResolve(String reference, String baseUri, String contextPath) {
         return UriHelper.resolvePathWithoutContext(URI.create(reference), URI.create(baseUri), contextPath);
     }
+
+    @Test
+    public void opaque() {
+        assertTrue(UriHelper.isOpaque("data:image/png;base64,abc"));
+        assertTrue(UriHelper.isOpaque("mailto:foo@example.com"));
+        assertFalse(UriHelper.isOpaque("http://localhost/a.png"));
+        assertFalse(UriHelper.isOpaque("http:"));
+        assertFalse(UriHelper.isOpaque("a.png"));
+        assertFalse(UriHelper.isOpaque("a/b:c.png"));
+        assertFalse(UriHelper.isOpaque("#top"));
+    }
 }
@@ -0,0 +1,96 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.filter.pt;
+
+import net.oneandone.lavender.filter.processor.ConsistentHash;
+import net.oneandone.lavender.index.Util;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+@Ignore
+public class ConsistentHashPT {
+    private static final String[] NODES = { "s1.uicdn.net", "s2.uicdn.net", "s3.uicdn.net", "s4.uicdn.net" };
+    private static final int HASHES = 10000;
+    private static final int LOOPS = 1000;
+
+    @Test
+    public void testTailMap() {
+        SortedMap<Integer, String> circle;
+        byte[][] md5s;
+        byte[] md5;
+        int count;
+
+        circle = new TreeMap<>();
+        for (String node : NODES) {
+            for (int i = 0; i < 200; i++) {
+                md5 = ConsistentHash.md5(node + "-" + i);
+                circle.put(key(md5), node);
+            }
+        }
+        md5s = md5s();
+        count = 0;
+        long t0 = System.currentTimeMillis();
+        for (int x = 0; x < LOOPS; x++) {
+            for (byte[] m : md5s) {
+                SortedMap<Integer, String> tailMap = circle.tailMap(key(m));
+                count += circle.get(tailMap.isEmpty() ? circle.firstKey() : tailMap.firstKey()).length();
+            }
+        }
+        long t1 = System.currentTimeMillis();
+        report("TreeMap.tailMap", t1 - t0, count);
+    }
+
+    @Test
+    public void testFrozenRing() {
+        ConsistentHash ch;
+        byte[][] md5s;
+        int count;
+
+        ch = new ConsistentHash(200, NODES);
+        md5s = md5s();
+        count = 0;
+        long t0 = System.currentTimeMillis();
+        for (int x = 0; x < LOOPS; x++) {
+            for (byte[] m : md5s) {
+                count += ch.getNodeForHash(m).length();
+            }
+        }
+        long t1 = System.currentTimeMillis();
+        report("ConsistentHash", t1 - t0, count);
+    }
+
+    private static byte[][] md5s() {
+        byte[][] result;
+
+        result = new byte[HASHES][];
+        for (int i = 0; i < HASHES; i++) {
+            result[i] = Util.md5(Integer.toString(i).getBytes());
+        }
+        return result;
+    }
+
+    private static int key(byte[] md5) {
+        return (md5[0] & 0xFF) << 24 | (md5[1] & 0xFF) << 16 | (md5[2] & 0xFF) << 8 | (md5[3] & 0xFF);
+    }
+
+    private static void report(String name, long t, int count) {
+        long lookupsPerSec = 1000L * HASHES * LOOPS / Math.max(1, t);
+        System.out.println(name + ": t=" + t + ", " + lookupsPerSec + " lookups/s (" + count + ")");
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.filter.pt;
+
+import net.oneandone.lavender.filter.processor.CssProcessor;
+import net.oneandone.lavender.filter.processor.Processor;
+import net.oneandone.lavender.filter.processor.RewriteEngine;
+import net.oneandone.sushi.fs.World;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.CharBuffer;
+
+/**
+ * Measures CssProcessor throughput for the CssProcessorTest stylesheet, fed in 8k chunks like LavendelizeWriter does.
+ */
+@Ignore
+public class CssProcessorPT {
+    private static final int LOOPS = 10000;
+    private static final int CHUNK = 8192;
+
+    @Test
+    public void testCss() throws IOException {
+        RewriteEngine engine;
+        char[] css;
+
+        engine = (uri, baseURI, contextPath) -> "http://s1.cdn.net/" + uri;
+        css = World.createMinimal().resource("CssProcessorTest.css").readString().toCharArray();
+        run(engine, css, LOOPS / 4);
+        for (int round = 0; round < 5; round++) {
+            long t0 = System.currentTimeMillis();
+            run(engine, css, LOOPS);
+            long t1 = System.currentTimeMillis();
+            long t = t1 - t0;
+            long charsPerSec = 1000L * css.length * LOOPS / Math.max(1, t);
+            System.out.println("CssProcessor: t=" + t + ", " + charsPerSec + " chars/s");
+        }
+    }
+
+    private static void run(RewriteEngine engine, char[] css, int loops) throws IOException {
+        Processor processor;
+        int length;
+
+        for (int x = 0; x < loops; x++) {
+            processor = new CssProcessor();
+            processor.setRewriteEngine(engine, URI.create("http://localhost:8080/app/page.html"), "/app/");
+            processor.setWriter(NULL);
+            for (int ofs = 0; ofs < css.length; ofs += CHUNK) {
+                length = Math.min(CHUNK, css.length - ofs);
+                processor.process(CharBuffer.wrap(css), ofs, length);
+            }
+            processor.close();
+        }
+    }
+
+    private static final Writer NULL = new Writer() {
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+        }
+
+        @Override
+        public void write(int c) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.filter.pt;
+
+import net.oneandone.lavender.filter.processor.HtmlProcessor;
+import net.oneandone.lavender.filter.processor.LavenderRewriteEngine;
+import net.oneandone.lavender.filter.processor.Processor;
+import net.oneandone.lavender.index.Index;
+import net.oneandone.lavender.index.Label;
+import net.oneandone.lavender.index.Util;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.CharBuffer;
+
+/**
+ * Measures HtmlProcessor throughput for a text-heavy page, fed in 8k chunks like LavendelizeWriter does.
+ */
+@Ignore
+public class HtmlProcessorPT {
+    private static final int LOOPS = 2000;
+    private static final int CHUNK = 8192;
+
+    @Test
+    public void testHtml() throws IOException {
+        LavenderRewriteEngine engine;
+        char[] page;
+
+        engine = engine();
+        page = page().toCharArray();
+        run(engine, page, LOOPS / 4);
+        for (int round = 0; round < 5; round++) {
+            long t0 = System.currentTimeMillis();
+            run(engine, page, LOOPS);
+            long t1 = System.currentTimeMillis();
+            long t = t1 - t0;
+            long charsPerSec = 1000L * page.length * LOOPS / Math.max(1, t);
+            System.out.println("HtmlProcessor: t=" + t + ", " + charsPerSec + " chars/s");
+        }
+    }
+
+    private static void run(LavenderRewriteEngine engine, char[] page, int loops) throws IOException {
+        Processor processor;
+        int length;
+
+        for (int x = 0; x < loops; x++) {
+            processor = new HtmlProcessor();
+            processor.setRewriteEngine(engine, URI.create("http://localhost:8080/app/page.html"), "/app/");
+            processor.setWriter(NULL);
+            for (int ofs = 0; ofs < page.length; ofs += CHUNK) {
+                length = Math.min(CHUNK, page.length - ofs);
+                processor.process(CharBuffer.wrap(page), ofs, length);
+            }
+            processor.close();
+        }
+    }
+
+    private static LavenderRewriteEngine engine() {
+        Index index;
+        LavenderRewriteEngine result;
+
+        index = new Index();
+        for (int i = 0; i < 100; i++) {
+            index.add(new Label("img/" + i + ".png", "app/" + i + ".png", Util.md5(Integer.toString(i).getBytes())));
+        }
+        result = new LavenderRewriteEngine(index);
+        result.add(URI.create("http://s1.cdn.net/"));
+        result.add(URI.create("http://s2.cdn.net/"));
+        result.precompute();
+        return result;
+    }
+
+    /** roughly 100k chars, mostly text, with links, images and inline styles */
+    private static String page() {
+        StringBuilder result;
+
+        result = new StringBuilder();
+        result.append("<!DOCTYPE html>\n<html><head><title>Lavender</title>\n");
+        result.append("<link rel='stylesheet' href='css/main.css'/><script type='text/javascript' src='js/main.js'></script></head>\n<body>\n");
+        for (int i = 0; i < 200; i++) {
+            result.append("<div class=\"teaser\" id=\"t").append(i).append("\">\n");
+            result.append("  <h2>Headline number ").append(i).append("</h2>\n");
+            result.append("  <p>Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor incididunt ut labore et dolore magna");
+            result.append(" aliqua. Ut enim ad minim veniam, quis nostrud exercitation ullamco laboris nisi ut aliquip ex ea commodo consequat.");
+            result.append(" Duis aute irure dolor in reprehenderit in voluptate velit esse cillum dolore eu fugiat nulla pariatur.</p>\n");
+            result.append("  <a href=\"page").append(i).append(".html\"><img src=\"img/").append(i % 100).append(".png\" alt=\"teaser\"></a>\n");
+            result.append("  <span style=\"background: url(img/").append(i % 100).append(".png)\">more</span>\n");
+            result.append("</div>\n");
+        }
+        result.append("</body></html>\n");
+        return result.toString();
+    }
+
+    private static final Writer NULL = new Writer() {
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+        }
+
+        @Override
+        public void write(int c) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.filter.pt;
+
+import net.oneandone.lavender.filter.processor.LavenderProcessorFactory;
+import net.oneandone.lavender.filter.processor.LavenderRewriteEngine;
+import net.oneandone.lavender.filter.processor.Processor;
+import net.oneandone.lavender.index.Index;
+import net.oneandone.lavender.index.Label;
+import net.oneandone.lavender.index.Util;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.CharBuffer;
+
+/**
+ * Measures the bytes allocated per html response, with and without releasing processors to the factory.
+ * Uses the allocation counter of the current thread, which is available on HotSpot.
+ */
+@Ignore
+public class ProcessorAllocationPT {
+    private static final int LOOPS = 20000;
+    private static final URI BASE = URI.create("http://localhost:8080/app/page.html");
+
+    @Test
+    public void testAllocation() throws IOException {
+        LavenderProcessorFactory factory;
+        char[] page;
+
+        factory = new LavenderProcessorFactory(engine());
+        page = page().toCharArray();
+        run(factory, page, LOOPS / 4, false);
+        run(factory, page, LOOPS / 4, true);
+        for (int round = 0; round < 5; round++) {
+            report("new", factory, page, false);
+            report("released", factory, page, true);
+        }
+    }
+
+    private static void report(String name, LavenderProcessorFactory factory, char[] page, boolean release) throws IOException {
+        long b0 = allocated();
+        long t0 = System.currentTimeMillis();
+        run(factory, page, LOOPS, release);
+        long t = System.currentTimeMillis() - t0;
+        long bytes = allocated() - b0;
+        System.out.println(name + ": t=" + t + ", " + (bytes / LOOPS) + " bytes/response");
+    }
+
+    private static long allocated() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static void run(LavenderProcessorFactory factory, char[] page, int loops, boolean release) throws IOException {
+        Processor processor;
+        CharBuffer buffer;
+
+        buffer = CharBuffer.wrap(page);
+        for (int x = 0; x < loops; x++) {
+            processor = factory.createProcessor("text/html", BASE, "/app/");
+            processor.setWriter(NULL);
+            processor.process(buffer, 0, page.length);
+            processor.close();
+            if (release) {
+                factory.releaseProcessor(processor);
+            }
+        }
+    }
+
+    private static LavenderRewriteEngine engine() {
+        Index index;
+        LavenderRewriteEngine result;
+
+        index = new Index();
+        for (int i = 0; i < 100; i++) {
+            index.add(new Label("img/" + i + ".png", "app/" + i + ".png", Util.md5(Integer.toString(i).getBytes())));
+        }
+        result = new LavenderRewriteEngine(index);
+        result.add(URI.create("http://s1.cdn.net/"));
+        result.add(URI.create("http://s2.cdn.net/"));
+        result.precompute();
+        return result;
+    }
+
+    /** small page with links, images and inline styles */
+    private static String page() {
+        StringBuilder result;
+
+        result = new StringBuilder();
+        result.append("<!DOCTYPE html>\n<html><head><title>Lavender</title>\n");
+        result.append("<link rel='stylesheet' href='css/main.css'/></head>\n<body>\n");
+        for (int i = 0; i < 10; i++) {
+            result.append("<div class=\"teaser\" id=\"t").append(i).append("\">\n");
+            result.append("  <p>Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor incididunt ut labore.</p>\n");
+            result.append("  <a href=\"page").append(i).append(".html\"><img src=\"img/").append(i).append(".png\" alt=\"teaser\"></a>\n");
+            result.append("  <span style=\"background: url(img/").append(i).append(".png)\">more</span>\n");
+            result.append("</div>\n");
+        }
+        result.append("</body></html>\n");
+        return result.toString();
+    }
+
+    private static final Writer NULL = new Writer() {
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+        }
+
+        @Override
+        public void write(int c) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+}
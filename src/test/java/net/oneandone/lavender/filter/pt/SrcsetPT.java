@@ -0,0 +1,132 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.filter.pt;
+
+import net.oneandone.lavender.filter.processor.HtmlProcessor;
+import net.oneandone.lavender.filter.processor.LavenderRewriteEngine;
+import net.oneandone.lavender.filter.processor.Processor;
+import net.oneandone.lavender.index.Index;
+import net.oneandone.lavender.index.Label;
+import net.oneandone.lavender.index.Util;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.CharBuffer;
+
+/**
+ * Measures HtmlProcessor throughput for a page with many responsive images, fed in 8k chunks like LavendelizeWriter does.
+ */
+@Ignore
+public class SrcsetPT {
+    private static final int LOOPS = 2000;
+    private static final int CHUNK = 8192;
+
+    @Test
+    public void testHtml() throws IOException {
+        LavenderRewriteEngine engine;
+        char[] page;
+
+        engine = engine();
+        page = page().toCharArray();
+        run(engine, page, LOOPS / 4);
+        for (int round = 0; round < 5; round++) {
+            long t0 = System.currentTimeMillis();
+            run(engine, page, LOOPS);
+            long t1 = System.currentTimeMillis();
+            long t = t1 - t0;
+            long charsPerSec = 1000L * page.length * LOOPS / Math.max(1, t);
+            System.out.println("srcset: t=" + t + ", " + charsPerSec + " chars/s");
+        }
+    }
+
+    private static void run(LavenderRewriteEngine engine, char[] page, int loops) throws IOException {
+        Processor processor;
+        int length;
+
+        for (int x = 0; x < loops; x++) {
+            processor = new HtmlProcessor();
+            processor.setRewriteEngine(engine, URI.create("http://localhost:8080/app/page.html"), "/app/");
+            processor.setWriter(NULL);
+            for (int ofs = 0; ofs < page.length; ofs += CHUNK) {
+                length = Math.min(CHUNK, page.length - ofs);
+                processor.process(CharBuffer.wrap(page), ofs, length);
+            }
+            processor.close();
+        }
+    }
+
+    private static LavenderRewriteEngine engine() {
+        Index index;
+        LavenderRewriteEngine result;
+
+        index = new Index();
+        for (int i = 0; i < 100; i++) {
+            index.add(new Label("img/" + i + ".png", "app/" + i + ".png", Util.md5(Integer.toString(i).getBytes())));
+        }
+        result = new LavenderRewriteEngine(index);
+        result.add(URI.create("http://s1.cdn.net/"));
+        result.add(URI.create("http://s2.cdn.net/"));
+        result.precompute();
+        return result;
+    }
+
+    /** roughly 36k chars, images and picture sources with srcsets of 5 candidates */
+    private static String page() {
+        StringBuilder result;
+
+        result = new StringBuilder();
+        result.append("<!DOCTYPE html>\n<html><head><title>Lavender</title></head>\n<body>\n");
+        for (int i = 0; i < 100; i++) {
+            result.append("<picture>\n  <source media=\"(min-width: 800px)\" srcset=\"");
+            srcset(result, i);
+            result.append("\">\n  <img src=\"img/").append(i).append(".png\" alt=\"teaser\" srcset=\"");
+            srcset(result, i + 1);
+            result.append("\" sizes=\"(max-width: 600px) 480px, 800px\">\n</picture>\n");
+        }
+        result.append("</body></html>\n");
+        return result.toString();
+    }
+
+    private static void srcset(StringBuilder result, int n) {
+        for (int w = 1; w <= 5; w++) {
+            if (w > 1) {
+                result.append(",\n    ");
+            }
+            result.append("img/").append((n + w) % 100).append(".png ").append(w * 320).append('w');
+        }
+    }
+
+    private static final Writer NULL = new Writer() {
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+        }
+
+        @Override
+        public void write(int c) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.filter.pt;
+
+import net.oneandone.lavender.filter.processor.LavenderRewriteEngine;
+import net.oneandone.lavender.filter.processor.Processor;
+import net.oneandone.lavender.filter.processor.SvgProcessor;
+import net.oneandone.lavender.index.Index;
+import net.oneandone.lavender.index.Label;
+import net.oneandone.lavender.index.Util;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.CharBuffer;
+
+/**
+ * Measures SvgProcessor throughput for a chart-like document with paths, images and styles, fed in 8k chunks.
+ */
+@Ignore
+public class SvgProcessorPT {
+    private static final int LOOPS = 2000;
+    private static final int CHUNK = 8192;
+
+    @Test
+    public void testSvg() throws IOException {
+        LavenderRewriteEngine engine;
+        char[] page;
+
+        engine = engine();
+        page = page().toCharArray();
+        run(engine, page, LOOPS / 4);
+        for (int round = 0; round < 5; round++) {
+            long t0 = System.currentTimeMillis();
+            run(engine, page, LOOPS);
+            long t1 = System.currentTimeMillis();
+            long t = t1 - t0;
+            long charsPerSec = 1000L * page.length * LOOPS / Math.max(1, t);
+            System.out.println("svg: t=" + t + ", " + charsPerSec + " chars/s");
+        }
+    }
+
+    private static void run(LavenderRewriteEngine engine, char[] page, int loops) throws IOException {
+        Processor processor;
+        int length;
+
+        for (int x = 0; x < loops; x++) {
+            processor = new SvgProcessor();
+            processor.setRewriteEngine(engine, URI.create("http://localhost:8080/app/chart.svg"), "/app/");
+            processor.setWriter(NULL);
+            for (int ofs = 0; ofs < page.length; ofs += CHUNK) {
+                length = Math.min(CHUNK, page.length - ofs);
+                processor.process(CharBuffer.wrap(page), ofs, length);
+            }
+            processor.close();
+        }
+    }
+
+    private static LavenderRewriteEngine engine() {
+        Index index;
+        LavenderRewriteEngine result;
+
+        index = new Index();
+        for (int i = 0; i < 100; i++) {
+            index.add(new Label("img/" + i + ".png", "app/" + i + ".png", Util.md5(Integer.toString(i).getBytes())));
+        }
+        result = new LavenderRewriteEngine(index);
+        result.add(URI.create("http://s1.cdn.net/"));
+        result.add(URI.create("http://s2.cdn.net/"));
+        result.precompute();
+        return result;
+    }
+
+    /** roughly 40k chars */
+    private static String page() {
+        StringBuilder result;
+
+        result = new StringBuilder();
+        result.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        result.append("<svg xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" viewBox=\"0 0 800 600\">\n");
+        result.append("<style>\n.bg { fill: url(#grad); }\n.logo { background: url(img/1.png) no-repeat; }\n</style>\n");
+        for (int i = 0; i < 100; i++) {
+            result.append("<g id=\"s").append(i).append("\" class=\"series\">\n");
+            result.append("  <path d=\"M").append(i).append(" 0 L 10 20 L 30 40 C 50 60 70 80 90 100 Z\" stroke=\"#333\" fill=\"none\"/>\n");
+            result.append("  <image xlink:href=\"img/").append(i).append(".png\" x=\"10\" y=\"20\" width=\"16\" height=\"16\"/>\n");
+            result.append("  <text x=\"10\" y=\"40\" style=\"font: 12px sans-serif\">Series ").append(i).append("</text>\n");
+            result.append("  <use href=\"#marker\" x=\"").append(i).append("\"/>\n");
+            result.append("</g>\n");
+        }
+        result.append("</svg>\n");
+        return result.toString();
+    }
+
+    private static final Writer NULL = new Writer() {
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+        }
+
+        @Override
+        public void write(int c) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+}
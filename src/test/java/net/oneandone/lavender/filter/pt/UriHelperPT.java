@@ -0,0 +1,69 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.filter.pt;
+
+import net.oneandone.lavender.filter.processor.UriHelper;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+/**
+ * Compares resolving references parsed into a URI with resolving them on the string.
+ */
+@Ignore
+public class UriHelperPT {
+    private static final int LOOPS = 1000000;
+    private static final URI BASE = URI.create("http://localhost:8080/app/page/index.html");
+    private static final String[] REFERENCES = { "/app/img/close.gif", "img/close.gif", "../img/close.gif",
+            "//cdn.net/app/img/close.gif", "http://localhost:8080/app/img/close.gif?v=1" };
+
+    @Test
+    public void testResolve() throws URISyntaxException {
+        uri(LOOPS / 10);
+        string(LOOPS / 10);
+        for (int round = 0; round < 5; round++) {
+            long t0 = System.currentTimeMillis();
+            uri(LOOPS);
+            long t1 = System.currentTimeMillis();
+            string(LOOPS);
+            long t2 = System.currentTimeMillis();
+            System.out.println("uri: " + (1000L * LOOPS / Math.max(1, t1 - t0)) + " resolves/s, string: "
+                    + (1000L * LOOPS / Math.max(1, t2 - t1)) + " resolves/s");
+        }
+    }
+
+    private static int uri(int loops) throws URISyntaxException {
+        int result;
+
+        result = 0;
+        for (int i = 0; i < loops; i++) {
+            result += UriHelper.resolvePathWithoutContext(new URI(REFERENCES[i % REFERENCES.length]), BASE, "/app/").length();
+        }
+        return result;
+    }
+
+    private static int string(int loops) throws URISyntaxException {
+        int result;
+
+        result = 0;
+        for (int i = 0; i < loops; i++) {
+            result += UriHelper.resolvePathWithoutContext(REFERENCES[i % REFERENCES.length], BASE, "/app/").length();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.index;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CompactIndexTest {
+    @Test
+    public void empty() {
+        CompactIndex compact;
+
+        compact = CompactIndex.create(new Index());
+        assertEquals(0, compact.size());
+        assertEquals(-1, compact.find("img/close.gif"));
+        assertNull(compact.lookup(""));
+        assertTrue(!compact.iterator().hasNext());
+    }
+
+    @Test
+    public void sameAsIndex() {
+        Index index;
+        CompactIndex compact;
+        Label expected;
+        Label found;
+        Set<String> paths;
+
+        index = new Index();
+        for (int i = 0; i < 1000; i++) {
+            index.add(new Label("modules/m" + (i % 7) + "/img/" + i + ".gif", "m" + (i % 7) + "/" + i + "/" + i + ".gif",
+                    Util.md5(Integer.toString(i).getBytes())));
+        }
+        index.add(new Label("a", "b", Hex.decode("abcdef1234567890".toCharArray())));
+        index.add(new Label("a b/ü/c.png", "x/y", new byte[0]));
+        compact = CompactIndex.create(index);
+        assertEquals(index.size(), compact.size());
+        paths = new HashSet<>();
+        for (Label label : index) {
+            expected = index.lookup(label.getOriginalPath());
+            found = compact.lookup(label.getOriginalPath());
+            assertEquals(expected.getOriginalPath(), found.getOriginalPath());
+            assertEquals(expected.getLavendelizedPath(), found.getLavendelizedPath());
+            assertArrayEquals(expected.md5(), found.md5());
+            assertEquals(found.getOriginalPath(), compact.originalPath(compact.find(new StringBuilder(label.getOriginalPath()))));
+            paths.add(label.getOriginalPath());
+        }
+        for (Label label : compact) {
+            assertTrue(paths.remove(label.getOriginalPath()));
+        }
+        assertTrue(paths.isEmpty());
+    }
+
+    @Test
+    public void notFound() {
+        Index index;
+        CompactIndex compact;
+
+        index = new Index();
+        index.add(new Label("img/close.gif", "app/close.gif", Util.md5()));
+        compact = CompactIndex.create(index);
+        assertEquals(0, compact.find("img/close.gif"));
+        assertEquals(-1, compact.find("img/close.gi"));
+        assertEquals(-1, compact.find("img/close.gifx"));
+        assertEquals(-1, compact.find("img/close"));
+        assertEquals(-1, compact.find("img"));
+        assertEquals(-1, compact.find("img//close.gif"));
+        assertEquals(-1, compact.find("/img/close.gif"));
+        assertEquals(-1, compact.find("app/close.gif"));
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.index;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class InlineResourcesTest {
+    @Test
+    public void saveAndLoad() throws IOException {
+        InlineResources inline;
+        ByteArrayOutputStream out;
+        InlineResources loaded;
+
+        inline = new InlineResources(4);
+        assertTrue(inline.add("img/a.png", new byte[] { 1, 2, 3 }));
+        assertTrue(inline.add("fonts/b.WOFF2", new byte[] { 'a', 'b', 'c', 'd' }));
+        assertFalse(inline.add("img/large.gif", new byte[] { 1, 2, 3, 4, 5 }));
+        assertFalse(inline.add("js/c.js", new byte[] { 1 }));
+        assertFalse(inline.add("img/d\te.png", new byte[] { 1 }));
+        assertEquals(2, inline.size());
+        assertEquals("data:image/png;base64,AQID", inline.lookup("img/a.png"));
+        assertEquals("data:font/woff2;base64,YWJjZA==", inline.lookup("fonts/b.WOFF2"));
+        out = new ByteArrayOutputStream();
+        inline.save(out);
+        loaded = InlineResources.load(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(2, loaded.size());
+        assertEquals(inline.lookup("img/a.png"), loaded.lookup("img/a.png"));
+        assertEquals(inline.lookup("fonts/b.WOFF2"), loaded.lookup("fonts/b.WOFF2"));
+        assertNull(loaded.lookup("img/large.gif"));
+    }
+
+    @Test
+    public void mimeType() {
+        assertEquals("image/svg+xml", InlineResources.mimeType("a/b.svg"));
+        assertEquals("image/jpeg", InlineResources.mimeType("a.b/c.JPEG"));
+        assertNull(InlineResources.mimeType("a.b/c"));
+        assertNull(InlineResources.mimeType("style.css"));
+    }
+
+    @Test(expected = IOException.class)
+    public void loadInvalid() throws IOException {
+        InlineResources.load(new ByteArrayInputStream("img/a.png=data:image/png;base64,AQID\n".getBytes()));
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.lavender.index;
+
+import net.oneandone.sushi.fs.World;
+import net.oneandone.sushi.fs.file.FileNode;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MappedIndexTest {
+    private static final World WORLD = World.createMinimal();
+
+    private static MappedIndex saveAndLoad(Index index, byte[] textMd5) throws IOException {
+        FileNode file;
+
+        file = WORLD.getTemp().createTempFile();
+        try (OutputStream dest = file.newOutputStream()) {
+            MappedIndex.save(index, textMd5, dest);
+        }
+        return MappedIndex.load(file);
+    }
+
+    @Test
+    public void sameAsIndex() throws IOException {
+        Index index;
+        MappedIndex mapped;
+        Label expected;
+        Label found;
+
+        index = new Index();
+        for (int i = 0; i < 1000; i++) {
+            index.add(new Label("modules/m" + (i % 7) + "/img/" + i + ".gif", "m" + (i % 7) + "/" + i + "/" + i + ".gif",
+                    Util.md5(Integer.toString(i).getBytes())));
+        }
+        index.add(new Label("a", "b", Hex.decode("abcdef1234567890".toCharArray())));
+        index.add(new Label("a b/ü/c.png", "x/y", new byte[0]));
+        mapped = saveAndLoad(index, Util.md5());
+        assertEquals(index.size(), mapped.size());
+        assertArrayEquals(Util.md5(), mapped.textMd5());
+        for (Label label : index) {
+            expected = index.lookup(label.getOriginalPath());
+            found = mapped.lookup(label.getOriginalPath());
+            assertEquals(expected.getOriginalPath(), found.getOriginalPath());
+            assertEquals(expected.getLavendelizedPath(), found.getLavendelizedPath());
+            assertArrayEquals(expected.md5(), found.md5());
+            assertEquals(mapped.find(label.getOriginalPath()), mapped.find(new StringBuilder(label.getOriginalPath())));
+        }
+        assertNull(mapped.lookup("modules/m1/img/1.gi"));
+        assertNull(mapped.lookup("m1/1/1.gif"));
+        assertEquals(-1, mapped.find(""));
+    }
+
+    @Test
+    public void empty() throws IOException {
+        MappedIndex mapped;
+
+        mapped = saveAndLoad(new Index(), Util.md5());
+        assertEquals(0, mapped.size());
+        assertEquals(-1, mapped.find("foo"));
+    }
+
+    @Test(expected = IOException.class)
+    public void notAnIndex() throws IOException {
+        new MappedIndex("test", ByteBuffer.wrap("img/close.gif=app/close.gif\\:abcdef1234567890".getBytes()));
+    }
+
+    @Test(expected = IOException.class)
+    public void unsupportedVersion() throws IOException {
+        ByteBuffer buffer;
+
+        buffer = ByteBuffer.allocate(64);
+        buffer.putInt(0, MappedIndex.MAGIC);
+        buffer.putInt(4, MappedIndex.VERSION + 1);
+        new MappedIndex("test", buffer);
+    }
+
+    @Test
+    public void textFile() throws IOException {
+        ByteArrayOutputStream dest;
+        MappedIndex mapped;
+
+        dest = new ByteArrayOutputStream();
+        MappedIndex.save(index(), Util.md5(), 123, 456000, dest);
+        mapped = new MappedIndex("test", ByteBuffer.wrap(dest.toByteArray()));
+        assertTrue(mapped.isFor(123, 456000));
+        assertFalse(mapped.isFor(123, 458000));
+        assertFalse(mapped.isFor(124, 456000));
+        dest = new ByteArrayOutputStream();
+        MappedIndex.save(index(), Util.md5(), dest);
+        mapped = new MappedIndex("test", ByteBuffer.wrap(dest.toByteArray()));
+        assertFalse(mapped.isFor(-1, -1));
+    }
+
+    @Test(expected = IOException.class)
+    public void truncated() throws IOException {
+        ByteArrayOutputStream dest;
+
+        dest = new ByteArrayOutputStream();
+        MappedIndex.save(index(), Util.md5(), dest);
+        new MappedIndex("test", ByteBuffer.wrap(Arrays.copyOf(dest.toByteArray(), dest.size() - 3)));
+    }
+
+    @Test(expected = IOException.class)
+    public void corruptedTable() throws IOException {
+        ByteArrayOutputStream dest;
+        ByteBuffer buffer;
+
+        dest = new ByteArrayOutputStream();
+        MappedIndex.save(index(), Util.md5(), dest);
+        buffer = ByteBuffer.wrap(dest.toByteArray());
+        for (int slot = 0; slot < buffer.getInt(12); slot++) {
+            buffer.putInt(48 + 4 * slot, 1);
+        }
+        new MappedIndex("test", buffer);
+    }
+
+    private static Index index() {
+        Index result;
+
+        result = new Index();
+        result.add(new Label("a.gif", "x/a.gif", Util.md5()));
+        result.add(new Label("b.gif", "x/b.gif", Util.md5()));
+        return result;
+    }
+}
@@ -16,6 +16,7 @@
 package net.oneandone.lavender.modules;
 
 import net.oneandone.lavender.index.Index;
+import net.oneandone.lavender.index.InlineResources;
 import net.oneandone.sushi.fs.Node;
 import net.oneandone.sushi.fs.World;
 import net.oneandone.sushi.fs.file.FileNode;
@@ -27,6 +28,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class DistributorTest {
     @Test
@@ -36,6 +38,7 @@ public class DistributorTest {
         Module<?> module;
         Index index;
         Distributor distributor;
+        InlineResources inline;
 
         world = World.createMinimal();
         dir = world.guessProjectHome(getClass()).join("src/test/module");
@@ -52,8 +55,10 @@ public class DistributorTest {
             }
         };
         distributor = new Distributor(world.getTemp().createTempDirectory(), new HashMap<>(), new Index(), new Index());
-        distributor.publish(module);
+        inline = new InlineResources(20000);
+        distributor.publish(module, inline);
         index = distributor.close();
         assertEquals("264/5cfe2cb0a569e7d3daa64ebb35e26/foo/vi_login_now.jpg", index.lookup("vi_login_now.jpg").getLavendelizedPath());
+        assertTrue(inline.lookup("vi_login_now.jpg").startsWith("data:image/jpeg;base64,/9j/"));
     }
 }